@@ -0,0 +1,85 @@
+import java.util.concurrent.ForkJoinPool;
+
+public class AdaptiveSORSolver {
+    /*
+    Red-black SOR that chooses its own overcorrection factor, from the grid size and boundary conditions.
+    The best factor depends only on the spectral radius mu of the Jacobi iteration for the grid:
+        omega_opt = 2 / (1 + sqrt(1 - mu^2))
+    and for the five-point stencil on a uniform grid, mu is known exactly (see getJacobiSpectralRadius), so omega is
+    computed in closed form rather than estimated while solving. (Estimating mu from the ratio of successive maximum
+    changes needs many sweeps before the ratio settles, and the ratio overshoots near omega_opt, so an estimate could
+    never do better than the closed form, only cost sweeps on the way to it.)
+
+    omega itself follows the Chebyshev sequence for red-black ordering
+        omega = 1 for the first half-sweep, then 1 / (1 - mu^2 / 2), then 1 / (1 - mu^2 * omega / 4) from then on
+    which converges to omega_opt, and damps the error faster on the way there than a fixed omega_opt would.
+
+    REFERENCES:
+    Press, Teukolsky, Vetterling, Flannery - Numerical Recipes (3rd edition), section 20.5
+    Hageman, Young - Applied Iterative Methods, chapter 9
+    */
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, PoissonBoundaryConditions boundaryConditions,
+                                    double stabilisationThreshold, int maxSweeps, PoissonConvergenceMonitor monitor) {
+        return solve(initialPhi, f, boundaryConditions, stabilisationThreshold, maxSweeps, monitor, ForkJoinPool.commonPool());
+    }
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, PoissonBoundaryConditions boundaryConditions,
+                                    double stabilisationThreshold, int maxSweeps, PoissonConvergenceMonitor monitor,
+                                    ForkJoinPool pool) {
+        // Sweeps until no element changes by more than stabilisationThreshold in a whole sweep
+
+        int width = f.width;
+        int height = f.height;
+        double[] phi = initialPhi.toRowMajorArray();
+        double[] fValues = f.toRowMajorArray();
+
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            // Otherwise phi drifts by the same amount every sweep, so the changes never fall below the threshold
+            PoissonStencil.makeCompatible(fValues, width, height);
+        }
+
+        double jacobiRadius = getJacobiSpectralRadius(width, height, boundaryConditions);
+        double jacobiRadiusSquared = jacobiRadius * jacobiRadius;
+        double omega = 1;
+        boolean firstHalfSweep = true;
+
+        int sweeps = 0;
+        while (sweeps < maxSweeps) {
+            double maxDiff = 0;
+            for (int colour = 0; colour < 2; colour++) {
+                maxDiff = Math.max(maxDiff, RedBlackSORSolver.halfSweep(phi, fValues, width, height, colour, omega, boundaryConditions, pool));
+                omega = getNextOmega(omega, jacobiRadiusSquared, firstHalfSweep);
+                firstHalfSweep = false;
+            }
+            sweeps++;
+
+            if (!monitor.record(sweeps, maxDiff) || maxDiff <= stabilisationThreshold) {
+                break;
+            }
+        }
+
+        return ScalarField.wrap(width, height, phi);
+    }
+
+    public static double getNextOmega(double omega, double jacobiRadiusSquared, boolean firstHalfSweep) {
+        // The factor for the half-sweep after one with the given omega, in the Chebyshev sequence
+        if (firstHalfSweep) {
+            return 1 / (1 - jacobiRadiusSquared / 2);
+        }
+        return 1 / (1 - jacobiRadiusSquared * omega / 4);
+    }
+
+    public static double getJacobiSpectralRadius(int width, int height, PoissonBoundaryConditions boundaryConditions) {
+        // The Jacobi iteration's eigenvectors are products of cosines (NEUMANN) or sines (DIRICHLET) along each side,
+        // with eigenvalues (cos(pi k / (width - 1)) + cos(pi l / (height - 1))) / 2
+        // For NEUMANN, the constant mode (k = l = 0) is left out, since it never changes phi's gradient
+        double xCos = Math.cos(Math.PI / (width - 1));
+        double yCos = Math.cos(Math.PI / (height - 1));
+
+        if (boundaryConditions == PoissonBoundaryConditions.DIRICHLET) {
+            return (xCos + yCos) / 2;
+        }
+        return (1 + Math.max(xCos, yCos)) / 2;
+    }
+}
@@ -22,4 +22,19 @@ public class AreaCalculator {
 
         return Math.abs(area);
     }
+
+    public static double getQuadrilateralArea(double x0, double y0, double x1, double y1,
+                                              double x2, double y2, double x3, double y3) {
+        // Same as getPolygonArea for four vertices, without needing a Vector2D for each of them
+        double area = 0;
+
+        area += x0 * y1 - y0 * x1;
+        area += x1 * y2 - y1 * x2;
+        area += x2 * y3 - y2 * x3;
+        area += x3 * y0 - y3 * x0;
+
+        area /= 2;
+
+        return Math.abs(area);
+    }
 }
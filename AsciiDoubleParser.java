@@ -0,0 +1,231 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class AsciiDoubleParser {
+    /*
+    Parses decimal numbers straight from ASCII bytes in a ByteBuffer, giving exactly the same double as
+    Double.parseDouble, without creating a String.
+
+    Up to 19 significant digits are gathered into a long, w, with a power of 10, q, so that the number is w * 10^q.
+    Then, in order:
+    - If w fits in a double exactly (w <= 2^53) and |q| <= 22, so that 10^q does too, one multiplication or division
+      rounds w * 10^q correctly (Clinger's fast path).
+    - Otherwise the Eisel-Lemire algorithm multiplies w by a 128-bit approximation of 5^q, which gives the correctly
+      rounded result except in rare cases that it detects.
+    - Anything else (more than 19 significant digits, NaN, Infinity, results that are subnormal or overflow, and the
+      rare cases above) is passed to Double.parseDouble.
+
+    An instance is not thread-safe, since end is set by each parse; use one per thread.
+
+    REFERENCES:
+    Clinger, "How to read floating point numbers accurately", PLDI 1990
+    Lemire, "Number parsing at a gigabyte per second", Software: Practice and Experience 51(8), 2021
+    https://github.com/lemire/fast_double_parser
+    */
+
+    private static final int MIN_POWER = -342;  // Below this, w * 10^q rounds to zero for any w
+    private static final int MAX_POWER = 308;  // Above this, w * 10^q overflows for any w
+    private static final int MAX_DIGITS = 19;  // Any 19-digit number fits in a long, read as unsigned
+
+    private static final double[] EXACT_POWERS_OF_10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // 5^q, normalised to 128 bits (its top bit set), split into its high and low 64 bits, for q from MIN_POWER to
+    // MAX_POWER, as in the tables of fast_double_parser
+    private static final long[] POWERS_OF_5_HIGH = new long[MAX_POWER - MIN_POWER + 1];
+    private static final long[] POWERS_OF_5_LOW = new long[MAX_POWER - MIN_POWER + 1];
+    static {
+        BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+        for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+            BigInteger c;
+            if (q < 0) {
+                BigInteger power5 = BigInteger.valueOf(5).pow(-q);
+                int z = power5.bitLength();  // 2^z > 5^-q, since 5^-q is never a power of 2
+                int b = q >= -27 ? z + 127 : 2 * z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                while (c.compareTo(two128) >= 0) {
+                    c = c.shiftRight(1);
+                }
+            } else {
+                c = BigInteger.valueOf(5).pow(q);
+                if (c.bitLength() < 128) {
+                    c = c.shiftLeft(128 - c.bitLength());
+                } else {
+                    c = c.shiftRight(c.bitLength() - 128);  // Truncated
+                }
+            }
+            POWERS_OF_5_HIGH[q - MIN_POWER] = c.shiftRight(64).longValue();
+            POWERS_OF_5_LOW[q - MIN_POWER] = c.longValue();
+        }
+    }
+
+    public int end;  // Set by parse to the index just after the number
+
+    public double parse(ByteBuffer buffer, int start, int limit) {
+        // Parses the number starting at index start (and ending before limit, at the first byte that cannot be part of
+        // it), and sets end
+        // Throws NumberFormatException if there is no number there
+        int i = start;
+        boolean negative = false;
+        if (i < limit && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        long w = 0;
+        int digits = 0;  // Significant digits in w
+        int power = 0;
+        boolean anyDigits = false;
+        boolean tooManyDigits = false;
+
+        // Integer part
+        while (i < limit && isDigit(buffer.get(i))) {
+            int digit = buffer.get(i) - '0';
+            anyDigits = true;
+            if (digits < MAX_DIGITS) {
+                if (w != 0 || digit != 0) {
+                    w = w * 10 + digit;
+                    digits++;
+                }
+            } else {
+                tooManyDigits = true;
+                power++;
+            }
+            i++;
+        }
+        // Fraction part
+        if (i < limit && buffer.get(i) == '.') {
+            i++;
+            while (i < limit && isDigit(buffer.get(i))) {
+                int digit = buffer.get(i) - '0';
+                anyDigits = true;
+                if (digits < MAX_DIGITS) {
+                    if (w != 0 || digit != 0) {
+                        w = w * 10 + digit;
+                        digits++;
+                    }
+                    power--;
+                } else {
+                    tooManyDigits = true;
+                }
+                i++;
+            }
+        }
+        if (!anyDigits) {
+            return parseSlowly(buffer, start, limit);  // NaN, Infinity, or not a number at all
+        }
+        // Exponent
+        if (i < limit && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < limit && (buffer.get(j) == '-' || buffer.get(j) == '+')) {
+                negativeExponent = buffer.get(j) == '-';
+                j++;
+            }
+            if (j >= limit || !isDigit(buffer.get(j))) {
+                throw new NumberFormatException("Missing exponent in " + getText(buffer, start, j));
+            }
+            int exponent = 0;
+            while (j < limit && isDigit(buffer.get(j))) {
+                if (exponent < 100000) {  // Far beyond any double; stops overflow
+                    exponent = exponent * 10 + buffer.get(j) - '0';
+                }
+                j++;
+            }
+            power += negativeExponent ? -exponent : exponent;
+            i = j;
+        }
+        end = i;
+
+        if (tooManyDigits) {
+            return Double.parseDouble(getText(buffer, start, end));
+        }
+        if (w == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+
+        // Clinger's fast path
+        if (w >= 0 && w <= 1L << 53 && power >= -22 && power <= 22) {  // w < 0 means it is above 2^63
+            double value = power < 0 ? w / EXACT_POWERS_OF_10[-power] : w * EXACT_POWERS_OF_10[power];
+            return negative ? -value : value;
+        }
+
+        if (power >= MIN_POWER && power <= MAX_POWER) {
+            long bits = eiselLemire(w, power);
+            if (bits >= 0) {
+                return Double.longBitsToDouble(bits | (negative ? Long.MIN_VALUE : 0));
+            }
+        }
+        return Double.parseDouble(getText(buffer, start, end));
+    }
+
+    private static long eiselLemire(long w, int power) {
+        // The bits of w * 10^power as a positive double, or -1 if it cannot be worked out here
+        // w is unsigned and nonzero
+        long exponent = (((152170 + 65536) * (long) power) >> 16) + 1024 + 63;
+        int leadingZeroes = Long.numberOfLeadingZeros(w);
+        w <<= leadingZeroes;
+
+        long factorHigh = POWERS_OF_5_HIGH[power - MIN_POWER];
+        long upper = Math.unsignedMultiplyHigh(w, factorHigh);
+        long lower = w * factorHigh;
+        if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + w, lower) < 0) {
+            // Too close to call with the high 64 bits of 5^power; bring in the low 64 bits
+            long factorLow = POWERS_OF_5_LOW[power - MIN_POWER];
+            long productLow = w * factorLow;
+            long productMiddle = lower + Math.unsignedMultiplyHigh(w, factorLow);
+            if (Long.compareUnsigned(productMiddle, lower) < 0) {
+                upper++;
+            }
+            if (productMiddle + 1 == 0 && (upper & 0x1FF) == 0x1FF
+                    && Long.compareUnsigned(productLow + w, productLow) < 0) {
+                return -1;
+            }
+            lower = productMiddle;
+        }
+
+        long upperBit = upper >>> 63;
+        long mantissa = upper >>> (upperBit + 9);
+        leadingZeroes += (int) (1 ^ upperBit);
+        if (lower == 0 && (upper & 0x1FF) == 0 && (mantissa & 3) == 1) {
+            return -1;  // Exactly halfway between two doubles, perhaps
+        }
+
+        mantissa += mantissa & 1;  // Round to nearest, ties to even
+        mantissa >>>= 1;
+        if (mantissa >= 1L << 53) {  // Rounded up to the next power of 2
+            mantissa = 1L << 52;
+            leadingZeroes--;
+        }
+        mantissa &= ~(1L << 52);
+
+        long biasedExponent = exponent - leadingZeroes;
+        if (biasedExponent < 1 || biasedExponent > 2046) {
+            return -1;  // Subnormal or infinite
+        }
+        return mantissa | biasedExponent << 52;
+    }
+
+    private double parseSlowly(ByteBuffer buffer, int start, int limit) {
+        // Up to the next comma, whitespace or end of line
+        int i = start;
+        while (i < limit && buffer.get(i) != ',' && buffer.get(i) > ' ') {
+            i++;
+        }
+        end = i;
+        return Double.parseDouble(getText(buffer, start, i));
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static String getText(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
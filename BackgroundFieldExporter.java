@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BackgroundFieldExporter implements AutoCloseable {
+    /*
+    Writes fields to disk on a background thread, so that the optimisation does not wait for the disk.
+    Each field is copied when it is handed over, so the caller can carry on changing it, and the copy is queued for the
+    writer thread. The queue holds at most queueCapacity fields: when it is full, export waits for room, so that a slow
+    disk holds the optimisation back rather than letting copies pile up in memory.
+
+    Fields are written in the binary field format (see FieldFile), and also as CSV if exportCSV is set.
+    If a write fails, the error is thrown by the next call to export, flush or close, and later fields are not written.
+    That includes Errors such as OutOfMemoryError, which are recorded like any other failure. Waits for room in the queue
+    or for a flush also give up if the writer thread has stopped for any reason, rather than waiting forever.
+    close waits for every queued field to be written. In case close is never reached, the queue is also drained when
+    the JVM shuts down.
+
+    The export level decides which iterations are exported at all; see shouldExport.
+    */
+
+    public enum ExportLevel {
+        NONE,
+        FINAL_ONLY,  // Only the last iteration
+        EVERY_N_ITERATIONS  // Every interval-th iteration, counting from 0, and the last one
+    }
+
+    private interface Job {
+        void run() throws IOException;
+    }
+
+    private record FlushMarker(CountDownLatch written) implements Job {
+        // Run even after an error, so that flush never waits forever
+        @Override
+        public void run() {
+            written.countDown();
+        }
+    }
+
+    private static final Job STOP = () -> {};
+    private static final long LIVENESS_CHECK_MILLIS = 100;  // How often waits check that the writer thread is alive
+
+    private final ExportLevel level;
+    private final int interval;
+    private final boolean exportCSV;
+    private final BlockingQueue<Job> queue;
+    private final Thread writerThread;
+    private final Thread shutdownHook;
+    private volatile IOException error = null;  // The first error from the writer thread
+    private volatile boolean closed = false;
+    private boolean stopped = false;  // Whether STOP has been queued
+
+    public BackgroundFieldExporter(ExportLevel level, int interval, int queueCapacity, boolean exportCSV) {
+        if (interval < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("The interval and queue capacity must be positive");
+        }
+        this.level = level;
+        this.interval = interval;
+        this.exportCSV = exportCSV;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        writerThread = new Thread(this::writeQueuedFields, "BackgroundFieldExporter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        shutdownHook = new Thread(this::stopWriterThread);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public boolean shouldExport(int iteration, boolean lastIteration) {
+        return switch (level) {
+            case NONE -> false;
+            case FINAL_ONLY -> lastIteration;
+            case EVERY_N_ITERATIONS -> lastIteration || iteration % interval == 0;
+        };
+    }
+
+    public void export(ScalarField field, String fileName) throws IOException {
+        // fileName has no extension; ".field" (and ".csv") is added
+        ScalarField snapshot = new ScalarField(field);
+        enqueue(() -> {
+            FieldFile.write(snapshot, fileName + ".field");
+            if (exportCSV) {
+                snapshot.exportToCSV(fileName + ".csv");
+            }
+        });
+    }
+
+    public void export(VectorField field, String fileName) throws IOException {
+        // Lenses stay lenses, so that FieldFile records them as such
+        VectorField snapshot = field instanceof Lens ? new Lens(field) : new VectorField(field);
+        enqueue(() -> {
+            FieldFile.write(snapshot, fileName + ".field");
+            if (exportCSV) {
+                snapshot.exportToCSV(fileName + ".csv");
+            }
+        });
+    }
+
+    public void flush() throws IOException {
+        // Waits until every field exported so far has been written
+        CountDownLatch written = new CountDownLatch(1);
+        enqueue(new FlushMarker(written));
+        try {
+            while (!written.await(LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                throwIfWriterStopped();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for fields to be written", e);
+        }
+        throwIfFailed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            stopWriterThread();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, so the hook is running or has run
+            }
+        }
+        throwIfFailed();
+    }
+
+    private void enqueue(Job job) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The exporter has been closed");
+        }
+        throwIfFailed();
+        try {
+            while (!queue.offer(job, LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {  // Waits while the queue is full
+                throwIfWriterStopped();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to queue a field", e);
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (error != null) {
+            throw new IOException("A field could not be written", error);
+        }
+    }
+
+    private void throwIfWriterStopped() throws IOException {
+        if (!writerThread.isAlive()) {
+            throwIfFailed();
+            throw new IOException("The field writer thread has stopped");
+        }
+    }
+
+    private void writeQueuedFields() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == STOP) {
+                return;
+            }
+
+            if (error == null || job instanceof FlushMarker) {  // Fields are skipped after an error
+                try {
+                    job.run();
+                } catch (IOException e) {
+                    error = e;
+                } catch (Throwable e) {  // Errors too, so that the thread carries on releasing flushes
+                    error = new IOException(e);
+                }
+            }
+        }
+    }
+
+    private synchronized void stopWriterThread() {
+        // Queues STOP behind the fields already queued, and waits for them all to be written
+        // Called by close, or by the shutdown hook if close was never reached
+        boolean interrupted = false;
+        while (!stopped && writerThread.isAlive()) {
+            try {
+                // The writer thread is still emptying the queue, so there will be room, unless it has stopped
+                stopped = queue.offer(STOP, LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
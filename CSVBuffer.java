@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class CSVBuffer {
+    /*
+    A growable buffer of ASCII text that numbers are formatted straight into, for writing CSV files without building
+    a String per number or per file. The buffer is reused: once its contents have been written out, clear() empties it
+    without freeing its storage.
+
+    Doubles are written either in the shortest form that reads back as the same double (exactly as Double.toString
+    writes them), or with a fixed number of digits after the decimal point, which is quicker to format, and shorter for
+    most values, but loses precision.
+    Shortest forms are formatted into a reused StringBuilder, whose append(double) does not create a String, and then
+    copied across. Fixed forms are formatted directly, from the value scaled by a power of 10 and rounded to a long;
+    values too large for that are written in their shortest form instead.
+    */
+
+    public static final int SHORTEST = -1;  // Fraction digits for the shortest form that reads back exactly
+    public static final int MAX_FRACTION_DIGITS = 15;
+
+    private static final double[] POWERS_OF_10 = new double[MAX_FRACTION_DIGITS + 1];
+    static {
+        POWERS_OF_10[0] = 1;
+        for (int i = 1; i < POWERS_OF_10.length; i++) {
+            POWERS_OF_10[i] = POWERS_OF_10[i - 1] * 10;
+        }
+    }
+    private static final double MAX_SCALED = 1e17;  // Scaled values below this are exact enough in a long
+
+    private final int fractionDigits;
+    private final StringBuilder shortestForm = new StringBuilder(32);
+    private final byte[] digits = new byte[20];  // Enough for any long
+    private byte[] bytes;
+    private int length = 0;
+
+    public CSVBuffer(int initialCapacity) {
+        this(initialCapacity, SHORTEST);
+    }
+
+    public CSVBuffer(int initialCapacity, int fractionDigits) {
+        if (fractionDigits != SHORTEST && (fractionDigits < 0 || fractionDigits > MAX_FRACTION_DIGITS)) {
+            throw new IllegalArgumentException("Doubles can be written with 0 to " + MAX_FRACTION_DIGITS
+                    + " fraction digits, or SHORTEST");
+        }
+        this.bytes = new byte[Math.max(64, initialCapacity)];
+        this.fractionDigits = fractionDigits;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    public CSVBuffer append(char c) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    public CSVBuffer append(String s) {
+        // s must be ASCII
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            bytes[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public CSVBuffer append(long value) {
+        ensureCapacity(21);  // Sign and 20 digits
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value));
+            }
+            bytes[length++] = '-';
+            value = -value;
+        }
+        appendDigits(value, 1);
+        return this;
+    }
+
+    public CSVBuffer append(double value) {
+        if (fractionDigits == SHORTEST || !Double.isFinite(value)) {
+            return appendShortest(value);
+        }
+
+        double scaled = Math.abs(value) * POWERS_OF_10[fractionDigits];
+        if (!(scaled < MAX_SCALED)) {
+            return appendShortest(value);
+        }
+
+        long rounded = Math.round(scaled);
+        ensureCapacity(3 + MAX_FRACTION_DIGITS + 17);  // Sign, point, leading zero and digits
+        if (value < 0 && rounded != 0) {
+            bytes[length++] = '-';
+        }
+        if (fractionDigits == 0) {
+            appendDigits(rounded, 1);
+        } else {
+            // At least one digit before the point, and exactly fractionDigits after it
+            int start = length;
+            appendDigits(rounded, fractionDigits + 1);
+            int integerDigits = length - start - fractionDigits;
+            System.arraycopy(bytes, start + integerDigits, bytes, start + integerDigits + 1, fractionDigits);
+            bytes[start + integerDigits] = '.';
+            length++;
+        }
+        return this;
+    }
+
+    private CSVBuffer appendShortest(double value) {
+        shortestForm.setLength(0);
+        shortestForm.append(value);
+        ensureCapacity(shortestForm.length());
+        for (int i = 0; i < shortestForm.length(); i++) {
+            bytes[length++] = (byte) shortestForm.charAt(i);
+        }
+        return this;
+    }
+
+    private void appendDigits(long value, int minDigits) {
+        // value must not be negative; it is padded with leading zeroes to at least minDigits digits
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count < minDigits) {
+            digits[count++] = '0';
+        }
+
+        ensureCapacity(count + 1);  // Room for a decimal point too
+        for (int i = count - 1; i >= 0; i--) {
+            bytes[length++] = digits[i];
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class CSVFieldReader {
+    /*
+    Reads ScalarField, VectorField and Lens CSV files, as written by exportToCSV, straight from the bytes of the
+    mapped file, in parallel, without a String or any other object per line or per number.
+
+    The file is split into chunks of CHUNK_BYTES, and each chunk owns the lines that start in it. The chunks are read
+    twice, in parallel:
+    1. Each chunk's lines are counted, which gives the line number of the first line in each chunk, and the number of
+       lines, and so the shape of the field.
+    2. Each chunk's lines are parsed into the field's arrays, at the position given by their line numbers. A chunk's
+       last line can run on into the next chunk, so each chunk is mapped together with up to MAX_LINE_BYTES after it.
+    Numbers are parsed by AsciiDoubleParser, so the values are exactly those that Double.parseDouble would give.
+
+    Scalar fields have one row per line, as values separated by commas; the first line gives the width, and every other
+    line must have as many values. Vector fields have one element per line, as "x, y, vectorX, vectorY", in row-major
+    order, and the last line gives the shape. Each line's x and y must be those of its position, so that every element
+    appears exactly once.
+    Spaces, tabs and carriage returns around values are ignored.
+    */
+
+    private static final long CHUNK_BYTES = 1L << 24;
+    private static final long MAX_LINE_BYTES = 1L << 28;
+
+    public record ScalarArrays(int width, int height, double[] values) {
+        // A scalar field's values, as read, for constructors that take the array itself as their storage
+    }
+
+    public record VectorArrays(int width, int height, double[] xs, double[] ys) {
+        // A vector field's components, as read, for constructors that take the arrays themselves as their storage
+    }
+
+    private record Chunk(ByteBuffer buffer, boolean reachesEndOfFile, AsciiDoubleParser numbers) {
+        // The mapped bytes of one chunk, and those after it, with a parser for the thread reading it
+    }
+
+    private interface LineParser {
+        // Parses the line starting at index start of the chunk's buffer, which is line number line of the file, and
+        // returns the index just after it (after its newline, if it has one)
+        int parse(Chunk chunk, int start, int line) throws IOException;
+    }
+
+    public static ScalarField readScalarField(String fileName) throws IOException {
+        return readScalarField(fileName, ForkJoinPool.commonPool());
+    }
+
+    public static ScalarField readScalarField(String fileName, ForkJoinPool pool) throws IOException {
+        ScalarArrays arrays = readScalarArrays(fileName, pool);
+        return ScalarField.wrap(arrays.width(), arrays.height(), arrays.values());
+    }
+
+    public static ScalarArrays readScalarArrays(String fileName) throws IOException {
+        return readScalarArrays(fileName, ForkJoinPool.commonPool());
+    }
+
+    public static ScalarArrays readScalarArrays(String fileName, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long[] firstLines = countLines(channel, fileName, pool);
+            int height = getLineCount(firstLines, fileName);
+
+            // The number of values on the first line
+            ByteBuffer start = map(channel, 0, Math.min(channel.size(), MAX_LINE_BYTES));
+            AsciiDoubleParser numbers = new AsciiDoubleParser();
+            int width = 0;
+            int i = 0;
+            while (true) {
+                i = skipSpaces(start, i);
+                parseNumber(start, i, numbers, fileName, 0);
+                width++;
+                i = skipSpaces(start, numbers.end);
+                if (i >= start.limit() || start.get(i) != ',') {
+                    break;
+                }
+                i++;
+            }
+            checkSize(width, height, fileName);
+
+            double[] values = new double[width * height];
+            int rowWidth = width;
+            parseLines(channel, firstLines, pool, (chunk, lineStart, line) -> {
+                ByteBuffer buffer = chunk.buffer();
+                AsciiDoubleParser parser = chunk.numbers();
+                int j = lineStart;
+                int rowStart = line * rowWidth;
+                for (int x = 0; x < rowWidth; x++) {
+                    if (x > 0) {
+                        j = expect(buffer, j, ',', fileName, line);
+                    }
+                    j = skipSpaces(buffer, j);
+                    values[rowStart + x] = parseNumber(buffer, j, parser, fileName, line);
+                    j = skipSpaces(buffer, parser.end);
+                }
+                return endLine(chunk, j, fileName, line, "Expected " + rowWidth + " values");
+            });
+            return new ScalarArrays(width, height, values);
+        }
+    }
+
+    public static VectorField readVectorField(String fileName) throws IOException {
+        return readVectorField(fileName, ForkJoinPool.commonPool());
+    }
+
+    public static VectorField readVectorField(String fileName, ForkJoinPool pool) throws IOException {
+        VectorArrays arrays = readVectorArrays(fileName, pool);
+        return VectorField.wrap(arrays.width(), arrays.height(), arrays.xs(), arrays.ys());
+    }
+
+    public static Lens readLens(String fileName) throws IOException {
+        return readLens(fileName, ForkJoinPool.commonPool());
+    }
+
+    public static Lens readLens(String fileName, ForkJoinPool pool) throws IOException {
+        VectorArrays arrays = readVectorArrays(fileName, pool);
+        return Lens.wrap(arrays.width(), arrays.height(), arrays.xs(), arrays.ys());
+    }
+
+    public static VectorArrays readVectorArrays(String fileName) throws IOException {
+        return readVectorArrays(fileName, ForkJoinPool.commonPool());
+    }
+
+    public static VectorArrays readVectorArrays(String fileName, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long[] firstLines = countLines(channel, fileName, pool);
+            int lines = getLineCount(firstLines, fileName);
+
+            // The last line has the largest x and y
+            long size = channel.size();
+            long tailStart = Math.max(0, size - MAX_LINE_BYTES);
+            ByteBuffer tail = map(channel, tailStart, size - tailStart);
+            int lastLineStart = tail.limit();
+            while (lastLineStart > 0 && isSpaceOrNewline(tail.get(lastLineStart - 1))) {
+                lastLineStart--;  // Past the final newline
+            }
+            while (lastLineStart > 0 && tail.get(lastLineStart - 1) != '\n') {
+                lastLineStart--;
+            }
+            AsciiDoubleParser numbers = new AsciiDoubleParser();
+            int i = skipSpaces(tail, lastLineStart);
+            double lastX = parseNumber(tail, i, numbers, fileName, lines - 1);
+            i = expect(tail, skipSpaces(tail, numbers.end), ',', fileName, lines - 1);
+            double lastY = parseNumber(tail, skipSpaces(tail, i), numbers, fileName, lines - 1);
+            if (lastX != Math.rint(lastX) || lastY != Math.rint(lastY) || lastX < 0 || lastY < 0
+                    || (lastX + 1) * (lastY + 1) != lines) {
+                throw new IOException(fileName + " has " + lines + " lines, but its last element is (" + lastX + ", "
+                        + lastY + "), so it is not a whole vector field in row-major order");
+            }
+            int width = (int) lastX + 1;
+            int height = (int) lastY + 1;
+            checkSize(width, height, fileName);
+
+            double[] xs = new double[width * height];
+            double[] ys = new double[width * height];
+            parseLines(channel, firstLines, pool, (chunk, lineStart, line) -> {
+                ByteBuffer buffer = chunk.buffer();
+                AsciiDoubleParser parser = chunk.numbers();
+                int j = skipSpaces(buffer, lineStart);
+                double x = parseNumber(buffer, j, parser, fileName, line);
+                j = skipSpaces(buffer, expect(buffer, skipSpaces(buffer, parser.end), ',', fileName, line));
+                double y = parseNumber(buffer, j, parser, fileName, line);
+                if (x != line % width || y != line / width) {
+                    throw new IOException(fileName + " line " + (line + 1) + ": expected element (" + line % width
+                            + ", " + line / width + "), but found (" + x + ", " + y + ")");
+                }
+                j = skipSpaces(buffer, expect(buffer, skipSpaces(buffer, parser.end), ',', fileName, line));
+                xs[line] = parseNumber(buffer, j, parser, fileName, line);
+                j = skipSpaces(buffer, expect(buffer, skipSpaces(buffer, parser.end), ',', fileName, line));
+                ys[line] = parseNumber(buffer, j, parser, fileName, line);
+                return endLine(chunk, skipSpaces(buffer, parser.end), fileName, line, "Expected 4 values");
+            });
+            return new VectorArrays(width, height, xs, ys);
+        }
+    }
+
+    private static long[] countLines(FileChannel channel, String fileName, ForkJoinPool pool) throws IOException {
+        // The line number of the first line starting in each chunk, and the total number of lines at the end
+        long size = channel.size();
+        if (size == 0) {
+            throw new IOException(fileName + " is empty");
+        }
+        int chunks = (int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+
+        long[] counts = new long[chunks + 1];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            tasks.add(() -> {
+                // A line starts at each index just after a newline, and at 0
+                long start = chunk * CHUNK_BYTES;
+                long end = Math.min(size, start + CHUNK_BYTES);
+                long mapStart = Math.max(0, start - 1);
+                ByteBuffer buffer = map(channel, mapStart, end - 1 - mapStart);
+                long count = start == 0 ? 1 : 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        count++;
+                    }
+                }
+                counts[chunk + 1] = count;
+                return null;
+            });
+        }
+        runAll(pool, tasks);
+
+        for (int c = 1; c <= chunks; c++) {
+            counts[c] += counts[c - 1];
+        }
+        return counts;
+    }
+
+    private static void parseLines(FileChannel channel, long[] firstLines, ForkJoinPool pool, LineParser lineParser)
+            throws IOException {
+        long size = channel.size();
+        int chunks = firstLines.length - 1;
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            tasks.add(() -> {
+                // Mapped from the byte before the chunk, if there is one, to see whether a line starts with the chunk
+                long start = chunk * CHUNK_BYTES;
+                long end = Math.min(size, start + CHUNK_BYTES);
+                long mapStart = Math.max(0, start - 1);
+                long mapEnd = Math.min(size, end + MAX_LINE_BYTES);
+                Chunk mapped = new Chunk(map(channel, mapStart, mapEnd - mapStart), mapEnd == size,
+                        new AsciiDoubleParser());
+                ByteBuffer buffer = mapped.buffer();
+                int chunkStart = (int) (start - mapStart);
+                int chunkEnd = (int) (end - mapStart);
+
+                int i = chunkStart;
+                if (start > 0) {
+                    while (i < chunkEnd && buffer.get(i - 1) != '\n') {
+                        i++;  // Part of a line that started in an earlier chunk
+                    }
+                }
+                int line = (int) firstLines[chunk];
+                while (i < chunkEnd) {
+                    i = lineParser.parse(mapped, i, line);
+                    line++;
+                }
+                return null;
+            });
+        }
+        runAll(pool, tasks);
+    }
+
+    private static void runAll(ForkJoinPool pool, ArrayList<Callable<Void>> tasks) throws IOException {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading", e);
+            } catch (ExecutionException e) {
+                // The pool wraps the IOException thrown by the task in one or more RuntimeExceptions
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException ioException) {
+                        throw ioException;
+                    }
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long start, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    private static int getLineCount(long[] firstLines, String fileName) throws IOException {
+        long lines = firstLines[firstLines.length - 1];
+        if (lines > Integer.MAX_VALUE) {
+            throw new IOException(fileName + " has too many lines");
+        }
+        return (int) lines;
+    }
+
+    private static void checkSize(int width, int height, String fileName) throws IOException {
+        if ((long) width * height > Integer.MAX_VALUE - 8) {
+            throw new IOException(fileName + " holds a " + width + "x" + height + " field, which is too large");
+        }
+    }
+
+    private static double parseNumber(ByteBuffer buffer, int i, AsciiDoubleParser parser, String fileName, int line)
+            throws IOException {
+        try {
+            return parser.parse(buffer, i, buffer.limit());
+        } catch (NumberFormatException e) {
+            throw new IOException(fileName + " line " + (line + 1) + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int expect(ByteBuffer buffer, int i, char c, String fileName, int line) throws IOException {
+        if (i >= buffer.limit() || buffer.get(i) != c) {
+            throw new IOException(fileName + " line " + (line + 1) + ": expected '" + c + "'");
+        }
+        return i + 1;
+    }
+
+    private static int endLine(Chunk chunk, int i, String fileName, int line, String message) throws IOException {
+        ByteBuffer buffer = chunk.buffer();
+        if (i < buffer.limit() && buffer.get(i) == '\n') {
+            return i + 1;
+        }
+        if (i >= buffer.limit() && chunk.reachesEndOfFile()) {  // The last line need not end with a newline
+            return i;
+        }
+        if (i >= buffer.limit()) {
+            throw new IOException(fileName + " line " + (line + 1) + " is longer than " + MAX_LINE_BYTES + " bytes");
+        }
+        throw new IOException(fileName + " line " + (line + 1) + ": " + message);
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int i) {
+        while (i < buffer.limit() && (buffer.get(i) == ' ' || buffer.get(i) == '\t' || buffer.get(i) == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpaceOrNewline(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,209 @@
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+public class CausticRenderer {
+    /*
+    Forward simulation of the image a lens projects, to check a lens without making it.
+    Collimated light of irradiance 1 falls evenly on the lens, so each lens cell collects light in proportion to its
+    (marched) area. The lens is designed so that the ray through each marched vertex meets the screen at the vertex's
+    original grid position when the screen is focalDistance away. With the screen at screenDistance instead, the ray
+    through a vertex at p, aimed at grid position q, meets the screen at
+        p + (q - p) * screenDistance / focalDistance
+    so each cell's light lands on the quadrilateral between where its four corners' rays meet the screen.
+
+    Each cell's light is spread evenly over its quadrilateral by sampling the quadrilateral bilinearly, with enough
+    samples that they are at most 1 / SAMPLES_PER_PIXEL pixels apart, and adding each sample's share to the pixel it
+    falls in. Light that misses the raster is lost. In focus, every cell's light lands on exactly one pixel.
+
+    Cells are splatted in parallel, in bands of BAND_ROWS rows of cells, each into its own buffer covering only the
+    raster rows that the band reaches. The buffers are then added up one raster row at a time, always in band order, so
+    the result is the same whatever the pool.
+    */
+
+    private static final int BAND_ROWS = 16;
+    private static final double SAMPLES_PER_PIXEL = 2;
+    private static final int MAX_SAMPLES_PER_SIDE = 64;  // Per cell; caps the cost of cells that are spread very thinly
+
+    public record Geometry(double focalDistance, double screenDistance, int rasterWidth, int rasterHeight) {
+        // The raster covers the lens's original extent on the screen
+
+        public static Geometry inFocus(int rasterWidth, int rasterHeight) {
+            return new Geometry(1, 1, rasterWidth, rasterHeight);
+        }
+    }
+
+    public static ScalarField render(Lens lens, Geometry geometry) {
+        return render(lens, geometry, ForkJoinPool.commonPool());
+    }
+
+    public static ScalarField render(Lens lens, Geometry geometry, ForkJoinPool pool) {
+        // Returns the irradiance on each raster pixel, relative to the light falling on the lens
+        // (so an unmarched lens, in focus, gives 1 everywhere)
+        int cellsX = lens.width - 1;
+        int cellsY = lens.height - 1;
+        int rasterWidth = geometry.rasterWidth();
+        int rasterHeight = geometry.rasterHeight();
+
+        // Where each vertex's ray meets the screen, in raster pixels
+        double screenFraction = geometry.screenDistance() / geometry.focalDistance();
+        double pixelsPerUnitX = (double) rasterWidth / cellsX;
+        double pixelsPerUnitY = (double) rasterHeight / cellsY;
+        double[] xs = lens.getXs();
+        double[] ys = lens.getYs();
+        double[] screenXs = new double[xs.length];
+        double[] screenYs = new double[ys.length];
+        RowBands.forEach(pool, lens.height, (yStart, yEnd) -> {
+            for (int y = yStart; y < yEnd; y++) {
+                for (int x = 0; x < lens.width; x++) {
+                    int i = y * lens.width + x;
+                    screenXs[i] = (xs[i] + (x - xs[i]) * screenFraction) * pixelsPerUnitX;
+                    screenYs[i] = (ys[i] + (y - ys[i]) * screenFraction) * pixelsPerUnitY;
+                }
+            }
+        });
+
+        // Light per cell, which is its area, since the irradiance is 1; pixelsPerCellArea converts it to raster pixels
+        double[] energies = lens.getCellAreas(pool).getRowMajorArray();
+        double pixelsPerCellArea = pixelsPerUnitX * pixelsPerUnitY;
+
+        int bandCount = (cellsY + BAND_ROWS - 1) / BAND_ROWS;
+        double[][] bandBuffers = new double[bandCount][];
+        int[] bandFirstRows = new int[bandCount];
+
+        RowBands.forEach(pool, bandCount, (bandStart, bandEnd) -> {
+            for (int band = bandStart; band < bandEnd; band++) {
+                int yStart = band * BAND_ROWS;
+                int yEnd = Math.min(cellsY, yStart + BAND_ROWS);
+
+                // Raster rows this band can reach
+                double minY = Double.POSITIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                for (int i = yStart * lens.width; i < (yEnd + 1) * lens.width; i++) {
+                    minY = Math.min(minY, screenYs[i]);
+                    maxY = Math.max(maxY, screenYs[i]);
+                }
+                int firstRow = Math.max(0, (int) Math.floor(minY));
+                int lastRow = Math.min(rasterHeight - 1, (int) Math.floor(maxY));
+                if (firstRow > lastRow) {
+                    continue;  // Misses the raster entirely
+                }
+
+                double[] buffer = new double[(lastRow - firstRow + 1) * rasterWidth];
+                splatBand(lens.width, yStart, yEnd, screenXs, screenYs, energies, pixelsPerCellArea, buffer, firstRow,
+                        lastRow, rasterWidth);
+                bandFirstRows[band] = firstRow;
+                bandBuffers[band] = buffer;
+            }
+        });
+
+        ScalarField result = new ScalarField(rasterWidth, rasterHeight);
+        double[] irradiances = result.getRowMajorArray();
+        RowBands.forEach(pool, rasterHeight, (rowStart, rowEnd) -> {
+            for (int band = 0; band < bandCount; band++) {
+                double[] buffer = bandBuffers[band];
+                if (buffer == null) {
+                    continue;
+                }
+                int firstRow = bandFirstRows[band];
+                int from = Math.max(rowStart, firstRow);
+                int to = Math.min(rowEnd, firstRow + buffer.length / rasterWidth);
+                for (int i = from * rasterWidth; i < to * rasterWidth; i++) {
+                    irradiances[i] += buffer[i - firstRow * rasterWidth];
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private static void splatBand(int lensWidth, int yStart, int yEnd, double[] screenXs, double[] screenYs,
+                                  double[] energies, double pixelsPerCellArea, double[] buffer, int firstRow,
+                                  int lastRow, int rasterWidth) {
+        int cellsX = lensWidth - 1;
+
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = 0; x < cellsX; x++) {
+                int topLeft = y * lensWidth + x;
+                int topRight = topLeft + 1;
+                int bottomLeft = topLeft + lensWidth;
+                int bottomRight = bottomLeft + 1;
+
+                double x0 = screenXs[topLeft], y0 = screenYs[topLeft];
+                double x1 = screenXs[topRight], y1 = screenYs[topRight];
+                double x2 = screenXs[bottomRight], y2 = screenYs[bottomRight];
+                double x3 = screenXs[bottomLeft], y3 = screenYs[bottomLeft];
+
+                // Size of the bounding box, in pixels
+                double extent = Math.max(Math.max(Math.max(x0, x1), Math.max(x2, x3)) - Math.min(Math.min(x0, x1), Math.min(x2, x3)),
+                        Math.max(Math.max(y0, y1), Math.max(y2, y3)) - Math.min(Math.min(y0, y1), Math.min(y2, y3)));
+                int samples = (int) Math.min(MAX_SAMPLES_PER_SIDE, Math.max(1, Math.ceil(extent * SAMPLES_PER_PIXEL)));
+
+                // The cell's light, per sample, in units of (irradiance 1) x (one pixel)
+                double sampleEnergy = energies[y * cellsX + x] * pixelsPerCellArea / (samples * samples);
+
+                for (int j = 0; j < samples; j++) {
+                    double v = (j + 0.5) / samples;
+                    // Along the left and right sides
+                    double leftX = x0 + (x3 - x0) * v, leftY = y0 + (y3 - y0) * v;
+                    double rightX = x1 + (x2 - x1) * v, rightY = y1 + (y2 - y1) * v;
+
+                    for (int i = 0; i < samples; i++) {
+                        double u = (i + 0.5) / samples;
+                        double sampleX = leftX + (rightX - leftX) * u;
+                        double sampleY = leftY + (rightY - leftY) * u;
+
+                        int pixelX = (int) Math.floor(sampleX);
+                        int pixelY = (int) Math.floor(sampleY);
+                        if (pixelX >= 0 && pixelX < rasterWidth && pixelY >= firstRow && pixelY <= lastRow) {
+                            buffer[(pixelY - firstRow) * rasterWidth + pixelX] += sampleEnergy;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static double getMisplacedLight(ScalarField rendered, ScalarField target) {
+        // The share of the light that would have to move to turn the rendered image into the target, from 0 (same
+        // image, up to overall brightness) to 1: half the sum of |difference| between the two, each as shares of
+        // their own total brightness
+        // Both are downsampled to the smaller width and the smaller height of the two first, so one may be wider and
+        // the other taller
+        int width = Math.min(rendered.width, target.width);
+        int height = Math.min(rendered.height, target.height);
+        if (rendered.width != width || rendered.height != height) {
+            rendered = rendered.downsampledTo(width, height);
+        }
+        if (target.width != width || target.height != height) {
+            target = target.downsampledTo(width, height);
+        }
+
+        double[] renderedValues = rendered.getRowMajorArray();
+        double[] targetValues = target.getRowMajorArray();
+        double renderedSum = rendered.getSum();
+        double targetSum = target.getSum();
+
+        double difference = 0;
+        for (int i = 0; i < renderedValues.length; i++) {
+            difference += Math.abs(renderedValues[i] / renderedSum - targetValues[i] / targetSum);
+        }
+        return difference / 2;
+    }
+
+    public static void saveImage(ScalarField rendered, String filePath) throws Exception {
+        // White is the brightest pixel
+        saveImage(rendered, rendered.asDoubleStream().max().orElse(1), filePath);
+    }
+
+    public static void saveImage(ScalarField rendered, double whiteLevel, String filePath) throws Exception {
+        // Greyscale, with irradiance whiteLevel (or more) as white
+        BufferedImage image = new BufferedImage(rendered.width, rendered.height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < rendered.height; y++) {
+            for (int x = 0; x < rendered.width; x++) {
+                int grey = (int) Math.round(255 * Math.clamp(rendered.getElement(x, y) / whiteLevel, 0, 1));
+                image.setRGB(x, y, (grey << 16) | (grey << 8) | grey);
+            }
+        }
+        ImageHandler.saveImage(image, filePath);
+    }
+}
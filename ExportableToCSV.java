@@ -1,13 +1,104 @@
-import java.io.*;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public interface ExportableToCSV {  // For classes that can be exported as a CSV file
-    String toCSVString();
+    /*
+    The CSV text is written a band of rows at a time into a reused CSVBuffer, and from there straight to the file, so
+    the whole file is never held in memory.
+    With a pool, several bands are formatted at once, each into its own buffer, and then written in order, so the file
+    is the same as when written serially. Only PARALLEL_BANDS_PER_THREAD bands per thread are held at a time.
+    */
 
-    default void exportToCSV(String fileName) {
-        try (FileWriter writer = new FileWriter(fileName)) {
-            writer.write(toCSVString());
-        } catch (IOException e) {
-            e.printStackTrace();
+    int BUFFER_BYTES = 1 << 20;
+    int ROWS_PER_BAND = 16;
+    int PARALLEL_BANDS_PER_THREAD = 2;
+
+    int getCSVRowCount();  // The number of rows that appendCSVRows splits the text into
+
+    void appendCSVRows(int yStart, int yEnd, CSVBuffer buffer);  // Rows yStart (inclusive) to yEnd (exclusive)
+
+    default String toCSVString() {
+        CSVBuffer buffer = new CSVBuffer(BUFFER_BYTES);
+        appendCSVRows(0, getCSVRowCount(), buffer);
+        return buffer.toString();
+    }
+
+    default void writeCSV(OutputStream out, int fractionDigits) throws IOException {
+        // fractionDigits is CSVBuffer.SHORTEST, or the number of digits after the decimal point
+        CSVBuffer buffer = new CSVBuffer(BUFFER_BYTES, fractionDigits);
+        int rows = getCSVRowCount();
+        for (int yStart = 0; yStart < rows; yStart += ROWS_PER_BAND) {
+            appendCSVRows(yStart, Math.min(rows, yStart + ROWS_PER_BAND), buffer);
+            if (buffer.length() >= BUFFER_BYTES) {
+                buffer.writeTo(out);
+                buffer.clear();
+            }
+        }
+        buffer.writeTo(out);
+    }
+
+    default void writeCSV(OutputStream out, int fractionDigits, ForkJoinPool pool) throws IOException {
+        int rows = getCSVRowCount();
+        int bandCount = (rows + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        CSVBuffer[] buffers = new CSVBuffer[pool.getParallelism() * PARALLEL_BANDS_PER_THREAD];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new CSVBuffer(BUFFER_BYTES / buffers.length, fractionDigits);
+        }
+
+        for (int firstBand = 0; firstBand < bandCount; firstBand += buffers.length) {
+            int bands = Math.min(buffers.length, bandCount - firstBand);
+            ArrayList<Callable<Void>> tasks = new ArrayList<>(bands);
+            for (int i = 0; i < bands; i++) {
+                CSVBuffer buffer = buffers[i];
+                int yStart = (firstBand + i) * ROWS_PER_BAND;
+                tasks.add(() -> {
+                    buffer.clear();
+                    appendCSVRows(yStart, Math.min(rows, yStart + ROWS_PER_BAND), buffer);
+                    return null;
+                });
+            }
+            runAll(pool, tasks);  // Before writing anything, so that a band that failed is never written
+
+            for (int i = 0; i < bands; i++) {
+                buffers[i].writeTo(out);
+            }
+        }
+    }
+
+    default void exportToCSV(String fileName) throws IOException {
+        exportToCSV(fileName, CSVBuffer.SHORTEST);
+    }
+
+    default void exportToCSV(String fileName, int fractionDigits) throws IOException {
+        try (OutputStream out = new FileOutputStream(fileName)) {
+            writeCSV(out, fractionDigits);
+        }
+    }
+
+    default void exportToCSV(String fileName, int fractionDigits, ForkJoinPool pool) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_BYTES)) {
+            writeCSV(out, fractionDigits, pool);
+        }
+    }
+
+    private static void runAll(ForkJoinPool pool, ArrayList<Callable<Void>> tasks) throws IOException {
+        // Rethrows the first exception thrown by any task, as CSVFieldReader does
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not format rows for the CSV file", e.getCause());
+            }
         }
     }
 }
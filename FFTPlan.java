@@ -0,0 +1,197 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+public class FFTPlan {
+    /*
+    Forward discrete Fourier transform of any length,
+        X(k) = sum over j of x(j) * e^(-2 pi i j k / n)
+    Powers of two use the iterative radix-2 Cooley-Tukey algorithm. Other lengths use Bluestein's algorithm, which
+    rewrites the transform as a convolution that is evaluated with a longer power-of-two transform.
+
+    Plans only hold precomputed tables, so one plan can be shared between threads; each thread needs its own Workspace.
+
+    REFERENCES:
+    https://en.wikipedia.org/wiki/Cooley%E2%80%93Tukey_FFT_algorithm
+    https://en.wikipedia.org/wiki/Chirp_Z-transform#Bluestein's_algorithm
+    */
+
+    private static final ConcurrentHashMap<Integer, FFTPlan> plans = new ConcurrentHashMap<>();
+
+    private final int length;
+
+    // Radix-2 tables (powers of two only)
+    private final int[] bitReversedIndices;
+    private final double[] cosTable;  // cos(2 pi k / length), for k < length / 2
+    private final double[] sinTable;
+
+    // Bluestein tables (other lengths only)
+    private final FFTPlan convolutionPlan;
+    private final double[] chirpRe;  // e^(-pi i j^2 / length)
+    private final double[] chirpIm;
+    private final double[] chirpFilterRe;  // Transform of the conjugated chirp, wrapped around
+    private final double[] chirpFilterIm;
+
+    public static FFTPlan forLength(int length) {
+        // Not computeIfAbsent, since creating a Bluestein plan looks up another plan in the same map
+        FFTPlan plan = plans.get(length);
+        if (plan == null) {
+            plan = new FFTPlan(length);
+            FFTPlan existingPlan = plans.putIfAbsent(length, plan);
+            if (existingPlan != null) {
+                plan = existingPlan;
+            }
+        }
+        return plan;
+    }
+
+    private FFTPlan(int length) {
+        this.length = length;
+
+        if (isPowerOfTwo(length)) {
+            bitReversedIndices = new int[length];
+            int bits = Integer.numberOfTrailingZeros(length);
+            for (int i = 0; i < length; i++) {
+                bitReversedIndices[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+
+            cosTable = new double[length / 2];
+            sinTable = new double[length / 2];
+            for (int k = 0; k < length / 2; k++) {
+                cosTable[k] = Math.cos(2 * Math.PI * k / length);
+                sinTable[k] = Math.sin(2 * Math.PI * k / length);
+            }
+
+            convolutionPlan = null;
+            chirpRe = chirpIm = chirpFilterRe = chirpFilterIm = null;
+        } else {
+            bitReversedIndices = null;
+            cosTable = sinTable = null;
+
+            int convolutionLength = Integer.highestOneBit(2 * length - 1) << 1;
+            convolutionPlan = forLength(convolutionLength);
+
+            chirpRe = new double[length];
+            chirpIm = new double[length];
+            for (int j = 0; j < length; j++) {
+                // j^2 is reduced modulo 2 * length first, so that the angle stays accurate for large j
+                long jSquaredMod = ((long) j * j) % (2L * length);
+                double angle = Math.PI * jSquaredMod / length;
+                chirpRe[j] = Math.cos(angle);
+                chirpIm[j] = -Math.sin(angle);
+            }
+
+            chirpFilterRe = new double[convolutionLength];
+            chirpFilterIm = new double[convolutionLength];
+            chirpFilterRe[0] = chirpRe[0];
+            chirpFilterIm[0] = -chirpIm[0];
+            for (int j = 1; j < length; j++) {
+                chirpFilterRe[j] = chirpFilterRe[convolutionLength - j] = chirpRe[j];
+                chirpFilterIm[j] = chirpFilterIm[convolutionLength - j] = -chirpIm[j];
+            }
+            convolutionPlan.transformRadix2(chirpFilterRe, chirpFilterIm);
+        }
+    }
+
+    private static boolean isPowerOfTwo(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public Workspace createWorkspace() {
+        return new Workspace(this);
+    }
+
+    public void transform(double[] re, double[] im, Workspace workspace) {
+        // Transforms the first length elements of (re, im) in place
+        if (convolutionPlan == null) {
+            transformRadix2(re, im);
+        } else {
+            transformBluestein(re, im, workspace);
+        }
+    }
+
+    private void transformRadix2(double[] re, double[] im) {
+        for (int i = 0; i < length; i++) {
+            int j = bitReversedIndices[i];
+            if (i < j) {
+                double temp = re[i];
+                re[i] = re[j];
+                re[j] = temp;
+                temp = im[i];
+                im[i] = im[j];
+                im[j] = temp;
+            }
+        }
+
+        for (int size = 2; size <= length; size *= 2) {
+            int half = size / 2;
+            int tableStep = length / size;
+
+            for (int start = 0; start < length; start += size) {
+                for (int k = 0; k < half; k++) {
+                    double twiddleRe = cosTable[k * tableStep];
+                    double twiddleIm = -sinTable[k * tableStep];
+
+                    int j = start + k;
+                    int l = j + half;
+
+                    double productRe = re[l] * twiddleRe - im[l] * twiddleIm;
+                    double productIm = re[l] * twiddleIm + im[l] * twiddleRe;
+
+                    re[l] = re[j] - productRe;
+                    im[l] = im[j] - productIm;
+                    re[j] += productRe;
+                    im[j] += productIm;
+                }
+            }
+        }
+    }
+
+    private void transformBluestein(double[] re, double[] im, Workspace workspace) {
+        // X(k) = chirp(k) * sum over j of (x(j) * chirp(j)) * conj(chirp(k - j)), i.e. a convolution
+        int convolutionLength = convolutionPlan.length;
+        double[] aRe = workspace.convolutionRe;
+        double[] aIm = workspace.convolutionIm;
+
+        for (int j = 0; j < length; j++) {
+            aRe[j] = re[j] * chirpRe[j] - im[j] * chirpIm[j];
+            aIm[j] = re[j] * chirpIm[j] + im[j] * chirpRe[j];
+        }
+        for (int j = length; j < convolutionLength; j++) {
+            aRe[j] = 0;
+            aIm[j] = 0;
+        }
+
+        convolutionPlan.transformRadix2(aRe, aIm);
+
+        // Multiply by the filter, conjugating on the way so that a forward transform computes the inverse
+        for (int j = 0; j < convolutionLength; j++) {
+            double productRe = aRe[j] * chirpFilterRe[j] - aIm[j] * chirpFilterIm[j];
+            double productIm = aRe[j] * chirpFilterIm[j] + aIm[j] * chirpFilterRe[j];
+            aRe[j] = productRe;
+            aIm[j] = -productIm;
+        }
+
+        convolutionPlan.transformRadix2(aRe, aIm);
+
+        for (int k = 0; k < length; k++) {
+            double convolutionRe = aRe[k] / convolutionLength;
+            double convolutionIm = -aIm[k] / convolutionLength;
+            re[k] = convolutionRe * chirpRe[k] - convolutionIm * chirpIm[k];
+            im[k] = convolutionRe * chirpIm[k] + convolutionIm * chirpRe[k];
+        }
+    }
+
+    public static class Workspace {
+        private final double[] convolutionRe;
+        private final double[] convolutionIm;
+
+        private Workspace(FFTPlan plan) {
+            int convolutionLength = plan.convolutionPlan == null ? 0 : plan.convolutionPlan.length;
+            convolutionRe = new double[convolutionLength];
+            convolutionIm = new double[convolutionLength];
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class FieldFile {
+    /*
+    A compact binary file format for ScalarField, VectorField and Lens, much faster to write and read than CSV, since
+    nothing is formatted or parsed: the values are copied in bulk between the field's arrays and the file, which is
+    mapped into memory.
+
+    The file is a HEADER_BYTES header, then each component (1 for a scalar field, 2 for a vector field or lens) as its
+    own row-major plane, like the arrays in ScalarField and VectorField. Everything is little-endian.
+        bytes 0-3       MAGIC ("MMFF")
+        bytes 4-7       VERSION
+        byte 8          type (FieldType code: 0 scalar field, 1 vector field, 2 lens)
+        byte 9          precision (0 for float64 values, Precision.DOUBLE; 1 for float32 values, Precision.SINGLE)
+        bytes 10-15     unused (zero)
+        bytes 16-19     width
+        bytes 20-23     height
+        bytes 24-31     unused (zero), so that the values are aligned
+
+    A single mapping can cover at most 2 GB, so each plane is mapped in chunks of at most MAX_CHUNK_BYTES, as in
+    OffHeapGrid.
+    */
+
+    public enum FieldType {
+        // The codes are stored in files, so they must never change, whatever order the constants are in
+        SCALAR_FIELD(0),
+        VECTOR_FIELD(1),
+        LENS(2);
+
+        private final byte code;
+
+        FieldType(int code) {
+            this.code = (byte) code;
+        }
+
+        private static FieldType fromCode(int code) {
+            for (FieldType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final int MAGIC = 0x46464d4d;  // "MMFF", little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    private static final byte DOUBLE_CODE = 0;  // Precision codes, as stored in files
+    private static final byte SINGLE_CODE = 1;
+
+    private record Header(FieldType type, Precision precision, int width, int height) {
+        private int getComponents() {
+            return type == FieldType.SCALAR_FIELD ? 1 : 2;
+        }
+
+        private long getPlaneBytes() {
+            return (long) width * height * (precision == Precision.SINGLE ? Float.BYTES : Double.BYTES);
+        }
+    }
+
+    public static void write(ScalarField field, String fileName) throws IOException {
+        write(field, Precision.DOUBLE, fileName);
+    }
+
+    public static void write(ScalarField field, Precision precision, String fileName) throws IOException {
+        // With Precision.SINGLE, values are rounded to float32, which halves the size of the file
+        write(new Header(FieldType.SCALAR_FIELD, precision, field.width, field.height), fileName,
+                field.getRowMajorArray());
+    }
+
+    public static void write(VectorField field, String fileName) throws IOException {
+        write(field, Precision.DOUBLE, fileName);
+    }
+
+    public static void write(VectorField field, Precision precision, String fileName) throws IOException {
+        // Lenses are recorded as such, so that they can be told apart from velocity fields when read back
+        FieldType type = field instanceof Lens ? FieldType.LENS : FieldType.VECTOR_FIELD;
+        write(new Header(type, precision, field.width, field.height), fileName, field.getXs(), field.getYs());
+    }
+
+    public static ScalarField readScalarField(String fileName) throws IOException {
+        double[][] planes = new double[1][];
+        Header header = read(fileName, planes);
+        if (header.type() != FieldType.SCALAR_FIELD) {
+            throw new IOException(fileName + " holds a " + header.type() + ", not a scalar field");
+        }
+        return ScalarField.wrap(header.width(), header.height(), planes[0]);
+    }
+
+    public static VectorField readVectorField(String fileName) throws IOException {
+        // Lens files can be read as vector fields too
+        double[][] planes = new double[2][];
+        Header header = read(fileName, planes);
+        if (header.type() == FieldType.SCALAR_FIELD) {
+            throw new IOException(fileName + " holds a scalar field, not a vector field");
+        }
+        return VectorField.wrap(header.width(), header.height(), planes[0], planes[1]);
+    }
+
+    public static Lens readLens(String fileName) throws IOException {
+        double[][] planes = new double[2][];
+        Header header = read(fileName, planes);
+        if (header.type() != FieldType.LENS) {
+            throw new IOException(fileName + " holds a " + header.type() + ", not a lens");
+        }
+        return Lens.wrap(header.width(), header.height(), planes[0], planes[1]);
+    }
+
+    public static FieldType readType(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            return readHeader(channel, fileName).type();
+        }
+    }
+
+    private static void write(Header header, String fileName, double[]... planes) throws IOException {
+        if (header.precision() == Precision.MIXED) {
+            throw new IllegalArgumentException("Fields are stored as either DOUBLE or SINGLE precision values");
+        }
+
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            headerBuffer.putInt(MAGIC).putInt(VERSION)
+                    .put(header.type().code)
+                    .put(header.precision() == Precision.SINGLE ? SINGLE_CODE : DOUBLE_CODE)
+                    .putInt(16, header.width()).putInt(20, header.height());
+            headerBuffer.clear();
+            while (headerBuffer.hasRemaining()) {
+                channel.write(headerBuffer, headerBuffer.position());
+            }
+
+            for (int c = 0; c < planes.length; c++) {
+                double[] values = planes[c];
+                long planeStart = HEADER_BYTES + c * header.getPlaneBytes();
+                forEachChunk(channel, FileChannel.MapMode.READ_WRITE, header, planeStart, (buffer, from, count) -> {
+                    if (header.precision() == Precision.SINGLE) {
+                        FloatBuffer floats = buffer.asFloatBuffer();
+                        for (int i = 0; i < count; i++) {
+                            floats.put(i, (float) values[from + i]);
+                        }
+                    } else {
+                        buffer.asDoubleBuffer().put(values, from, count);
+                    }
+                });
+            }
+        }
+    }
+
+    private static Header read(String fileName, double[][] planes) throws IOException {
+        // Fills planes with as many components as the file has, up to planes.length
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            Header header = readHeader(channel, fileName);
+
+            long expectedSize = HEADER_BYTES + header.getComponents() * header.getPlaneBytes();
+            if (channel.size() != expectedSize) {
+                throw new IOException(fileName + " should be " + expectedSize + " bytes for a " + header.width() + "x"
+                        + header.height() + " " + header.type() + ", but is " + channel.size() + " bytes");
+            }
+
+            for (int c = 0; c < Math.min(planes.length, header.getComponents()); c++) {
+                double[] values = new double[header.width() * header.height()];
+                long planeStart = HEADER_BYTES + c * header.getPlaneBytes();
+                forEachChunk(channel, FileChannel.MapMode.READ_ONLY, header, planeStart, (buffer, from, count) -> {
+                    if (header.precision() == Precision.SINGLE) {
+                        FloatBuffer floats = buffer.asFloatBuffer();
+                        for (int i = 0; i < count; i++) {
+                            values[from + i] = floats.get(i);
+                        }
+                    } else {
+                        buffer.asDoubleBuffer().get(values, from, count);
+                    }
+                });
+                planes[c] = values;
+            }
+            return header;
+        }
+    }
+
+    private static Header readHeader(FileChannel channel, String fileName) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException(fileName + " is too short to be a field file");
+            }
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(fileName + " is not a field file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(fileName + " is version " + buffer.getInt(4) + " of the field file format, not " + VERSION);
+        }
+        FieldType type = FieldType.fromCode(buffer.get(8));
+        byte precisionCode = buffer.get(9);
+        int width = buffer.getInt(16);
+        int height = buffer.getInt(20);
+        if (type == null || (precisionCode != DOUBLE_CODE && precisionCode != SINGLE_CODE) || width < 1 || height < 1) {
+            throw new IOException(fileName + " has an invalid header");
+        }
+        Precision precision = precisionCode == SINGLE_CODE ? Precision.SINGLE : Precision.DOUBLE;
+        return new Header(type, precision, width, height);
+    }
+
+    private interface ChunkAction {
+        // buffer holds elements from to from + count - 1 of the plane
+        void run(ByteBuffer buffer, int from, int count) throws IOException;
+    }
+
+    private static void forEachChunk(FileChannel channel, FileChannel.MapMode mode, Header header, long planeStart,
+                                     ChunkAction action) throws IOException {
+        int elements = header.width() * header.height();
+        int bytesPerElement = header.precision() == Precision.SINGLE ? Float.BYTES : Double.BYTES;
+        int elementsPerChunk = (int) (MAX_CHUNK_BYTES / bytesPerElement);
+
+        for (int from = 0; from < elements; from += elementsPerChunk) {
+            int count = Math.min(elementsPerChunk, elements - from);
+            MappedByteBuffer buffer = channel.map(mode, planeStart + (long) from * bytesPerElement,
+                    (long) count * bytesPerElement);
+            action.run(buffer.order(ByteOrder.LITTLE_ENDIAN), from, count);
+        }
+    }
+}
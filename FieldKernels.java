@@ -0,0 +1,100 @@
+import java.util.Arrays;
+import java.util.Random;
+
+public interface FieldKernels {
+    /*
+    The data-parallel loops over whole fields: element-wise arithmetic, gradients, divergences and lens cell areas.
+    All arrays are flat and row-major (element (x, y) is stored at index y * width + x). The output arrays must not be
+    any of the input arrays, except for add, subtract and scale, which work element by element.
+
+    There is a plain implementation, and one that uses SIMD instructions through the incubating Vector API. The SIMD
+    one is only available when the program is compiled and run with --add-modules jdk.incubator.vector (see README).
+    get() picks it when it is available, and falls back to the plain one otherwise.
+    */
+
+    String SIMD_PROPERTY = "magicmirror.simd";  // Set to false to always use the plain kernels
+
+    void add(double[] a, double[] b, double[] out);
+
+    void subtract(double[] a, double[] b, double[] out);
+
+    void scale(double[] a, double factor, double[] out);
+
+    void gradient(double[] field, int width, int height, double[] outX, double[] outY);  // Requires both sides >= 3
+
+    // d(xs)/dx + d(ys)/dy, with the same differences as gradient, in one pass; requires both sides >= 3
+    void divergence(double[] xs, double[] ys, int width, int height, double[] out);
+
+    default void cellAreas(double[] xs, double[] ys, int width, int height, double[] out) {
+        cellAreas(xs, ys, width, height, 0, height - 1, out);  // out is (width - 1) x (height - 1)
+    }
+
+    void cellAreas(double[] xs, double[] ys, int width, int height, int yStart, int yEnd, double[] out);  // Cell rows [yStart, yEnd) only
+
+    static FieldKernels get() {
+        return Selection.KERNELS;
+    }
+
+    class Selection {
+        private static final FieldKernels KERNELS = select();
+
+        private static FieldKernels select() {
+            FieldKernels plain = new PlainFieldKernels();
+
+            if (!Boolean.parseBoolean(System.getProperty(SIMD_PROPERTY, "true"))
+                    || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+                return plain;
+            }
+
+            try {
+                FieldKernels simd = (FieldKernels) Class.forName("SimdFieldKernels").getDeclaredConstructor().newInstance();
+                if (agree(simd, plain)) {
+                    return simd;
+                }
+                System.err.println("SIMD field kernels disagree with the plain kernels, so the plain kernels are used");
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Compiled without the Vector API, so only the plain kernels exist
+            }
+            return plain;
+        }
+
+        private static boolean agree(FieldKernels kernels, FieldKernels reference) {
+            // Both must give exactly the same results, since every operation is done in the same order, without FMA
+            // The size is awkward on purpose, so that the loop tails are covered too
+            int width = 37;
+            int height = 11;
+            int size = width * height;
+
+            Random random = new Random(0);
+            double[] a = random.doubles(size, -10, 10).toArray();
+            double[] b = random.doubles(size, -10, 10).toArray();
+
+            double[][] actual = new double[7][];
+            double[][] expected = new double[7][];
+            for (int i = 0; i < 7; i++) {
+                actual[i] = new double[size];
+                expected[i] = new double[size];
+            }
+
+            kernels.add(a, b, actual[0]);
+            reference.add(a, b, expected[0]);
+            kernels.subtract(a, b, actual[1]);
+            reference.subtract(a, b, expected[1]);
+            kernels.scale(a, 0.3, actual[2]);
+            reference.scale(a, 0.3, expected[2]);
+            kernels.gradient(a, width, height, actual[3], actual[4]);
+            reference.gradient(a, width, height, expected[3], expected[4]);
+            kernels.cellAreas(a, b, width, height, actual[5]);
+            reference.cellAreas(a, b, width, height, expected[5]);
+            kernels.divergence(a, b, width, height, actual[6]);
+            reference.divergence(a, b, width, height, expected[6]);
+
+            for (int i = 0; i < 7; i++) {
+                if (!Arrays.equals(actual[i], expected[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -3,61 +3,58 @@ public class GradientCalculator {
     // https://math.libretexts.org/Bookshelves/Scientific_Computing_Simulations_and_Modeling/Scientific_Computing_(Chasnov)/I%3A_Numerical_Methods/6%3A_Finite_Difference_Approximation
 
     public static VectorField getGradient(ScalarField field) {
+        // Central differences inside, and second-order one-sided differences on the boundaries (see PlainFieldKernels)
         VectorField gradient = new VectorField(field.width, field.height);
-
-        for (int y = 0; y < field.height; y++) {
-            for (int x = 0; x < field.width; x++) {
-                gradient.setElement(x, y, new Vector2D(
-                        getPartialDerivativeWithRespectToX(field, x, y),
-                        getPartialDerivativeWithRespectToY(field, x, y)
-                ));
-            }
-        }
-
+        FieldKernels.get().gradient(field.getRowMajorArray(), field.width, field.height, gradient.getXs(), gradient.getYs());
         return gradient;
     }
 
-    private static double getPartialDerivativeWithRespectToX(ScalarField field, int x, int y) {
-        // On left boundary
-        if (x == 0) {
-            return (
-                    -3 * field.getElement(x, y)
-                    + 4 * field.getElement(x + 1, y)
-                    - field.getElement(x + 2, y)
-            ) / 2.0;
-        }
-
-        // On right boundary
-        if (x == field.width - 1) {
-            return (
-                    3 * field.getElement(x, y)
-                    - 4 * field.getElement(x - 1, y)
-                    + field.getElement(x - 2, y)
-            ) / 2.0;
-        }
-
-        return (field.getElement(x + 1, y) - field.getElement(x - 1, y)) / 2.0;
+    public static ScalarField getDivergence(VectorField field) {
+        // d(field x)/dx + d(field y)/dy, with the same differences as getGradient
+        ScalarField divergence = new ScalarField(field.width, field.height);
+        FieldKernels.get().divergence(field.getXs(), field.getYs(), field.width, field.height,
+                divergence.getRowMajorArray());
+        return divergence;
     }
 
-    private static double getPartialDerivativeWithRespectToY(ScalarField field, int x, int y) {
-        // On top boundary
-        if (y == 0) {
-            return (
-                    -3 * field.getElement(x, y)
-                            + 4 * field.getElement(x, y + 1)
-                            - field.getElement(x, y + 2)
-            ) / 2.0;
+    public static VectorField getGradient(ScalarField field, Precision precision) {
+        // With SINGLE, the gradient is computed in float32 arithmetic from the field rounded to float32
+        // MIXED only affects solving, so it computes the gradient in float64, like DOUBLE
+        if (precision != Precision.SINGLE) {
+            return getGradient(field);
         }
 
-        // On bottom boundary
-        if (y == field.height - 1) {
-            return (
-                    3 * field.getElement(x, y)
-                            - 4 * field.getElement(x, y - 1)
-                            + field.getElement(x, y - 2)
-            ) / 2.0;
+        int width = field.width;
+        int height = field.height;
+        float[] values = field.toFloatArray();
+        VectorField gradient = new VectorField(width, height);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+
+                float dx;
+                if (x == 0) {  // On left boundary
+                    dx = (-3 * values[i] + 4 * values[i + 1] - values[i + 2]) / 2f;
+                } else if (x == width - 1) {  // On right boundary
+                    dx = (3 * values[i] - 4 * values[i - 1] + values[i - 2]) / 2f;
+                } else {
+                    dx = (values[i + 1] - values[i - 1]) / 2f;
+                }
+
+                float dy;
+                if (y == 0) {  // On top boundary
+                    dy = (-3 * values[i] + 4 * values[i + width] - values[i + 2 * width]) / 2f;
+                } else if (y == height - 1) {  // On bottom boundary
+                    dy = (3 * values[i] - 4 * values[i - width] + values[i - 2 * width]) / 2f;
+                } else {
+                    dy = (values[i + width] - values[i - width]) / 2f;
+                }
+
+                gradient.setElement(x, y, dx, dy);
+            }
         }
 
-        return (field.getElement(x, y + 1) - field.getElement(x, y - 1)) / 2.0;
+        return gradient;
     }
 }
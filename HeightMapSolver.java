@@ -0,0 +1,107 @@
+public class HeightMapSolver {
+    /*
+    Finds the height of the lens surface that refracts light as the marched lens requires.
+    Light comes straight down through the (flat-bottomed) lens, and leaves through the top surface, which is at height
+    h above the lens plane and focalDistance - h from the screen. For the light through each marched vertex (x', y') to
+    reach the vertex's original position (x, y) on the screen, it has to leave at angles of
+        atan((x - x') / (focalDistance - h)) and atan((y - y') / (focalDistance - h))
+    from the vertical, and with Snell's law for small angles, the surface must be tilted by that angle / (n - 1), where
+    n is the lens's refractive index. The tilts give the surface normal N, or rather the slopes it must have in x and y,
+    and the surface with those slopes (as nearly as any surface can) solves
+        laplacian(h) = divergence(N)
+    with Neumann boundaries. Since N depends on h through the distance to the screen, N and h are found in turn until h
+    changes by no more than the tolerance; as h is much smaller than focalDistance, this takes a few iterations.
+
+    Everything is computed on the lens's vertices, one height per vertex, in metres, with the lens's width scaled to
+    lensWidth. The iteration starts from the heights found for the last lens of the same size, if any, and each Poisson
+    solve is warm-started from the previous solution, so re-solving after the lens has changed a little is quick.
+    The session should use NEUMANN boundaries.
+
+    REFERENCES:
+    Ferraro - Hiding Images in Plain Sight: The Physics of Magic Windows
+    https://mattferraro.dev/posts/caustic-engineering
+    */
+
+    public static final double ACRYLIC_REFRACTIVE_INDEX = 1.49;
+
+    public record Result(ScalarField heights, int iterations, double lastMaxChange) {
+        // heights has one element per lens vertex, in metres, with a mean of zero
+    }
+
+    private final PoissonSolverSession poissonSolverSession;
+    private final double lensWidth;  // In metres
+    private final double focalDistance;  // In metres
+    private final double refractiveIndex;
+    private final double tolerance;  // In metres
+    private final int maxIterations;
+
+    private ScalarField lastHeights = null;  // Where the next solve on a lens of the same size starts
+
+    public HeightMapSolver(PoissonSolverSession poissonSolverSession, double lensWidth, double focalDistance,
+                           double tolerance, int maxIterations) {
+        this(poissonSolverSession, lensWidth, focalDistance, ACRYLIC_REFRACTIVE_INDEX, tolerance, maxIterations);
+    }
+
+    public HeightMapSolver(PoissonSolverSession poissonSolverSession, double lensWidth, double focalDistance,
+                           double refractiveIndex, double tolerance, int maxIterations) {
+        this.poissonSolverSession = poissonSolverSession;
+        this.lensWidth = lensWidth;
+        this.focalDistance = focalDistance;
+        this.refractiveIndex = refractiveIndex;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+    }
+
+    public Result solve(Lens lens) {
+        int width = lens.width;
+        int height = lens.height;
+        double metresPerUnit = lensWidth / (width - 1);
+
+        double[] xs = lens.getXs();
+        double[] ys = lens.getYs();
+        double[] heights = lastHeights != null && lastHeights.width == width && lastHeights.height == height
+                ? lastHeights.toRowMajorArray() : new double[width * height];
+
+        // The slopes (N) are recomputed in place each iteration
+        VectorField slopes = new VectorField(width, height);
+        double[] slopeXs = slopes.getXs();
+        double[] slopeYs = slopes.getYs();
+
+        int iterations = 0;
+        double maxChange = Double.POSITIVE_INFINITY;
+        while (iterations < maxIterations && maxChange > tolerance) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    double distanceToScreen = focalDistance - heights[i];
+                    double dx = (x - xs[i]) * metresPerUnit;
+                    double dy = (y - ys[i]) * metresPerUnit;
+                    slopeXs[i] = Math.tan(Math.atan(dx / distanceToScreen) / (refractiveIndex - 1));
+                    slopeYs[i] = Math.tan(Math.atan(dy / distanceToScreen) / (refractiveIndex - 1));
+                }
+            }
+
+            // The divergence is per vertex spacing, so the solution is in units of the spacing too
+            ScalarField divergence = GradientCalculator.getDivergence(slopes);
+            double[] newHeights = poissonSolverSession.solve(divergence).phi().getRowMajorArray();
+
+            // Only the shape matters, so the mean is kept at zero, or the heights could drift between iterations
+            double mean = 0;
+            for (double newHeight : newHeights) {
+                mean += newHeight;
+            }
+            mean /= newHeights.length;
+
+            maxChange = 0;
+            for (int i = 0; i < heights.length; i++) {
+                double newHeight = (newHeights[i] - mean) * metresPerUnit;
+                maxChange = Math.max(maxChange, Math.abs(newHeight - heights[i]));
+                heights[i] = newHeight;
+            }
+            iterations++;
+        }
+
+        lastHeights = ScalarField.wrap(width, height, heights.clone());
+        return new Result(ScalarField.wrap(width, height, heights), iterations, maxChange);
+    }
+}
@@ -1,4 +1,4 @@
-import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class Lens extends VectorField {
     public Lens(int horizontalNumOfCells, int verticalNumOfCells) {
@@ -9,46 +9,142 @@ public class Lens extends VectorField {
 
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                setElement(x, y, new Vector2D(x, y));
+                setElement(x, y, x, y);
             }
         }
     }
 
     public Lens(VectorField vectorField) {
-        super(vectorField.width, vectorField.height);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                setElement(x, y, vectorField.getElement(x, y));
-            }
-        }
+        super(vectorField);
     }
 
     public Lens(String csvFileName) throws Exception {
-        this(new VectorField(csvFileName));
+        super(CSVFieldReader.readVectorArrays(csvFileName));
     }
 
-    public ScalarField getCellAreas() {
-        // Returns a scalar field representing the area of each lens cell
+    private Lens(int width, int height, double[] xs, double[] ys) {
+        super(width, height, xs, ys);
+    }
 
-        ScalarField result = new ScalarField(width - 1, height - 1);
+    public static Lens wrap(int width, int height, double[] xs, double[] ys) {
+        // Uses xs and ys themselves as the vertex positions, without copying them
+        return new Lens(width, height, xs, ys);
+    }
+
+    private Lens(OffHeapGrid grid) {
+        super(grid);
+    }
 
-        ArrayList<Vector2D> cellVertices = new ArrayList<>();
-        for (int y = 0; y < height - 1; y++) {
-            for (int x = 0; x < width - 1; x++) {
-                cellVertices.clear();
+    public static Lens wrap(OffHeapGrid grid) {
+        // Uses grid itself as the vertex positions; the passes below need arrays, so only element access works on it
+        return new Lens(grid);
+    }
 
-                cellVertices.add(getElement(x, y));
-                cellVertices.add(getElement(x+1, y));
-                cellVertices.add(getElement(x+1, y+1));
-                cellVertices.add(getElement(x, y+1));
+    /*
+    The passes below work on bands of rows in parallel, on the pool passed in (the common pool by default). Every
+    element is computed exactly as in a serial pass, and minimums are exact whatever order they are combined in, so the
+    results are identical to a serial pass for any pool; see RowBands.
+    */
+
+    public Lens upsampledTo(int horizontalNumOfCells, int verticalNumOfCells) {
+        // A lens with more cells over the same area, with its vertices placed by Catmull-Rom (bicubic) interpolation
+        // between this lens's vertices, and scaled to the new cell size
+        // Bilinear interpolation would make the new cells within each old cell the same size, leaving a pattern of
+        // losses within every old cell that the central-difference gradient of phi cannot see, and so cannot correct
+        // Vertices on the boundary stay on the boundary, so the result can be marched further at the new size
+        if (horizontalNumOfCells < width - 1 || verticalNumOfCells < height - 1) {
+            throw new IllegalArgumentException("Cannot upsample a lens with " + (width - 1) + "x" + (height - 1)
+                    + " cells to " + horizontalNumOfCells + "x" + verticalNumOfCells + " cells");
+        }
 
-                double area = AreaCalculator.getPolygonArea(cellVertices);
+        Lens result = upsampledTo(horizontalNumOfCells, verticalNumOfCells, true);
+        if (result.getCellAreas().asDoubleStream().min().orElse(1) <= 0) {
+            // The cubic can overshoot where the cells change size sharply, and fold a cell over
+            result = upsampledTo(horizontalNumOfCells, verticalNumOfCells, false);
+        }
+        return result;
+    }
 
-                result.setElement(x, y, area);
+    private Lens upsampledTo(int horizontalNumOfCells, int verticalNumOfCells, boolean bicubic) {
+        Lens result = new Lens(horizontalNumOfCells, verticalNumOfCells);
+        double[] xs = getXs();
+        double[] ys = getYs();
+        double[] xWeights = new double[4];
+        double[] yWeights = new double[4];
+
+        for (int y = 0; y < result.height; y++) {
+            double sourceY = (double) y * (height - 1) / verticalNumOfCells;
+            int y0 = Math.min((int) sourceY, height - 2);
+            getInterpolationWeights(sourceY - y0, bicubic, yWeights);
+
+            for (int x = 0; x < result.width; x++) {
+                double sourceX = (double) x * (width - 1) / horizontalNumOfCells;
+                int x0 = Math.min((int) sourceX, width - 2);
+                getInterpolationWeights(sourceX - x0, bicubic, xWeights);
+
+                // Weighted sums over the 4x4 vertices from (x0 - 1, y0 - 1) to (x0 + 2, y0 + 2)
+                double vertexX = 0;
+                double vertexY = 0;
+                for (int j = 0; j < 4; j++) {
+                    for (int i = 0; i < 4; i++) {
+                        double weight = xWeights[i] * yWeights[j];
+                        if (weight != 0) {
+                            vertexX += weight * getExtrapolated(xs, x0 + i - 1, y0 + j - 1);
+                            vertexY += weight * getExtrapolated(ys, x0 + i - 1, y0 + j - 1);
+                        }
+                    }
+                }
+
+                result.setElement(x, y, vertexX * horizontalNumOfCells / (width - 1), vertexY * verticalNumOfCells / (height - 1));
             }
         }
+        return result;
+    }
+
+    private static void getInterpolationWeights(double t, boolean bicubic, double[] weights) {
+        // The weights of the 4 vertices around t (at -1, 0, 1 and 2), which sum to 1
+        if (bicubic) {
+            weights[0] = ((2 - t) * t - 1) * t / 2;
+            weights[1] = ((3 * t - 5) * t * t + 2) / 2;
+            weights[2] = ((4 - 3 * t) * t + 1) * t / 2;
+            weights[3] = (t - 1) * t * t / 2;
+        } else {
+            weights[0] = 0;
+            weights[1] = 1 - t;
+            weights[2] = t;
+            weights[3] = 0;
+        }
+    }
+
+    private double getExtrapolated(double[] values, int x, int y) {
+        // The value at vertex (x, y), extrapolated linearly from the nearest 2 vertices for the ring of vertices just
+        // outside the lens, so the boundary vertices, which lie on a straight line, stay on it
+        if (x < 0) {
+            return 2 * getExtrapolated(values, 0, y) - getExtrapolated(values, 1, y);
+        } else if (x >= width) {
+            return 2 * getExtrapolated(values, width - 1, y) - getExtrapolated(values, width - 2, y);
+        } else if (y < 0) {
+            return 2 * getExtrapolated(values, x, 0) - getExtrapolated(values, x, 1);
+        } else if (y >= height) {
+            return 2 * getExtrapolated(values, x, height - 1) - getExtrapolated(values, x, height - 2);
+        }
+        return values[y * width + x];
+    }
 
+    public ScalarField getCellAreas() {
+        return getCellAreas(ForkJoinPool.commonPool());
+    }
+
+    public ScalarField getCellAreas(ForkJoinPool pool) {
+        // Returns a scalar field representing the area of each lens cell
+
+        ScalarField result = new ScalarField(width - 1, height - 1);
+        double[] xs = getXs();
+        double[] ys = getYs();
+        double[] areas = result.getRowMajorArray();
+        FieldKernels kernels = FieldKernels.get();
+
+        RowBands.forEach(pool, height - 1, (yStart, yEnd) -> kernels.cellAreas(xs, ys, width, height, yStart, yEnd, areas));
         return result;
     }
 
@@ -57,10 +153,34 @@ public class Lens extends VectorField {
     }
 
     public ScalarField getLoss(ScalarField brightnesses) throws Exception {
+        return getLoss(brightnesses, ForkJoinPool.commonPool());
+    }
+
+    public ScalarField getLoss(ScalarField brightnesses, ForkJoinPool pool) throws Exception {
         // Given the target brightnesses from the image, computes the loss of this lens
-        ScalarField brightnessPercentages = brightnesses.divideBy(brightnesses.getSum());
-        ScalarField areaPercentages = getCellAreas().divideBy(getTotalArea());
-        return brightnessPercentages.minus(areaPercentages);
+        // loss = brightnesses / (sum of brightnesses) - cell areas / (total area), computed a band of cells at a time
+        if (!(brightnesses.width + 1 == width && brightnesses.height + 1 == height)) {
+            throw new Exception("Cannot subtract scalar fields of different sizes");
+        }
+
+        double brightnessFactor = 1 / brightnesses.getSum();
+        double areaFactor = 1 / getTotalArea();
+
+        int cellsPerRow = width - 1;
+        double[] xs = getXs();
+        double[] ys = getYs();
+        double[] brightnessValues = brightnesses.getRowMajorArray();  // Only read
+        double[] loss = new double[cellsPerRow * (height - 1)];  // Holds the cell areas until they are replaced
+        FieldKernels kernels = FieldKernels.get();
+
+        RowBands.forEach(pool, height - 1, (yStart, yEnd) -> {
+            kernels.cellAreas(xs, ys, width, height, yStart, yEnd, loss);
+            for (int i = yStart * cellsPerRow; i < yEnd * cellsPerRow; i++) {
+                loss[i] = brightnessValues[i] * brightnessFactor - loss[i] * areaFactor;
+            }
+        });
+
+        return ScalarField.wrap(cellsPerRow, height - 1, loss);
     }
 
     public void marchPointsBasedOnVelocityField(VectorField velField) throws Exception {
@@ -68,114 +188,145 @@ public class Lens extends VectorField {
     }
 
     public void marchPointsBasedOnVelocityField(VectorField velField, double extent) throws Exception {
+        marchPointsBasedOnVelocityField(velField, extent, ForkJoinPool.commonPool());
+    }
+
+    public void marchPointsBasedOnVelocityField(VectorField velField, double extent, ForkJoinPool pool) throws Exception {
+        marchPointsBasedOnVelocityField(velField, extent, Double.POSITIVE_INFINITY, pool);
+    }
+
+    public void marchPointsBasedOnVelocityField(VectorField velField, double extent, double maxTime, ForkJoinPool pool)
+            throws Exception {
         // Morph the lens based on the velocity field by morphing the lens vertices
         // "extent" is a double value between 0 and 1, describing the extent to which the lens is morphed
+        // The vertices move for at most maxTime; extent times the time for the first cell to collapse alone keeps
+        // moving them just as far however small the velocities get, so near the optimum they overshoot it
 
-        VectorField negativeVelField = getAndPrepareNegativeVelocityFieldForMarching(velField);
-
-        VectorField resultantField = new VectorField(width, height);
+        VectorField negativeVelField = getAndPrepareNegativeVelocityFieldForMarching(velField, pool);
 
         // Determine how much to march
-        double minT = Double.POSITIVE_INFINITY;
-
-        ArrayList<Pair<Integer, Integer>[]> triangleCoordGroups = getAllTriangleCoordGroups();
+        double minT = RowBands.min(pool, height - 1, (yStart, yEnd) -> getMinTimeToCollapse(negativeVelField, yStart, yEnd));
 
-        for (Pair<Integer, Integer>[] triangleCoordGroup : triangleCoordGroups) {
-            int x0 = triangleCoordGroup[0].first();
-            int y0 = triangleCoordGroup[0].second();
-            int x1 = triangleCoordGroup[1].first();
-            int y1 = triangleCoordGroup[1].second();
-            int x2 = triangleCoordGroup[2].first();
-            int y2 = triangleCoordGroup[2].second();
-
-            Vector2D p0 = getElement(x0, y0);
-            Vector2D p1 = getElement(x1, y1);
-            Vector2D p2 = getElement(x2, y2);
-
-            Vector2D v0 = negativeVelField.getElement(x0, y0);
-            Vector2D v1 = negativeVelField.getElement(x1, y1);
-            Vector2D v2 = negativeVelField.getElement(x2, y2);
+        assert Double.isFinite(minT);
 
-            double t = minTimeToReduceAreaEnclosedByMovingPointsToZero(p0, p1, p2, v0, v1, v2).orElse(0);
-            if (DoubleUtil.isNonzero(t)) {
-                minT = Math.min(minT, t);
+        // Each vertex only moves based on its own velocity, so they can all be moved in place, as in addScaled
+        double factor = Math.min(minT * extent, maxTime);
+        double[] xs = getXs();
+        double[] ys = getYs();
+        double[] velXs = negativeVelField.getXs();
+        double[] velYs = negativeVelField.getYs();
+
+        RowBands.forEach(pool, height, (yStart, yEnd) -> {
+            for (int i = yStart * width; i < yEnd * width; i++) {
+                xs[i] += velXs[i] * factor;
+                ys[i] += velYs[i] * factor;
             }
-        }
+        });
+    }
 
-        assert Double.isFinite(minT);
+    private double getMinTimeToCollapse(VectorField negativeVelField, int yStart, int yEnd) {
+        // The smallest time for any triangle in cell rows [yStart, yEnd) to collapse
+        CollapseTimeVisitor visitor = new CollapseTimeVisitor(getXs(), getYs(), negativeVelField.getXs(), negativeVelField.getYs());
+        Matrix.forEachTriangle(width, height, yStart, yEnd, visitor);
+        return visitor.minT;
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                resultantField.setElement(x, y, getElement(x, y).plus(negativeVelField.getElement(x, y).scaled(minT * extent)));
-            }
+    private static class CollapseTimeVisitor implements Matrix.TriangleVisitor {
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] velXs;
+        private final double[] velYs;
+        private double minT = Double.POSITIVE_INFINITY;
+
+        private CollapseTimeVisitor(double[] xs, double[] ys, double[] velXs, double[] velYs) {
+            this.xs = xs;
+            this.ys = ys;
+            this.velXs = velXs;
+            this.velYs = velYs;
         }
 
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                setElement(x, y, resultantField.getElement(x, y));
-            }
+        @Override
+        public void visit(int i0, int i1, int i2) {
+            double t = minTimeToReduceAreaEnclosedByMovingPointsToZero(
+                    xs[i0], ys[i0], xs[i1], ys[i1], xs[i2], ys[i2],
+                    velXs[i0], velYs[i0], velXs[i1], velYs[i1], velXs[i2], velYs[i2]);
+            minT = Math.min(minT, t);
         }
     }
 
-    private VectorField getAndPrepareNegativeVelocityFieldForMarching(VectorField velField) throws Exception {
+    private VectorField getAndPrepareNegativeVelocityFieldForMarching(VectorField velField, ForkJoinPool pool) throws Exception {
         if (!((velField.width + 1 == width) && (velField.height + 1 == height))) {
             throw new Exception("Cannot march lens cell vertices based on velocity field if sizes are incompatible");
         }
 
-        VectorField negativeVelField = new VectorField(
-                velField.negated()
-                        .copiedInto(new VectorField(velField.width + 1, velField.height + 1))
-        );
-
-        // Handle right and bottom boundaries
-        for (int x = 0; x < width - 1; x++) {
-            negativeVelField.setElement(x, height - 1, negativeVelField.getElement(x, height - 2));
-        }
-        for (int y = 0; y < height; y++) {
-            negativeVelField.setElement(width - 1, y, negativeVelField.getElement(width - 2, y));
-        }
+        // Each vertex moves with the mean velocity of the (up to 4) cells around it, so that it moves the way all of
+        // them need it to, rather than the way the cell below and to the right of it does
+        VectorField negativeVelField = new VectorField(width, height);
+        RowBands.forEach(pool, height, (yStart, yEnd) -> {
+            for (int y = yStart; y < yEnd; y++) {
+                int cellYStart = Math.max(y - 1, 0);
+                int cellYEnd = Math.min(y, velField.height - 1);
+                for (int x = 0; x < width; x++) {
+                    int cellXStart = Math.max(x - 1, 0);
+                    int cellXEnd = Math.min(x, velField.width - 1);
+                    double sumX = 0;
+                    double sumY = 0;
+                    for (int cellY = cellYStart; cellY <= cellYEnd; cellY++) {
+                        for (int cellX = cellXStart; cellX <= cellXEnd; cellX++) {
+                            sumX += velField.getX(cellX, cellY);
+                            sumY += velField.getY(cellX, cellY);
+                        }
+                    }
+                    int cells = (cellYEnd - cellYStart + 1) * (cellXEnd - cellXStart + 1);
+                    negativeVelField.setElement(x, y, -sumX / cells, -sumY / cells);
+                }
+            }
+        });
 
         for (int x = 0; x < width; x++) {
-            negativeVelField.getElement(x, 0).setY(0);
-            negativeVelField.getElement(x, height - 1).setY(0);
+            negativeVelField.setY(x, 0, 0);
+            negativeVelField.setY(x, height - 1, 0);
         }
         for (int y = 0; y < height; y++) {
-            negativeVelField.getElement(0, y).setX(0);
-            negativeVelField.getElement(width - 1, y).setX(0);
+            negativeVelField.setX(0, y, 0);
+            negativeVelField.setX(width - 1, y, 0);
         }
 
         return negativeVelField;
     }
 
-    private OptionalDouble minTimeToReduceAreaEnclosedByMovingPointsToZero(Vector2D p1, Vector2D p2, Vector2D p3, Vector2D v1, Vector2D v2, Vector2D v3) {
+    public static double minTimeToReduceAreaEnclosedByMovingPointsToZero(double p1x, double p1y, double p2x, double p2y,
+                                                                       double p3x, double p3y, double v1x, double v1y,
+                                                                       double v2x, double v2y, double v3x, double v3y) {
         // Consider three moving points p1, p2 and p3, each with velocity v1, v2 and v3 respectively
-        // Returns the minimum amount of time required for the area of the triangle p1-p2-p3 to drop to zero.
+        // Returns the minimum amount of time required for the area of the triangle p1-p2-p3 to drop to zero, or
+        // positive infinity if it never does
         // We reduce this to a simpler version of the problem where p1 is set to be the coordinate system's origin
 
-        return minTimeToReduceAreaEnclosedByMovingPointsToZero(p2.minus(p1), p3.minus(p1), v2.minus(v1), v3.minus(v1));
-
+        return minTimeToReduceAreaEnclosedByMovingPointsToZero(p2x - p1x, p2y - p1y, p3x - p1x, p3y - p1y,
+                v2x - v1x, v2y - v1y, v3x - v1x, v3y - v1y);
     }
 
-    private OptionalDouble minTimeToReduceAreaEnclosedByMovingPointsToZero(Vector2D p1, Vector2D p2, Vector2D v1, Vector2D v2) {
+    private static double minTimeToReduceAreaEnclosedByMovingPointsToZero(double p1x, double p1y, double p2x, double p2y,
+                                                                        double v1x, double v1y, double v2x, double v2y) {
         // Consider two moving points p1 and p2, each with velocity v1 and v2 respectively
         // Returns the minimum amount of time required for the area of the triangle O-p1-p2 to drop to zero,
-        // where O is the origin.
+        // where O is the origin, or positive infinity if it never does
 
         // Note that the area of the triangle O-p1-p2 equals half of the abs value of
-        // the determinant of the matrix with columns p1 and p2, which allows us to derive a quadratic equation in t
+        // the determinant of the matrix with columns p1 + t * v1 and p2 + t * v2, which is a quadratic in t
         // Hence the following computations
 
-        double a = v1.getX() * v2.getY() - v1.getY() * v2.getX();
-        double b = p1.getX() + v2.getY() + p2.getY() * v1.getX() - p2.getX() * v1.getY() - p1.getY() * v2.getX();
-        double c = p1.getX() * p2.getY() - p2.getX() * p1.getY();
+        double a = v1x * v2y - v1y * v2x;
+        double b = p1x * v2y + p2y * v1x - p2x * v1y - p1y * v2x;
+        double c = p1x * p2y - p2x * p1y;
 
         if (DoubleUtil.isZero(a)) {  // Linear equation
             double solution = -c/b;
             if (solution < 0 || DoubleUtil.isZero(solution)) {
-                return OptionalDouble.empty();
+                return Double.POSITIVE_INFINITY;
             } else {
-                return OptionalDouble.of(solution);
+                return solution;
             }
 
         }
@@ -183,7 +334,7 @@ public class Lens extends VectorField {
         double discriminant = b * b - 4 * a * c;
 
         if (discriminant < 0) {
-            return OptionalDouble.empty();
+            return Double.POSITIVE_INFINITY;
         }
 
         // Two distinct roots
@@ -196,17 +347,17 @@ public class Lens extends VectorField {
         boolean root2Invalid = (root2 < 0) || DoubleUtil.isZero(root2);
 
         if (root1Invalid && root2Invalid) {
-            return OptionalDouble.empty();
+            return Double.POSITIVE_INFINITY;
         }
 
         if (root1Invalid) {
-            return OptionalDouble.of(root2);
+            return root2;
         }
 
         if (root2Invalid) {
-            return OptionalDouble.of(root1);
+            return root1;
         }
 
-        return OptionalDouble.of(Math.min(root1, root2));
+        return Math.min(root1, root2);
     }
 }
@@ -0,0 +1,278 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class LensCheckpointer {
+    /*
+    Saves the state of a MultiresolutionLensOptimiser run every interval outer iterations, so that a run that dies can
+    be resumed from where it got to rather than from the start.
+
+    Each checkpoint is one file in directory, checkpoint-<number>.ckpt, numbered in the order they were saved. It holds
+    the run's parameters, how far the run had got, the lens, and the last phi (so that the next solve starts warm).
+    Only the newest checkpointsKept checkpoints are kept.
+
+    The file is compressed with Deflate, after byte-shuffling the doubles: the values are taken SHUFFLE_BLOCK at a time,
+    and all their first bytes are written, then all their second bytes, and so on. Neighbouring values share their
+    sign, exponent and leading mantissa bits, so the first few byte planes are very repetitive and compress well,
+    whereas the last few are close to random and barely compress at all, whichever order they are in.
+    The uncompressed contents end with their CRC-32, and a checkpoint is written to a temporary file and only then
+    renamed, so a checkpoint that was cut short, or damaged, is never mistaken for a valid one.
+
+    When resuming, the newest checkpoint that is valid, and that was saved by a run with the same parameters, is used.
+
+    REFERENCES:
+    https://www.blosc.org/posts/new-bitshuffle-filter/
+    */
+
+    private static final int MAGIC = 0x4d4d434b;  // "MMCK"
+    private static final int VERSION = 1;
+    private static final int SHUFFLE_BLOCK = 1 << 16;  // Values
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".ckpt";
+
+    public record RunParameters(int targetWidth, int targetHeight, int targetHash, int coarsestSize,
+                                int iterationsPerLevel, int finestLevelIterations) {
+        // Checkpoints are only resumed by a run with the same parameters and target brightnesses
+    }
+
+    public record Checkpoint(RunParameters parameters, int level, int levelIterations, int totalIterations, Lens lens,
+                             ScalarField phi) {
+        // After levelIterations iterations at level (counting from 0, the coarsest), and totalIterations iterations in
+        // all
+    }
+
+    private final Path directory;
+    private final int interval;
+    private final int checkpointsKept;
+    private final boolean resume;
+
+    public LensCheckpointer(String directory, int interval, int checkpointsKept, boolean resume) {
+        // Unless resume is set, any checkpoints already in directory are ignored (and replaced by newer ones in time)
+        if (interval < 1 || checkpointsKept < 1) {
+            throw new IllegalArgumentException("The interval and the number of checkpoints kept must be positive");
+        }
+        this.directory = Path.of(directory);
+        this.interval = interval;
+        this.checkpointsKept = checkpointsKept;
+        this.resume = resume;
+    }
+
+    public static RunParameters getRunParameters(ScalarField targetBrightnesses, int coarsestSize,
+                                                 int iterationsPerLevel, int finestLevelIterations) {
+        return new RunParameters(targetBrightnesses.width, targetBrightnesses.height,
+                Arrays.hashCode(targetBrightnesses.getRowMajorArray()), coarsestSize, iterationsPerLevel,
+                finestLevelIterations);
+    }
+
+    public boolean isDue(int totalIterations) {
+        return totalIterations % interval == 0;
+    }
+
+    public void save(Checkpoint checkpoint) throws IOException {
+        Files.createDirectories(directory);
+        ArrayList<Long> numbers = getCheckpointNumbers();
+        long number = numbers.isEmpty() ? 0 : numbers.getLast() + 1;
+        Path file = directory.resolve(PREFIX + number + SUFFIX);
+        Path temporaryFile = directory.resolve(PREFIX + number + SUFFIX + ".tmp");
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream fileOut = Files.newOutputStream(temporaryFile);
+             DeflaterOutputStream deflated = new DeflaterOutputStream(new BufferedOutputStream(fileOut, BUFFER_BYTES),
+                     deflater, BUFFER_BYTES)) {
+            CheckedOutputStream checked = new CheckedOutputStream(deflated, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, BUFFER_BYTES));
+
+            RunParameters parameters = checkpoint.parameters();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(parameters.targetWidth());
+            out.writeInt(parameters.targetHeight());
+            out.writeInt(parameters.targetHash());
+            out.writeInt(parameters.coarsestSize());
+            out.writeInt(parameters.iterationsPerLevel());
+            out.writeInt(parameters.finestLevelIterations());
+            out.writeInt(checkpoint.level());
+            out.writeInt(checkpoint.levelIterations());
+            out.writeInt(checkpoint.totalIterations());
+
+            Lens lens = checkpoint.lens();
+            out.writeInt(lens.width);
+            out.writeInt(lens.height);
+            writeShuffled(out, lens.getXs());
+            writeShuffled(out, lens.getYs());
+
+            ScalarField phi = checkpoint.phi();
+            out.writeInt(phi.width);
+            out.writeInt(phi.height);
+            writeShuffled(out, phi.getRowMajorArray());
+
+            out.flush();
+            new DataOutputStream(deflated).writeLong(checked.getChecksum().getValue());  // Not part of the checksum
+        } finally {
+            deflater.end();
+        }
+
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        numbers.add(number);
+        for (int i = 0; i < numbers.size() - checkpointsKept; i++) {
+            Files.deleteIfExists(directory.resolve(PREFIX + numbers.get(i) + SUFFIX));
+        }
+    }
+
+    public Checkpoint loadNewest(RunParameters parameters) throws IOException {
+        // The newest valid checkpoint saved by a run with these parameters, or null if there is none (or if not
+        // resuming)
+        if (!resume || !Files.isDirectory(directory)) {
+            return null;
+        }
+
+        ArrayList<Long> numbers = getCheckpointNumbers();
+        for (int i = numbers.size() - 1; i >= 0; i--) {
+            Path file = directory.resolve(PREFIX + numbers.get(i) + SUFFIX);
+            try {
+                Checkpoint checkpoint = load(file);
+                if (checkpoint.parameters().equals(parameters)) {
+                    return checkpoint;
+                }
+                System.out.println("Skipping checkpoint " + file + ", which was saved by a run with different parameters");
+            } catch (IOException e) {
+                System.out.println("Skipping checkpoint " + file + ", which is not valid: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    public static Checkpoint load(Path file) throws IOException {
+        Inflater inflater = new Inflater();
+        try (InputStream fileIn = Files.newInputStream(file);
+             InflaterInputStream inflated = new InflaterInputStream(new BufferedInputStream(fileIn, BUFFER_BYTES),
+                     inflater, BUFFER_BYTES)) {
+            CheckedInputStream checked = new CheckedInputStream(inflated, new CRC32());
+            DataInputStream in = new DataInputStream(checked);  // Not buffered, so that it reads no further than asked
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Version " + version + " of the checkpoint format, not " + VERSION);
+            }
+            RunParameters parameters = new RunParameters(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt());
+            int level = in.readInt();
+            int levelIterations = in.readInt();
+            int totalIterations = in.readInt();
+
+            int lensWidth = readDimension(in);
+            int lensHeight = readDimension(in);
+            checkSize(lensWidth, lensHeight);
+            double[] xs = readShuffled(in, lensWidth * lensHeight);
+            double[] ys = readShuffled(in, lensWidth * lensHeight);
+            Lens lens = Lens.wrap(lensWidth, lensHeight, xs, ys);
+
+            int phiWidth = readDimension(in);
+            int phiHeight = readDimension(in);
+            checkSize(phiWidth, phiHeight);
+            ScalarField phi = ScalarField.wrap(phiWidth, phiHeight, readShuffled(in, phiWidth * phiHeight));
+
+            long checksum = checked.getChecksum().getValue();
+            if (new DataInputStream(inflated).readLong() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            if (inflated.read() != -1) {
+                throw new IOException("Unexpected data after the checksum");
+            }
+
+            return new Checkpoint(parameters, level, levelIterations, totalIterations, lens, phi);
+        } catch (EOFException e) {
+            throw new IOException("Cut short", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ArrayList<Long> getCheckpointNumbers() throws IOException {
+        // In increasing order
+        ArrayList<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return numbers;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static int readDimension(DataInputStream in) throws IOException {
+        int dimension = in.readInt();
+        if (dimension < 1) {
+            throw new IOException("Invalid field size " + dimension);
+        }
+        return dimension;
+    }
+
+    private static void checkSize(int width, int height) throws IOException {
+        if ((long) width * height > Integer.MAX_VALUE - 8) {
+            throw new IOException("Invalid field size " + width + "x" + height);
+        }
+    }
+
+    private static void writeShuffled(DataOutputStream out, double[] values) throws IOException {
+        byte[] shuffled = new byte[Math.min(values.length, SHUFFLE_BLOCK) * Double.BYTES];
+        for (int blockStart = 0; blockStart < values.length; blockStart += SHUFFLE_BLOCK) {
+            int count = Math.min(SHUFFLE_BLOCK, values.length - blockStart);
+            for (int i = 0; i < count; i++) {
+                long bits = Double.doubleToRawLongBits(values[blockStart + i]);
+                for (int b = 0; b < Double.BYTES; b++) {
+                    shuffled[b * count + i] = (byte) (bits >>> (56 - 8 * b));  // Most significant byte first
+                }
+            }
+            out.write(shuffled, 0, count * Double.BYTES);
+        }
+    }
+
+    private static double[] readShuffled(DataInputStream in, int length) throws IOException {
+        double[] values = new double[length];
+        byte[] shuffled = new byte[Math.min(length, SHUFFLE_BLOCK) * Double.BYTES];
+        for (int blockStart = 0; blockStart < length; blockStart += SHUFFLE_BLOCK) {
+            int count = Math.min(SHUFFLE_BLOCK, length - blockStart);
+            in.readFully(shuffled, 0, count * Double.BYTES);
+            for (int i = 0; i < count; i++) {
+                long bits = 0;
+                for (int b = 0; b < Double.BYTES; b++) {
+                    bits = bits << 8 | (shuffled[b * count + i] & 0xFF);
+                }
+                values[blockStart + i] = Double.longBitsToDouble(bits);
+            }
+        }
+        return values;
+    }
+}
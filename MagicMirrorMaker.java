@@ -4,46 +4,75 @@ public class MagicMirrorMaker {
     public static void main(String[] args) {
         long startTime = System.nanoTime();
 
-        try {
+        // Files are only exported at the full size, in the binary field format (see FieldFile), and also as CSV if the
+        // last argument is true
+        // They are written in the background, so the optimisation never waits for the disk, unless more than 8 fields
+        // are waiting to be written
+        try (BackgroundFieldExporter exporter = new BackgroundFieldExporter(
+                BackgroundFieldExporter.ExportLevel.EVERY_N_ITERATIONS, 1, 8, false)) {
             BufferedImage image = ImageHandler.loadImage("Files/UncroppedImage.jpg");
             image = ImageHandler.scaleBy(image, 0.25);
 
             ScalarField targetBrightnesses = new ScalarField(image, 162, 15, 256, 256);
 
-            Lens lens = new Lens(targetBrightnesses.width, targetBrightnesses.height);
+            /*
+            TESTS FOR DIFFERENT OVERCORRECTION VALUES
 
-            int iterations = 0;
-            while (iterations < 5) {
-                ScalarField loss = lens.getLoss(targetBrightnesses);
-                loss.exportToCSV(createCSVFileName("loss", iterations));
+            Value       Max diff after 10000 updates
+            1.0         4.00 E-7
+            1.0625      3.27 E-7
+            1.125       2.98 E-7
+            1.1875      3.20 E-7
+            1.25        3.36 E-7
+            1.5         3.54 E-7
+            1.75        5.5 E-7
+            1.9         1.48 E-6
+            1.94        2.52 E-6
 
-                /*
-                TESTS FOR DIFFERENT OVERCORRECTION VALUES
+            ADAPTIVE_SOR now picks the factor itself, from the grid size and boundary conditions
+             */
 
-                Value       Max diff after 10000 updates
-                1.0         4.00 E-7
-                1.0625      3.27 E-7
-                1.125       2.98 E-7
-                1.1875      3.20 E-7
-                1.25        3.36 E-7
-                1.5         3.54 E-7
-                1.75        5.5 E-7
-                1.9         1.48 E-6
-                1.94        2.52 E-6
-                 */
+            // Each solve starts from the previous iteration's phi, since the loss only changes a little between iterations
+            // Progress is printed every 1000 updates
+            PoissonSolveListener progressPrinter = (updates, maxDiff) -> System.out.println("Update " + updates + ": max diff " + maxDiff);
+            PoissonSolverSession poissonSolverSession = new PoissonSolverSession(-1, PoissonBoundaryConditions.NEUMANN, PoissonMethod.ADAPTIVE_SOR, 1e-10, 150000,
+                    progressPrinter, 1000);
 
-                ScalarField phi = PoissonSolver.solvePoisson(loss, 1.125, PoissonBoundaryConditions.NEUMANN, PoissonMethod.GAUSS_SEIDEL, 1e-10, 150000);
-                phi.exportToCSV(createCSVFileName("poissonSolution", iterations));
+            // The lens is optimised at 32x32, 64x64 and 128x128 first, so that only a few iterations are needed at the
+            // full size; see MultiresolutionLensOptimiser
+            int finestLevelIterations = 5;
+            MultiresolutionLensOptimiser.IterationListener iterationPrinter = (iteration, loss, solveResult, velField, lens) -> {
+                int width = lens.width - 1;
+                int height = lens.height - 1;
+                System.out.println(width + "x" + height + " iteration " + iteration + ": solved in " + solveResult.iterations()
+                        + " updates (" + solveResult.getWallTimeSeconds() + " secs), final residual " + solveResult.finalResidual());
 
-                VectorField velField = GradientCalculator.getGradient(phi);  // = gradient(phi)
+                boolean fullSize = width == targetBrightnesses.width && height == targetBrightnesses.height;
+                if (fullSize && exporter.shouldExport(iteration, iteration == finestLevelIterations - 1)) {
+                    exporter.export(loss, createFileName("loss", iteration));
+                    exporter.export(solveResult.phi(), createFileName("poissonSolution", iteration));
+                    exporter.export(velField, createFileName("velField", iteration));
+                    exporter.export(lens, createFileName("postMarchingLens", iteration));
+                }
+            };
+            // The run is checkpointed after every outer iteration, keeping the last 2 checkpoints
+            // Run with --resume to carry on from the newest checkpoint, after the run was stopped
+            boolean resume = args.length > 0 && args[0].equals("--resume");
+            LensCheckpointer checkpointer = new LensCheckpointer("Files/checkpoints", 1, 2, resume);
+            MultiresolutionLensOptimiser optimiser = new MultiresolutionLensOptimiser(poissonSolverSession,
+                    MultiresolutionLensOptimiser.DEFAULT_COARSEST_SIZE, 5, finestLevelIterations, iterationPrinter,
+                    checkpointer);
+            Lens lens = optimiser.optimise(targetBrightnesses);
 
-                velField.exportToCSV(createCSVFileName("velField", iterations));
-
-                lens.marchPointsBasedOnVelocityField(velField);
-                lens.exportToCSV(createCSVFileName("postMarchingLens", iterations));
-
-                iterations++;
+            // The surface for a 10 cm wide lens, focused 20 cm away
+            PoissonSolverSession heightMapSession = new PoissonSolverSession(-1, PoissonBoundaryConditions.NEUMANN, PoissonMethod.MULTIGRID, 1e-8, 1000);
+            HeightMapSolver heightMapSolver = new HeightMapSolver(heightMapSession, 0.1, 0.2, 1e-9, 20);
+            HeightMapSolver.Result heightMap = heightMapSolver.solve(lens);
+            System.out.println("Height map: " + heightMap.iterations() + " iterations, last max change " + heightMap.lastMaxChange() + " m");
+            if (exporter.shouldExport(0, true)) {
+                exporter.export(heightMap.heights(), "Files/heightMap");
             }
+            SurfaceExporter.exportToSTL(heightMap.heights(), 0.1, 0.005, "Files/lens.stl");  // In mm, on a 5 mm thick base
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
@@ -53,7 +82,12 @@ public class MagicMirrorMaker {
         }
     }
 
-    public static String createCSVFileName(String identifier, int iterations) {
-        return "Files/" + identifier + iterations + ".csv";
+    public static String createFileName(String identifier, int iterations) {
+        // Without an extension
+        return "Files/" + identifier + iterations;
+    }
+
+    public static String createFieldFileName(String identifier, int iterations) {
+        return createFileName(identifier, iterations) + ".field";
     }
 }
@@ -14,7 +14,7 @@ public class Matrix<T> {
     public Matrix(int width, int height) {
         this.width = width;
         this.height = height;
-        this.matrix = (T[][]) new Object[width][height];
+        this.matrix = (T[][]) new Object[height][width];  // Indexed as matrix[y][x]
     }
 
     public Matrix(Matrix<T> m) {
@@ -115,7 +115,7 @@ public class Matrix<T> {
     }
 
     @SuppressWarnings("unchecked")
-    private ArrayList<Pair<Integer, Integer>[]> getAllSquareCoordGroups() {
+    private static ArrayList<Pair<Integer, Integer>[]> getAllSquareCoordGroups(int width, int height) {
         // Returns a list of Pair<Integer, Integer> arrays, each containing four coordinates that in the matrix forms a
         // 1x1 square.
         // Each Pair<Integer, Integer> array describes squares in clockwise order, starting with the top left corner
@@ -136,8 +136,39 @@ public class Matrix<T> {
         return result;
     }
 
-    @SuppressWarnings("unchecked")
     public ArrayList<Pair<Integer, Integer>[]> getAllTriangleCoordGroups() {
+        return getAllTriangleCoordGroups(width, height);
+    }
+
+    public interface TriangleVisitor {
+        // i0, i1 and i2 are the row-major indices (y * width + x) of the triangle's vertices, in the same order as in
+        // getAllTriangleCoordGroups
+        void visit(int i0, int i1, int i2);
+    }
+
+    public void forEachTriangle(TriangleVisitor visitor) {
+        forEachTriangle(width, height, 0, height - 1, visitor);
+    }
+
+    public static void forEachTriangle(int width, int height, int yStart, int yEnd, TriangleVisitor visitor) {
+        // Visits the same triangles in the same order as getAllTriangleCoordGroups, without building the list, for the
+        // squares in rows yStart (inclusive) to yEnd (exclusive)
+        // Nothing is allocated, so this can be used in passes over the whole mesh that are repeated many times
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = 0; x < width - 1; x++) {
+                int topLeft = y * width + x;
+                int topRight = topLeft + 1;
+                int bottomRight = topRight + width;
+                int bottomLeft = topLeft + width;
+
+                visitor.visit(topLeft, topRight, bottomLeft);  // Upper triangle
+                visitor.visit(topRight, bottomRight, bottomLeft);  // Lower triangle
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static ArrayList<Pair<Integer, Integer>[]> getAllTriangleCoordGroups(int width, int height) {
         /*
         Returns a list of Pair<Integer, Integer> arrays, each containing three elements that in the matrix forms a
         triangle, laid out as follows:
@@ -152,7 +183,7 @@ public class Matrix<T> {
 
         ArrayList<Pair<Integer, Integer>[]> result = new ArrayList<>();
 
-        ArrayList<Pair<Integer, Integer>[]> squareCoordGroups = getAllSquareCoordGroups();
+        ArrayList<Pair<Integer, Integer>[]> squareCoordGroups = getAllSquareCoordGroups(width, height);
 
         for (Pair<Integer, Integer>[] square : squareCoordGroups) {
             Pair<Integer, Integer>[] upperTriangleCoordGroup = new Pair[] {square[0], square[1], square[3]};
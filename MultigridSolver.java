@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MultigridSolver {
+    /*
+    Geometric multigrid for the same five-point Poisson problem that PoissonSolver iterates on.
+    Each V-cycle smooths the error with a few Gauss-Seidel sweeps, restricts the residual onto a grid with about half
+    the resolution, recursively solves for the error there, and interpolates that correction back. Every level removes
+    the error components that are smooth on the level above, so the number of cycles needed does not grow with grid
+    size, and each cycle costs a fixed multiple of one sweep.
+
+    Every level spans exactly the same domain, so that the boundaries of all levels line up. When a side length is
+    even the coarse spacing is therefore slightly larger than 2, and the transfers interpolate at fractional positions.
+
+    REFERENCES:
+    https://math.libretexts.org/Bookshelves/Scientific_Computing_Simulations_and_Modeling/Scientific_Computing_(Chasnov)/I%3A_Numerical_Methods/7%3A_Iterative_Methods
+    Briggs, Henson, McCormick - A Multigrid Tutorial (2nd edition), chapters 3 and 4
+    */
+
+    private static final int PRE_SMOOTHING_SWEEPS = 2;
+    private static final int POST_SMOOTHING_SWEEPS = 2;
+    private static final int MIN_SIDE_LEN_FOR_COARSENING = 5;
+    private static final double MAX_SPACING_RATIO = 1.5;
+    private static final int MIN_COARSEST_SWEEPS = 1000;
+
+    public static ScalarField solve(ScalarField f, PoissonBoundaryConditions boundaryConditions,
+                                    double stabilisationThreshold, int maxCycles) {
+        ScalarField phi = new ScalarField(f.width, f.height);  // Initialised to zeroes
+        return solve(phi, f, boundaryConditions, stabilisationThreshold, maxCycles, new PoissonConvergenceMonitor());
+    }
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, PoissonBoundaryConditions boundaryConditions,
+                                    double stabilisationThreshold, int maxCycles, PoissonConvergenceMonitor monitor) {
+        // Repeats V-cycles until no element of phi changes by more than stabilisationThreshold in a whole cycle
+
+        ArrayList<Level> levels = createLevels(f.width, f.height, boundaryConditions);
+        Level finest = levels.getFirst();
+
+        System.arraycopy(initialPhi.getRowMajorArray(), 0, finest.phi, 0, finest.size());
+        System.arraycopy(f.getRowMajorArray(), 0, finest.f, 0, finest.size());
+
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            PoissonStencil.makeCompatible(finest.f, finest.width, finest.height);
+        }
+
+        double[] previousPhi = new double[finest.size()];
+
+        int cycles = 0;
+        while (cycles < maxCycles) {
+            System.arraycopy(finest.phi, 0, previousPhi, 0, finest.size());
+
+            vCycle(levels, 0);
+            cycles++;
+
+            double maxDiff = 0;
+            for (int i = 0; i < finest.size(); i++) {
+                maxDiff = Math.max(maxDiff, Math.abs(finest.phi[i] - previousPhi[i]));
+            }
+
+            if (!monitor.record(cycles, maxDiff) || maxDiff <= stabilisationThreshold) {
+                break;
+            }
+        }
+
+        return ScalarField.wrap(finest.width, finest.height, finest.phi);
+    }
+
+    public static ArrayList<Level> createLevels(int width, int height, PoissonBoundaryConditions boundaryConditions) {
+        // Each side is roughly halved until it is too short to be coarsened any further
+        ArrayList<Level> levels = new ArrayList<>();
+
+        Level level = new Level(width, height, 1, 1, boundaryConditions);
+        levels.add(level);
+
+        while (true) {
+            // Gauss-Seidel only smooths well when the spacings are similar, so a side whose spacing is already much
+            // larger than the other's waits for the other side to catch up
+            boolean coarsenX = level.width >= MIN_SIDE_LEN_FOR_COARSENING && level.hx <= MAX_SPACING_RATIO * level.hy;
+            boolean coarsenY = level.height >= MIN_SIDE_LEN_FOR_COARSENING && level.hy <= MAX_SPACING_RATIO * level.hx;
+            if (!coarsenX && !coarsenY) {
+                break;
+            }
+
+            int coarseWidth = coarsenX ? (level.width + 1) / 2 : level.width;
+            int coarseHeight = coarsenY ? (level.height + 1) / 2 : level.height;
+
+            // Keep the physical extent of the grid, (side length - 1) * spacing, the same on every level
+            double hx = level.hx * (level.width - 1) / (coarseWidth - 1);
+            double hy = level.hy * (level.height - 1) / (coarseHeight - 1);
+
+            Level coarse = new Level(coarseWidth, coarseHeight, hx, hy, boundaryConditions);
+            level.linkTo(coarse);
+            levels.add(coarse);
+            level = coarse;
+        }
+
+        return levels;
+    }
+
+    public static void vCycle(ArrayList<Level> levels, int depth) {
+        // Improves levels[depth].phi as a solution of laplacian(phi) = levels[depth].f
+
+        Level level = levels.get(depth);
+
+        if (depth == levels.size() - 1) {
+            solveCoarsest(level);
+            return;
+        }
+
+        for (int i = 0; i < PRE_SMOOTHING_SWEEPS; i++) {
+            level.smooth();
+        }
+
+        PoissonStencil.computeResidual(level.phi, level.f, level.residual, level.width, level.height, level.hx2, level.hy2, level.boundaryConditions);
+
+        // The coarse grid solves for the error e in laplacian(e) = residual, starting from e = 0
+        Level coarse = levels.get(depth + 1);
+        level.restrictResidualInto(coarse);
+        Arrays.fill(coarse.phi, 0);
+
+        vCycle(levels, depth + 1);
+
+        level.addProlongedCorrectionFrom(coarse);
+
+        for (int i = 0; i < POST_SMOOTHING_SWEEPS; i++) {
+            level.smooth();
+        }
+    }
+
+    private static void solveCoarsest(Level level) {
+        // The coarsest grid usually has only a handful of elements, so plain Gauss-Seidel converges almost immediately
+        // (Very elongated grids stop coarsening early, and may need many more sweeps)
+        int maxSweeps = Math.max(MIN_COARSEST_SWEEPS, level.size() * Math.max(level.width, level.height));
+        for (int i = 0; i < maxSweeps; i++) {
+            double maxDiff = level.smooth();
+            if (maxDiff < DoubleUtil.epsilon * DoubleUtil.epsilon) {
+                break;
+            }
+        }
+    }
+
+    public static class Level {
+        public final int width;
+        public final int height;
+        public final double hx;  // Grid spacing, in units of the finest grid
+        public final double hy;
+        public final double hx2;
+        public final double hy2;
+        public final PoissonBoundaryConditions boundaryConditions;
+
+        public final double[] phi;
+        public final double[] f;
+        public final double[] residual;
+
+        // Linear interpolation from the next coarser level: fine element x lies between coarse elements
+        // coarseXs[x] and coarseXs[x] + 1, at fraction coarseXFractions[x] of the way between them (likewise for y)
+        private int[] coarseXs;
+        private double[] coarseXFractions;
+        private int[] coarseYs;
+        private double[] coarseYFractions;
+        private double[] restrictionWeightSums;  // Per coarse element
+
+        public Level(int width, int height, double hx, double hy, PoissonBoundaryConditions boundaryConditions) {
+            this.width = width;
+            this.height = height;
+            this.hx = hx;
+            this.hy = hy;
+            this.hx2 = hx * hx;
+            this.hy2 = hy * hy;
+            this.boundaryConditions = boundaryConditions;
+            this.phi = new double[width * height];
+            this.f = new double[width * height];
+            this.residual = new double[width * height];
+        }
+
+        public int size() {
+            return width * height;
+        }
+
+        public double smooth() {
+            return PoissonStencil.sweep(phi, f, width, height, hx2, hy2, 1, boundaryConditions);
+        }
+
+        private void linkTo(Level coarse) {
+            coarseXs = new int[width];
+            coarseXFractions = new double[width];
+            computeInterpolation(width, coarse.width, coarseXs, coarseXFractions);
+
+            coarseYs = new int[height];
+            coarseYFractions = new double[height];
+            computeInterpolation(height, coarse.height, coarseYs, coarseYFractions);
+
+            // Sum of the weights each coarse element receives, so that restriction is a weighted average
+            restrictionWeightSums = new double[coarse.size()];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double weight = PoissonStencil.getBoundaryWeight(x, y, width, height);
+                    scatter(restrictionWeightSums, coarse.width, x, y, weight);
+                }
+            }
+        }
+
+        private static void computeInterpolation(int fineSideLen, int coarseSideLen, int[] coarseIndices, double[] fractions) {
+            for (int i = 0; i < fineSideLen; i++) {
+                if (fineSideLen == coarseSideLen) {  // Not coarsened in this direction
+                    coarseIndices[i] = i;
+                    fractions[i] = 0;
+                    continue;
+                }
+
+                double position = (double) i * (coarseSideLen - 1) / (fineSideLen - 1);
+                int index = Math.min((int) position, coarseSideLen - 2);
+                coarseIndices[i] = index;
+                fractions[i] = position - index;
+            }
+        }
+
+        private void scatter(double[] coarseValues, int coarseWidth, int x, int y, double value) {
+            // Adds value onto the (up to) four coarse elements surrounding fine element (x, y), bilinearly weighted
+            int cx = coarseXs[x];
+            int cy = coarseYs[y];
+            double tx = coarseXFractions[x];
+            double ty = coarseYFractions[y];
+
+            coarseValues[cy * coarseWidth + cx] += (1 - tx) * (1 - ty) * value;
+            if (tx > 0) {
+                coarseValues[cy * coarseWidth + cx + 1] += tx * (1 - ty) * value;
+            }
+            if (ty > 0) {
+                coarseValues[(cy + 1) * coarseWidth + cx] += (1 - tx) * ty * value;
+            }
+            if (tx > 0 && ty > 0) {
+                coarseValues[(cy + 1) * coarseWidth + cx + 1] += tx * ty * value;
+            }
+        }
+
+        private void restrictResidualInto(Level coarse) {
+            // Each coarse element takes the average of the fine residual around it, weighted by the transpose of the
+            // interpolation. On a grid that is exactly halved this is the usual full weighting stencil,
+            //     1/16 * [1 2 1]
+            //            [2 4 2]
+            //            [1 2 1]
+            // with edges mirrored for Neumann boundaries.
+
+            Arrays.fill(coarse.f, 0);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double weight = PoissonStencil.getBoundaryWeight(x, y, width, height);
+                    scatter(coarse.f, coarse.width, x, y, weight * residual[y * width + x]);
+                }
+            }
+
+            for (int cy = 0; cy < coarse.height; cy++) {
+                for (int cx = 0; cx < coarse.width; cx++) {
+                    int ci = cy * coarse.width + cx;
+                    if (PoissonStencil.isFixed(cx, cy, coarse.width, coarse.height, boundaryConditions)) {
+                        coarse.f[ci] = 0;
+                    } else {
+                        coarse.f[ci] /= restrictionWeightSums[ci];
+                    }
+                }
+            }
+
+            if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+                PoissonStencil.makeCompatible(coarse.f, coarse.width, coarse.height);
+            }
+        }
+
+        private void addProlongedCorrectionFrom(Level coarse) {
+            // Bilinear interpolation of the coarse error, added onto phi
+
+            for (int y = 0; y < height; y++) {
+                int cy = coarseYs[y];
+                double ty = coarseYFractions[y];
+                int cyBelow = ty > 0 ? cy + 1 : cy;
+
+                for (int x = 0; x < width; x++) {
+                    if (PoissonStencil.isFixed(x, y, width, height, boundaryConditions)) {
+                        continue;
+                    }
+
+                    int cx = coarseXs[x];
+                    double tx = coarseXFractions[x];
+                    int cxRight = tx > 0 ? cx + 1 : cx;
+
+                    double correction = (1 - ty) * ((1 - tx) * coarse.phi[cy * coarse.width + cx] + tx * coarse.phi[cy * coarse.width + cxRight])
+                            + ty * ((1 - tx) * coarse.phi[cyBelow * coarse.width + cx] + tx * coarse.phi[cyBelow * coarse.width + cxRight]);
+
+                    phi[y * width + x] += correction;
+                }
+            }
+        }
+    }
+}
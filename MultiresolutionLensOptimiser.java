@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+public class MultiresolutionLensOptimiser {
+    /*
+    Optimises a lens coarse to fine, instead of only at the target size.
+    Most of the work in optimising a lens is moving large areas of cells a long way, which can be done just as well on a
+    much coarser grid, where each outer iteration (and especially each Poisson solve) is far cheaper. So the outer
+    iterations of MagicMirrorMaker are first run on the target brightnesses downsampled to the coarsest size, then the
+    lens is upsampled to twice the size and optimised further, and so on up to the target size. Each level starts from
+    the upsampled lens of the level before, and its first Poisson solve starts from the upsampled solution of the level
+    before, so the finest level only needs to make small corrections.
+
+    Each level is half the size of the next one (rounded up), down to the smallest size that is at least coarsestSize
+    on both sides; a 256x256 target is optimised at 32x32, 64x64, 128x128 and 256x256.
+
+    With a LensCheckpointer, the lens and phi are saved every few outer iterations, and after the last one, and a
+    resumed run carries on from the newest checkpoint saved with the same parameters: at the same level and iteration,
+    with the same lens, and with its first Poisson solve starting from the saved phi.
+    */
+
+    public static final int DEFAULT_COARSEST_SIZE = 32;
+
+    public interface IterationListener {
+        // Called after each outer iteration, once the lens has been marched
+        // The target size has been reached when lens has as many cells as the target brightnesses
+        void onIteration(int iteration, ScalarField loss, PoissonSolveResult solveResult, VectorField velField,
+                         Lens lens) throws Exception;
+    }
+
+    private final PoissonSolverSession poissonSolverSession;
+    private final int coarsestSize;
+    private final int iterationsPerLevel;  // At every level except the target size
+    private final int finestLevelIterations;
+    private final IterationListener listener;  // May be null
+    private final LensCheckpointer checkpointer;  // May be null
+
+    public MultiresolutionLensOptimiser(PoissonSolverSession poissonSolverSession, int iterationsPerLevel,
+                                        int finestLevelIterations) {
+        this(poissonSolverSession, DEFAULT_COARSEST_SIZE, iterationsPerLevel, finestLevelIterations, null);
+    }
+
+    public MultiresolutionLensOptimiser(PoissonSolverSession poissonSolverSession, int coarsestSize,
+                                        int iterationsPerLevel, int finestLevelIterations, IterationListener listener) {
+        this(poissonSolverSession, coarsestSize, iterationsPerLevel, finestLevelIterations, listener, null);
+    }
+
+    public MultiresolutionLensOptimiser(PoissonSolverSession poissonSolverSession, int coarsestSize,
+                                        int iterationsPerLevel, int finestLevelIterations, IterationListener listener,
+                                        LensCheckpointer checkpointer) {
+        this.poissonSolverSession = poissonSolverSession;
+        this.coarsestSize = coarsestSize;
+        this.iterationsPerLevel = iterationsPerLevel;
+        this.finestLevelIterations = finestLevelIterations;
+        this.listener = listener;
+        this.checkpointer = checkpointer;
+    }
+
+    public Lens optimise(ScalarField targetBrightnesses) throws Exception {
+        ArrayList<Pair<Integer, Integer>> levelSizes = getLevelSizes(targetBrightnesses.width, targetBrightnesses.height, coarsestSize);
+
+        Lens lens = null;
+        ScalarField phi = null;
+        int startLevel = 0;
+        int startIteration = 0;
+        int totalIterations = 0;
+
+        LensCheckpointer.RunParameters runParameters = LensCheckpointer.getRunParameters(targetBrightnesses,
+                coarsestSize, iterationsPerLevel, finestLevelIterations);
+        LensCheckpointer.Checkpoint checkpoint = checkpointer == null ? null : checkpointer.loadNewest(runParameters);
+        if (checkpoint != null) {
+            lens = checkpoint.lens();
+            phi = checkpoint.phi();
+            startLevel = checkpoint.level();
+            startIteration = checkpoint.levelIterations();
+            totalIterations = checkpoint.totalIterations();
+            poissonSolverSession.setInitialGuess(phi);
+            System.out.println("Resuming after iteration " + totalIterations + ", at " + (lens.width - 1) + "x"
+                    + (lens.height - 1));
+        }
+
+        for (int level = startLevel; level < levelSizes.size(); level++) {
+            int width = levelSizes.get(level).first();
+            int height = levelSizes.get(level).second();
+            boolean finestLevel = level == levelSizes.size() - 1;
+
+            int iterations = finestLevel ? finestLevelIterations : iterationsPerLevel;
+            boolean resumedLevel = checkpoint != null && level == startLevel;
+            if (resumedLevel && startIteration == iterations) {
+                continue;  // The checkpoint was saved at the end of this level
+            }
+
+            ScalarField brightnesses = finestLevel ? targetBrightnesses : targetBrightnesses.downsampledTo(width, height);
+
+            if (lens == null) {
+                lens = new Lens(width, height);
+            } else if (!resumedLevel) {
+                lens = lens.upsampledTo(width, height);
+                poissonSolverSession.setInitialGuess(phi.upsampledTo(width, height));
+            }
+
+            for (int iteration = resumedLevel ? startIteration : 0; iteration < iterations; iteration++) {
+                ScalarField loss = lens.getLoss(brightnesses);
+                PoissonSolveResult solveResult = poissonSolverSession.solve(loss);
+                phi = solveResult.phi();
+
+                // = -gradient(phi): marchPointsBasedOnVelocityField moves each vertex against its velocity, so the
+                // vertices move along gradient(phi), which grows the cells that are too small for their share of the
+                // brightness (where the loss is positive) and shrinks the others (moving them the other way makes the
+                // loss grow)
+                VectorField velField = GradientCalculator.getGradient(phi, poissonSolverSession.getPrecision()).negated();
+                // The loss is a fraction of the total area, so for the total area the vertices move about as far as
+                // the loss says they should; marching further overshoots the optimum, and makes the loss grow again
+                lens.marchPointsBasedOnVelocityField(velField, 0.5, lens.getTotalArea(), ForkJoinPool.commonPool());
+
+                if (listener != null) {
+                    listener.onIteration(iteration, loss, solveResult, velField, lens);
+                }
+
+                totalIterations++;
+                boolean lastIteration = finestLevel && iteration == iterations - 1;
+                if (checkpointer != null && (checkpointer.isDue(totalIterations) || lastIteration)) {
+                    checkpointer.save(new LensCheckpointer.Checkpoint(runParameters, level, iteration + 1,
+                            totalIterations, lens, phi));
+                }
+            }
+        }
+
+        return lens;
+    }
+
+    public static ArrayList<Pair<Integer, Integer>> getLevelSizes(int width, int height, int coarsestSize) {
+        // (width, height) of each level, coarsest first, ending with the target size itself
+        ArrayList<Pair<Integer, Integer>> result = new ArrayList<>();
+        result.add(new Pair<>(width, height));
+
+        while ((width + 1) / 2 >= coarsestSize && (height + 1) / 2 >= coarsestSize) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            result.addFirst(new Pair<>(width, height));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+public class OffHeapGaussSeidelSolver {
+    /*
+    Lexicographic Gauss-Seidel on grids stored in an OffHeapGrid, updated in place.
+    Only three rows of phi and one row of f are copied onto the heap at a time, so the heap use does not depend on the
+    height of the grid, and any grid that fits in memory (or in a mapped file) can be solved.
+
+    Each row is updated from a window of the row above (already updated in this sweep), the row itself and the row
+    below (from the previous sweep), using the same stencil code as PoissonStencil.sweep, so the results are identical
+    to sweeping the whole grid as one array.
+    */
+
+    public static int solve(OffHeapGrid phi, OffHeapGrid f, double overcorrectionFactor,
+                            PoissonBoundaryConditions boundaryConditions, double stabilisationThreshold,
+                            int maxSweeps, PoissonConvergenceMonitor monitor) {
+        // Sweeps component 0 of phi until no element changes by more than stabilisationThreshold in a whole sweep
+        // Returns the number of sweeps done
+        // A negative overcorrectionFactor means no overcorrection, as in PoissonSolver
+
+        if (phi.width != f.width || phi.height != f.height) {
+            throw new IllegalArgumentException("phi and f must have the same shape");
+        }
+
+        double omega = overcorrectionFactor < 0 ? 1 : overcorrectionFactor;
+        SweepBuffers buffers = new SweepBuffers(phi.width);
+
+        int sweeps = 0;
+        while (sweeps < maxSweeps) {
+            double maxDiff = sweep(phi, f, omega, boundaryConditions, buffers);
+            sweeps++;
+
+            if (!monitor.record(sweeps, maxDiff) || maxDiff <= stabilisationThreshold) {
+                break;
+            }
+        }
+
+        return sweeps;
+    }
+
+    public static double sweep(OffHeapGrid phi, OffHeapGrid f, double overcorrectionFactor,
+                               PoissonBoundaryConditions boundaryConditions, SweepBuffers buffers) {
+        // One sweep, in place; returns the maximum absolute change of any element
+        int width = phi.width;
+        int height = phi.height;
+        int margin = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? 0 : 1;
+
+        // Too small to have neighbours on both sides of every updated element, even after mirroring
+        if (width < 2 || height < 2) {
+            return 0;
+        }
+
+        double[] window = buffers.phiWindow;  // Rows y - 1, y and y + 1
+        double[] fWindow = buffers.fWindow;  // Only the middle row is used
+
+        double maxDiff = 0;
+
+        for (int y = margin; y < height - margin; y++) {
+            // Mirroring at the top and bottom edges, as in PoissonStencil.getVerticalNeighbourSum
+            int above = PoissonStencil.reflect(y - 1, height);
+            int below = PoissonStencil.reflect(y + 1, height);
+
+            if (y == margin) {
+                phi.readRow(0, above, buffers.previousRow);
+            }
+            System.arraycopy(buffers.previousRow, 0, window, 0, width);
+            phi.readRow(0, y, buffers.currentRow);
+            System.arraycopy(buffers.currentRow, 0, window, width, width);
+            if (below == above) {
+                // The top or bottom row of a NEUMANN grid, where both vertical neighbours are the same row
+                System.arraycopy(buffers.previousRow, 0, window, 2 * width, width);
+            } else {
+                phi.readRow(0, below, buffers.nextRow);
+                System.arraycopy(buffers.nextRow, 0, window, 2 * width, width);
+            }
+            f.readRow(0, y, buffers.currentRow);
+            System.arraycopy(buffers.currentRow, 0, fWindow, width, width);
+
+            for (int x = margin; x < width - margin; x++) {
+                int i = width + x;
+                double oldValue = window[i];
+                double result = PoissonStencil.getRelaxedValueAt(window, fWindow, width, 3, x, 1, 1, 1);
+                double newValue = oldValue + (result - oldValue) * overcorrectionFactor;
+
+                maxDiff = Math.max(maxDiff, Math.abs(newValue - oldValue));
+                window[i] = newValue;
+            }
+
+            System.arraycopy(window, width, buffers.previousRow, 0, width);
+            phi.writeRow(0, y, buffers.previousRow);
+        }
+
+        return maxDiff;
+    }
+
+    public static double getMaxResidual(OffHeapGrid phi, OffHeapGrid f, PoissonBoundaryConditions boundaryConditions) {
+        // The same as PoissonStencil.getMaxResidual, a window of three rows at a time
+        int width = phi.width;
+        int height = phi.height;
+
+        // For NEUMANN, the weighted mean of f is subtracted, as PoissonStencil.makeCompatible would
+        double mean = 0;
+        double[] row = new double[width];
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            double weightedSum = 0;
+            double totalWeight = 0;
+            for (int y = 0; y < height; y++) {
+                f.readRow(0, y, row);
+                for (int x = 0; x < width; x++) {
+                    double weight = PoissonStencil.getBoundaryWeight(x, y, width, height);
+                    weightedSum += weight * row[x];
+                    totalWeight += weight;
+                }
+            }
+            mean = weightedSum / totalWeight;
+        }
+
+        double[] window = new double[3 * width];  // Rows y - 1, y and y + 1, mirrored at the top and bottom edges
+        double maxResidual = 0;
+
+        for (int y = 0; y < height; y++) {
+            phi.readRow(0, PoissonStencil.reflect(y - 1, height), row);
+            System.arraycopy(row, 0, window, 0, width);
+            phi.readRow(0, y, row);
+            System.arraycopy(row, 0, window, width, width);
+            phi.readRow(0, PoissonStencil.reflect(y + 1, height), row);
+            System.arraycopy(row, 0, window, 2 * width, width);
+            f.readRow(0, y, row);
+
+            for (int x = 0; x < width; x++) {
+                if (PoissonStencil.isFixed(x, y, width, height, boundaryConditions)) {
+                    continue;
+                }
+
+                double centre = window[width + x];
+                double laplacian = PoissonStencil.getHorizontalNeighbourSum(window, width, x, 1) - 2 * centre
+                        + PoissonStencil.getVerticalNeighbourSum(window, width, 3, x, 1) - 2 * centre;
+                maxResidual = Math.max(maxResidual, Math.abs(row[x] - mean - laplacian));
+            }
+        }
+
+        return maxResidual;
+    }
+
+    public static class SweepBuffers {
+        // The rows on the heap; reusable between sweeps of grids with the same width
+        private final double[] phiWindow;
+        private final double[] fWindow;
+        private final double[] previousRow;
+        private final double[] currentRow;
+        private final double[] nextRow;
+
+        public SweepBuffers(int width) {
+            phiWindow = new double[3 * width];
+            fWindow = new double[3 * width];
+            previousRow = new double[width];
+            currentRow = new double[width];
+            nextRow = new double[width];
+        }
+    }
+}
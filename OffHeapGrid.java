@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+public class OffHeapGrid implements AutoCloseable {
+    /*
+    A grid of doubles stored outside the Java heap, for fields too large to hold as arrays.
+    Each component (1 for a scalar field, 2 for a vector field or lens) is stored as its own row-major plane, like the
+    arrays in ScalarField and VectorField. The grid is either in direct memory, or mapped from a file, in which case it
+    can be larger than the physical memory, and its contents are kept after the program ends.
+
+    ScalarField, VectorField and Lens can be stored in a grid instead of in heap arrays (see ScalarField.wrap(OffHeapGrid)
+    and the like), and are then read and written element by element, or exported to CSV, as usual. Methods that need
+    the backing arrays, like the arithmetic on whole fields and Lens.getLoss, throw an IllegalStateException for them.
+    PoissonSolver and PoissonSolverSession solve such fields with GAUSS_SEIDEL, in place (see OffHeapGaussSeidelSolver),
+    so a Poisson problem can be solved on a grid far larger than -Xmx. The copyOf and to... methods copy between heap
+    and off-heap storage.
+    Direct memory is limited too, by -XX:MaxDirectMemorySize (by default, the same as -Xmx), so grids that do not fit
+    on the heap should be file-backed, from map or from the copyOf overloads that take a file.
+
+    A single buffer can hold at most 2 GB, so each plane is split into chunks of whole rows, each in its own buffer.
+
+    (The Foreign Function & Memory API would allow one segment per plane, but it is still a preview API in Java 21.)
+    */
+
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    public final int width;
+    public final int height;
+    public final int components;
+
+    private final int rowsPerChunk;
+    private final DoubleBuffer[][] chunks;  // [component][chunk]
+    private final ArrayList<MappedByteBuffer> mappedBuffers = new ArrayList<>();
+    private final FileChannel channel;  // null unless file-backed
+    private final Path file;  // null unless file-backed
+
+    private OffHeapGrid(int width, int height, int components, FileChannel channel, Path file) throws IOException {
+        if (width < 1 || height < 1 || components < 1) {
+            throw new IllegalArgumentException("Grid dimensions must be positive");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.channel = channel;
+        this.file = file;
+
+        long bytesPerRow = (long) width * Double.BYTES;
+        if (bytesPerRow > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("Grid rows cannot be longer than " + MAX_CHUNK_BYTES / Double.BYTES + " elements");
+        }
+        rowsPerChunk = (int) Math.min(height, MAX_CHUNK_BYTES / bytesPerRow);
+
+        int chunksPerComponent = (height + rowsPerChunk - 1) / rowsPerChunk;
+        chunks = new DoubleBuffer[components][chunksPerComponent];
+
+        for (int c = 0; c < components; c++) {
+            for (int chunk = 0; chunk < chunksPerComponent; chunk++) {
+                int rows = Math.min(rowsPerChunk, height - chunk * rowsPerChunk);
+                long size = rows * bytesPerRow;
+
+                ByteBuffer buffer;
+                if (channel == null) {
+                    buffer = ByteBuffer.allocateDirect((int) size);  // Initialised to zeroes
+                } else {
+                    long offset = ((long) c * height + (long) chunk * rowsPerChunk) * bytesPerRow;
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+                    mappedBuffers.add(mapped);
+                    buffer = mapped;
+                }
+                chunks[c][chunk] = buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+        }
+    }
+
+    public static OffHeapGrid allocate(int width, int height, int components) throws IOException {
+        // In direct memory, initialised to zeroes
+        return new OffHeapGrid(width, height, components, null, null);
+    }
+
+    public static OffHeapGrid map(Path file, int width, int height, int components) throws IOException {
+        // Backed by file, which is created (filled with zeroes) or extended if needed; existing contents are kept
+        // The data is stored in the platform's native byte order, with no header
+        long size = (long) components * height * width * Double.BYTES;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            return new OffHeapGrid(width, height, components, randomAccessFile.getChannel(), file);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public static OffHeapGrid allocateLike(OffHeapGrid grid, int components) throws IOException {
+        // A grid of the same size, initialised to zeroes, in direct memory if grid is, or else backed by a new
+        // temporary file next to grid's file, which is deleted when the program ends
+        if (grid.file == null) {
+            return allocate(grid.width, grid.height, components);
+        }
+        Path directory = grid.file.toAbsolutePath().getParent();
+        Path file = Files.createTempFile(directory, "grid", ".tmp");
+        file.toFile().deleteOnExit();
+        return map(file, grid.width, grid.height, components);
+    }
+
+    public OffHeapGrid copy() throws IOException {
+        // A copy stored like this grid, as in allocateLike
+        OffHeapGrid result = allocateLike(this, components);
+        double[] row = new double[width];
+        for (int c = 0; c < components; c++) {
+            for (int y = 0; y < height; y++) {
+                readRow(c, y, row);
+                result.writeRow(c, y, row);
+            }
+        }
+        return result;
+    }
+
+    public static OffHeapGrid copyOf(ScalarField field) throws IOException {
+        // In direct memory
+        OffHeapGrid grid = allocate(field.width, field.height, 1);
+        grid.copyFrom(0, field.getRowMajorArray());
+        return grid;
+    }
+
+    public static OffHeapGrid copyOf(ScalarField field, Path file) throws IOException {
+        // Backed by file, as in map, so not limited by -XX:MaxDirectMemorySize
+        OffHeapGrid grid = map(file, field.width, field.height, 1);
+        grid.copyFrom(0, field.getRowMajorArray());
+        return grid;
+    }
+
+    public static OffHeapGrid copyOf(VectorField field) throws IOException {
+        // In direct memory
+        OffHeapGrid grid = allocate(field.width, field.height, 2);
+        grid.copyFrom(0, field.getXs());
+        grid.copyFrom(1, field.getYs());
+        return grid;
+    }
+
+    public static OffHeapGrid copyOf(VectorField field, Path file) throws IOException {
+        // Backed by file, as in map, so not limited by -XX:MaxDirectMemorySize
+        OffHeapGrid grid = map(file, field.width, field.height, 2);
+        grid.copyFrom(0, field.getXs());
+        grid.copyFrom(1, field.getYs());
+        return grid;
+    }
+
+    public double get(int component, int x, int y) {
+        return chunks[component][y / rowsPerChunk].get((y % rowsPerChunk) * width + x);
+    }
+
+    public void set(int component, int x, int y, double value) {
+        chunks[component][y / rowsPerChunk].put((y % rowsPerChunk) * width + x, value);
+    }
+
+    public void readRow(int component, int y, double[] row) {
+        // Copies row y into the first width elements of row
+        chunks[component][y / rowsPerChunk].get((y % rowsPerChunk) * width, row, 0, width);
+    }
+
+    public void writeRow(int component, int y, double[] row) {
+        // Copies the first width elements of row into row y
+        chunks[component][y / rowsPerChunk].put((y % rowsPerChunk) * width, row, 0, width);
+    }
+
+    public void copyFrom(int component, double[] rowMajorValues) {
+        // rowMajorValues holds the whole plane, as in ScalarField.getRowMajorArray
+        for (int y = 0; y < height; y++) {
+            chunks[component][y / rowsPerChunk].put((y % rowsPerChunk) * width, rowMajorValues, y * width, width);
+        }
+    }
+
+    public double[] toRowMajorArray(int component) {
+        // Only possible when the plane fits in one array
+        if ((long) width * height > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Grid is too large to copy onto the heap");
+        }
+
+        double[] result = new double[width * height];
+        for (int y = 0; y < height; y++) {
+            chunks[component][y / rowsPerChunk].get((y % rowsPerChunk) * width, result, y * width, width);
+        }
+        return result;
+    }
+
+    public ScalarField toScalarField() {
+        return ScalarField.wrap(width, height, toRowMajorArray(0));
+    }
+
+    public VectorField toVectorField() {
+        return VectorField.wrap(width, height, toRowMajorArray(0), toRowMajorArray(1));
+    }
+
+    public Lens toLens() {
+        return new Lens(toVectorField());
+    }
+
+    public boolean isFileBacked() {
+        return channel != null;
+    }
+
+    public void flush() {
+        // Writes any changes to a file-backed grid out to the file
+        for (MappedByteBuffer buffer : mappedBuffers) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The memory itself is released once the grid is no longer referenced
+        flush();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
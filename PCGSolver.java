@@ -0,0 +1,330 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class PCGSolver {
+    /*
+    Preconditioned conjugate gradient method for the same five-point Poisson problem that PoissonSolver iterates on.
+
+    With mirrored (Neumann) edges, the stencil is not symmetric as written: an edge element counts its inner neighbour
+    twice, but that neighbour only counts the edge element once. Scaling every equation by its weight from
+    PoissonStencil.getBoundaryWeight makes it symmetric, so CG is applied to
+        S phi = b,    where S = -W A and b = -W f
+    (A being the Laplacian stencil and W the diagonal of weights). S is positive definite with Dirichlet boundaries,
+    and positive semi-definite with Neumann boundaries, where f is first made compatible.
+
+    Iteration stops once the true residual f - A phi, measured in the 2-norm relative to f, falls below the tolerance.
+    With Dirichlet boundaries, the boundary values of the initial phi are kept, as in the other iterative methods.
+
+    REFERENCES:
+    https://en.wikipedia.org/wiki/Conjugate_gradient_method#The_preconditioned_conjugate_gradient_method
+    Saad - Iterative Methods for Sparse Linear Systems (2nd edition), sections 9.2 and 10.3
+    */
+
+    private static final int RESIDUAL_REPLACEMENT_INTERVAL = 50;  // Recompute the residual from scratch this often
+    private static final double INCOMPLETE_CHOLESKY_NEUMANN_SHIFT = 1e-3;
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, PoissonBoundaryConditions boundaryConditions,
+                                    PoissonPreconditionerType preconditionerType, double tolerance, int maxIterations,
+                                    PoissonConvergenceMonitor monitor) {
+        PoissonPreconditioner preconditioner = createPreconditioner(preconditionerType, f.width, f.height, boundaryConditions);
+        return solve(initialPhi, f, boundaryConditions, preconditioner, tolerance, maxIterations, monitor);
+    }
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, PoissonBoundaryConditions boundaryConditions,
+                                    PoissonPreconditioner preconditioner, double tolerance, int maxIterations,
+                                    PoissonConvergenceMonitor monitor) {
+        int width = f.width;
+        int height = f.height;
+        int size = width * height;
+
+        double[] weights = getWeights(width, height, boundaryConditions);
+
+        // CG solves for the correction to initialPhi, which is zero on the elements fixed by Dirichlet boundaries (as r,
+        // z and p are there), so their values in initialPhi are kept, and the other elements are solved for with them
+        // as boundary values
+        double[] phi = initialPhi.toRowMajorArray();
+        double[] fValues = f.toRowMajorArray();
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            PoissonStencil.makeCompatible(fValues, width, height);
+        }
+        for (int i = 0; i < size; i++) {
+            if (weights[i] == 0) {
+                fValues[i] = 0;  // Not part of the system
+            }
+        }
+
+        double[] r = new double[size];
+        double[] previousR = new double[size];
+        double[] z = new double[size];
+        double[] p = new double[size];
+        double[] q = new double[size];
+
+        computeTrueResidual(phi, fValues, r, weights, width, height, boundaryConditions);
+
+        // The residual is measured relative to f, or, when f is zero (but the boundary values are not), relative to
+        // the residual of initialPhi
+        double fNorm = Math.sqrt(dot(fValues, fValues));
+        double referenceNorm = fNorm > 0 ? fNorm : getRelativeResidualNorm(r, weights, 1);
+        if (referenceNorm == 0) {
+            return ScalarField.wrap(width, height, phi);  // initialPhi is already the solution
+        }
+
+        preconditioner.apply(r, z);
+        System.arraycopy(z, 0, p, 0, size);
+        double rDotZ = dot(r, z);
+
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            if (getRelativeResidualNorm(r, weights, referenceNorm) <= tolerance) {
+                // The updated residual drifts from the true one over many iterations, so confirm before stopping
+                computeTrueResidual(phi, fValues, r, weights, width, height, boundaryConditions);
+                if (getRelativeResidualNorm(r, weights, referenceNorm) <= tolerance) {
+                    break;
+                }
+            }
+
+            applyOperator(p, q, weights, width, height);
+            double pDotQ = dot(p, q);
+            if (pDotQ <= 0 || rDotZ == 0) {  // Only happens once the residual is at round-off level
+                break;
+            }
+
+            double alpha = rDotZ / pDotQ;
+            System.arraycopy(r, 0, previousR, 0, size);
+            for (int i = 0; i < size; i++) {
+                phi[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            iterations++;
+
+            if (iterations % RESIDUAL_REPLACEMENT_INTERVAL == 0) {
+                computeTrueResidual(phi, fValues, r, weights, width, height, boundaryConditions);
+            }
+
+            if (!monitor.record(iterations, getRelativeResidualNorm(r, weights, referenceNorm))) {
+                break;
+            }
+
+            preconditioner.apply(r, z);
+
+            // Polak-Ribiere form of beta, which stays robust when the preconditioner is not exactly symmetric
+            // (as with a multigrid V-cycle)
+            double newRDotZ = dot(r, z);
+            double beta = (newRDotZ - dot(previousR, z)) / rDotZ;
+            rDotZ = newRDotZ;
+
+            // (A negative beta means the search directions have lost conjugacy, so restart from steepest descent)
+            for (int i = 0; i < size; i++) {
+                p[i] = z[i] + Math.max(beta, 0) * p[i];
+            }
+        }
+
+        return ScalarField.wrap(width, height, phi);
+    }
+
+    public static PoissonPreconditioner createPreconditioner(PoissonPreconditionerType type, int width, int height,
+                                                             PoissonBoundaryConditions boundaryConditions) {
+        return switch (type) {
+            case JACOBI -> new JacobiPreconditioner(width, height, boundaryConditions);
+            case INCOMPLETE_CHOLESKY -> new IncompleteCholeskyPreconditioner(width, height, boundaryConditions);
+            case MULTIGRID -> new MultigridPreconditioner(width, height, boundaryConditions);
+        };
+    }
+
+    private static double[] getWeights(int width, int height, PoissonBoundaryConditions boundaryConditions) {
+        // Diagonal of W; zero for elements fixed by Dirichlet boundaries, which are excluded from the system
+        double[] weights = new double[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+                    weights[y * width + x] = PoissonStencil.getBoundaryWeight(x, y, width, height);
+                } else if (!PoissonStencil.isFixed(x, y, width, height, boundaryConditions)) {
+                    weights[y * width + x] = 1;
+                }
+            }
+        }
+        return weights;
+    }
+
+    private static void applyOperator(double[] p, double[] result, double[] weights, int width, int height) {
+        // result = S p = -W A p
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (weights[i] == 0) {
+                    result[i] = 0;
+                    continue;
+                }
+                double neighbours = PoissonStencil.getHorizontalNeighbourSum(p, width, x, y)
+                        + PoissonStencil.getVerticalNeighbourSum(p, width, height, x, y);
+                result[i] = -weights[i] * (neighbours - 4 * p[i]);
+            }
+        }
+    }
+
+    private static void computeTrueResidual(double[] phi, double[] f, double[] r, double[] weights, int width, int height,
+                                            PoissonBoundaryConditions boundaryConditions) {
+        // r = b - S phi = -W (f - A phi)
+        PoissonStencil.computeResidual(phi, f, r, width, height, 1, 1, boundaryConditions);
+        for (int i = 0; i < r.length; i++) {
+            r[i] *= -weights[i];
+        }
+    }
+
+    private static double getRelativeResidualNorm(double[] r, double[] weights, double referenceNorm) {
+        // 2-norm of f - A phi = -W^-1 r, divided by referenceNorm
+        double sum = 0;
+        for (int i = 0; i < r.length; i++) {
+            if (weights[i] != 0) {
+                double residual = r[i] / weights[i];
+                sum += residual * residual;
+            }
+        }
+        return Math.sqrt(sum) / referenceNorm;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public static class JacobiPreconditioner implements PoissonPreconditioner {
+        // Divides by the diagonal of S
+        private final double[] inverseDiagonal;
+
+        public JacobiPreconditioner(int width, int height, PoissonBoundaryConditions boundaryConditions) {
+            double[] weights = getWeights(width, height, boundaryConditions);
+            inverseDiagonal = new double[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                inverseDiagonal[i] = weights[i] == 0 ? 0 : 1 / (4 * weights[i]);
+            }
+        }
+
+        @Override
+        public void apply(double[] r, double[] z) {
+            for (int i = 0; i < r.length; i++) {
+                z[i] = r[i] * inverseDiagonal[i];
+            }
+        }
+    }
+
+    public static class IncompleteCholeskyPreconditioner implements PoissonPreconditioner {
+        /*
+        Zero fill-in incomplete Cholesky factorisation S ~ (D + L) D^-1 (D + L^T), where L is the strictly lower part of
+        S (the couplings to the left and upper neighbours) and D is chosen so that the diagonal of the product matches.
+        The Neumann system is singular, so its diagonal is shifted up slightly to keep every pivot positive.
+        */
+
+        private final int width;
+        private final int height;
+        private final double[] leftCouplings;  // S(i, i - 1)
+        private final double[] upperCouplings;  // S(i, i - width)
+        private final double[] pivots;  // D
+        private final double[] y;
+
+        public IncompleteCholeskyPreconditioner(int width, int height, PoissonBoundaryConditions boundaryConditions) {
+            this.width = width;
+            this.height = height;
+
+            int size = width * height;
+            double[] weights = getWeights(width, height, boundaryConditions);
+            double shift = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? INCOMPLETE_CHOLESKY_NEUMANN_SHIFT : 0;
+
+            leftCouplings = new double[size];
+            upperCouplings = new double[size];
+            pivots = new double[size];
+            y = new double[size];
+
+            for (int row = 0; row < height; row++) {
+                for (int x = 0; x < width; x++) {
+                    int i = row * width + x;
+                    if (weights[i] == 0) {
+                        pivots[i] = 1;
+                        continue;
+                    }
+
+                    // Mirroring can make an element count the same neighbour twice
+                    if (x > 0 && weights[i - 1] != 0) {
+                        int multiplicity = PoissonStencil.reflect(x + 1, width) == x - 1 ? 2 : 1;
+                        leftCouplings[i] = -weights[i] * multiplicity;
+                    }
+                    if (row > 0 && weights[i - width] != 0) {
+                        int multiplicity = PoissonStencil.reflect(row + 1, height) == row - 1 ? 2 : 1;
+                        upperCouplings[i] = -weights[i] * multiplicity;
+                    }
+
+                    double pivot = 4 * weights[i] * (1 + shift);
+                    if (leftCouplings[i] != 0) {
+                        pivot -= leftCouplings[i] * leftCouplings[i] / pivots[i - 1];
+                    }
+                    if (upperCouplings[i] != 0) {
+                        pivot -= upperCouplings[i] * upperCouplings[i] / pivots[i - width];
+                    }
+                    pivots[i] = pivot;
+                }
+            }
+        }
+
+        @Override
+        public void apply(double[] r, double[] z) {
+            int size = width * height;
+
+            // Solve (D + L) y = r
+            for (int i = 0; i < size; i++) {
+                double value = r[i];
+                if (leftCouplings[i] != 0) {
+                    value -= leftCouplings[i] * y[i - 1];
+                }
+                if (upperCouplings[i] != 0) {
+                    value -= upperCouplings[i] * y[i - width];
+                }
+                y[i] = value / pivots[i];
+            }
+
+            // Solve (I + D^-1 L^T) z = y, using that S is symmetric, so L^T(i, i + 1) = L(i + 1, i)
+            for (int i = size - 1; i >= 0; i--) {
+                double value = 0;
+                if (i + 1 < size && leftCouplings[i + 1] != 0) {
+                    value += leftCouplings[i + 1] * z[i + 1];
+                }
+                if (i + width < size && upperCouplings[i + width] != 0) {
+                    value += upperCouplings[i + width] * z[i + width];
+                }
+                z[i] = y[i] - value / pivots[i];
+            }
+        }
+    }
+
+    public static class MultigridPreconditioner implements PoissonPreconditioner {
+        // One multigrid V-cycle for A e = -W^-1 r, starting from e = 0
+        private final ArrayList<MultigridSolver.Level> levels;
+        private final double[] weights;
+        private final PoissonBoundaryConditions boundaryConditions;
+
+        public MultigridPreconditioner(int width, int height, PoissonBoundaryConditions boundaryConditions) {
+            this.levels = MultigridSolver.createLevels(width, height, boundaryConditions);
+            this.weights = getWeights(width, height, boundaryConditions);
+            this.boundaryConditions = boundaryConditions;
+        }
+
+        @Override
+        public void apply(double[] r, double[] z) {
+            MultigridSolver.Level finest = levels.getFirst();
+
+            for (int i = 0; i < r.length; i++) {
+                finest.f[i] = weights[i] == 0 ? 0 : -r[i] / weights[i];
+            }
+            if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+                PoissonStencil.makeCompatible(finest.f, finest.width, finest.height);
+            }
+            Arrays.fill(finest.phi, 0);
+
+            MultigridSolver.vCycle(levels, 0);
+
+            System.arraycopy(finest.phi, 0, z, 0, z.length);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ParserCheck {
+    /*
+    Checks that AsciiDoubleParser gives exactly the same double as Double.parseDouble, and stops where the number ends,
+    for awkward cases (signs, zeroes, subnormals, overflow, more than 19 digits, exact halfway cases) and for a few
+    million random numbers in the forms Double.toString, String.format and CSVBuffer write, among others.
+    Exits with status 1 if any number disagrees, so it can be run after changing the parser.
+    */
+
+    private static final List<String> SPECIAL_CASES = List.of(
+            "0", "-0", "0.0", "-0.0", "+0", "00000", "0e999", "1", "-1", "+3.5", "5.", ".5", "-.5e+3", "1E5", "1e-5",
+            "0.1", "0.2", "0.3", "1.0E22", "1e23", "9007199254740992", "9007199254740993", "9007199254740995",
+            "9999999999999999999", "18446744073709551615", "18446744073709551616", "123456789012345678901234567890",
+            "0.000000000000000000000000000000123", "4.9E-324", "2.4703282292062327E-324", "2.4703282292062328E-324",
+            "1e-320", "2.2250738585072011e-308", "2.2250738585072014E-308", "1.7976931348623157E308",
+            "1.7976931348623158E308", "1.7976931348623159E308", "1e309", "-1e400", "1e-400", "NaN", "Infinity",
+            "-Infinity", "7.2057594037927933E16", "8.98846567431158E307", "3.0517578125E-5", "1.4901161193847656E-8");
+
+    private static final int RANDOM_NUMBERS = 2000000;
+
+    public static void main(String[] args) {
+        List<String> numbers = new ArrayList<>(SPECIAL_CASES);
+        Random random = new Random(3);
+        CSVBuffer fixed = new CSVBuffer(64, 6);
+        for (int i = 0; i < RANDOM_NUMBERS; i++) {
+            switch (i % 6) {
+                case 0 -> numbers.add(Double.toString(Double.longBitsToDouble(random.nextLong())));  // Any bits at all
+                case 1 -> numbers.add(Double.toString(random.nextDouble() * 1024));  // Like lens coordinates
+                case 2 -> numbers.add(Double.toString((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20)));
+                case 3 -> numbers.add(String.format("%." + random.nextInt(20) + "e", random.nextDouble() * 1000));
+                case 4 -> numbers.add(random.nextLong() + "." + Math.abs(random.nextLong()) + "e"
+                        + (random.nextInt(700) - 350));  // Often more than 19 digits
+                default -> {
+                    fixed.clear();
+                    numbers.add(fixed.append((random.nextDouble() - 0.5) * 2048).toString());
+                }
+            }
+        }
+
+        AsciiDoubleParser parser = new AsciiDoubleParser();
+        int failures = 0;
+        for (String number : numbers) {
+            byte[] bytes = (number + ",").getBytes(StandardCharsets.US_ASCII);  // Followed by a separator, as in a CSV
+            double parsed = parser.parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+            double expected = Double.parseDouble(number);
+
+            if (Double.doubleToRawLongBits(parsed) != Double.doubleToRawLongBits(expected)
+                    || parser.end != number.length()) {
+                failures++;
+                if (failures <= 10) {
+                    System.out.println("Mismatch for " + number + ": parsed " + parsed + " ending at " + parser.end
+                            + ", but Double.parseDouble gives " + expected);
+                }
+            }
+        }
+
+        System.out.println(numbers.size() + " numbers checked, " + failures + " mismatches");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+public class PlainFieldKernels implements FieldKernels {
+    // REFERENCE (gradient):
+    // https://math.libretexts.org/Bookshelves/Scientific_Computing_Simulations_and_Modeling/Scientific_Computing_(Chasnov)/I%3A_Numerical_Methods/6%3A_Finite_Difference_Approximation
+
+    @Override
+    public void add(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    public void scale(double[] a, double factor, double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = a[i] * factor;
+        }
+    }
+
+    @Override
+    public void gradient(double[] field, int width, int height, double[] outX, double[] outY) {
+        // Central differences inside, and second-order one-sided differences on the boundaries
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+
+                if (x == 0) {  // On left boundary
+                    outX[i] = (-3 * field[i] + 4 * field[i + 1] - field[i + 2]) / 2.0;
+                } else if (x == width - 1) {  // On right boundary
+                    outX[i] = (3 * field[i] - 4 * field[i - 1] + field[i - 2]) / 2.0;
+                } else {
+                    outX[i] = (field[i + 1] - field[i - 1]) / 2.0;
+                }
+
+                if (y == 0) {  // On top boundary
+                    outY[i] = (-3 * field[i] + 4 * field[i + width] - field[i + 2 * width]) / 2.0;
+                } else if (y == height - 1) {  // On bottom boundary
+                    outY[i] = (3 * field[i] - 4 * field[i - width] + field[i - 2 * width]) / 2.0;
+                } else {
+                    outY[i] = (field[i + width] - field[i - width]) / 2.0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void divergence(double[] xs, double[] ys, int width, int height, double[] out) {
+        // The x difference of xs plus the y difference of ys, each exactly as in gradient
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+
+                double dx;
+                if (x == 0) {  // On left boundary
+                    dx = (-3 * xs[i] + 4 * xs[i + 1] - xs[i + 2]) / 2.0;
+                } else if (x == width - 1) {  // On right boundary
+                    dx = (3 * xs[i] - 4 * xs[i - 1] + xs[i - 2]) / 2.0;
+                } else {
+                    dx = (xs[i + 1] - xs[i - 1]) / 2.0;
+                }
+
+                double dy;
+                if (y == 0) {  // On top boundary
+                    dy = (-3 * ys[i] + 4 * ys[i + width] - ys[i + 2 * width]) / 2.0;
+                } else if (y == height - 1) {  // On bottom boundary
+                    dy = (3 * ys[i] - 4 * ys[i - width] + ys[i - 2 * width]) / 2.0;
+                } else {
+                    dy = (ys[i + width] - ys[i - width]) / 2.0;
+                }
+
+                out[i] = dx + dy;
+            }
+        }
+    }
+
+    @Override
+    public void cellAreas(double[] xs, double[] ys, int width, int height, int yStart, int yEnd, double[] out) {
+        // Shoelace formula for each cell, with its vertices in clockwise order from the top left, as in Lens
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = 0; x < width - 1; x++) {
+                int i0 = y * width + x;  // Top left
+                int i1 = i0 + 1;  // Top right
+                int i2 = i1 + width;  // Bottom right
+                int i3 = i0 + width;  // Bottom left
+
+                out[y * (width - 1) + x] = AreaCalculator.getQuadrilateralArea(
+                        xs[i0], ys[i0], xs[i1], ys[i1], xs[i2], ys[i2], xs[i3], ys[i3]);
+            }
+        }
+    }
+}
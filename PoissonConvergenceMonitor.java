@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class PoissonConvergenceMonitor {
+    // Tracks the progress of a single Poisson solve: records a sample of the convergence history every
+    // sampleInterval iterations, passes it on to the listener (if any), and checks whether the solve was cancelled.
+    // Solvers call record once per iteration, so this is kept cheap between samples.
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 50;
+
+    private final PoissonSolveListener listener;  // May be null
+    private final int sampleInterval;
+    private final ArrayList<PoissonSolveResult.Sample> history = new ArrayList<>();
+
+    private int iterations = 0;
+    private double lastResidual = Double.NaN;
+    private boolean cancelled = false;
+
+    public PoissonConvergenceMonitor() {
+        this(null, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public PoissonConvergenceMonitor(PoissonSolveListener listener, int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be at least 1");
+        }
+        this.listener = listener;
+        this.sampleInterval = sampleInterval;
+    }
+
+    public boolean record(int iterations, double residual) {
+        // Returns false if the solve has been cancelled and should stop
+        this.iterations = iterations;
+        this.lastResidual = residual;
+
+        if (iterations % sampleInterval == 0) {
+            history.add(new PoissonSolveResult.Sample(iterations, residual));
+            if (listener != null) {
+                listener.onProgress(iterations, residual);
+            }
+        }
+
+        if (listener != null && listener.isCancelled()) {
+            cancelled = true;
+        }
+        return !cancelled;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getLastResidual() {
+        return lastResidual;
+    }
+
+    public List<PoissonSolveResult.Sample> getHistory() {
+        // Always ends with the last recorded iteration, even if it was not due for sampling
+        ArrayList<PoissonSolveResult.Sample> result = new ArrayList<>(history);
+        if (iterations > 0 && (result.isEmpty() || result.getLast().iterations() != iterations)) {
+            result.add(new PoissonSolveResult.Sample(iterations, lastResidual));
+        }
+        return List.copyOf(result);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -1,4 +1,10 @@
 public enum PoissonMethod {
     JACOBI,
-    GAUSS_SEIDEL
+    GAUSS_SEIDEL,
+    MULTIGRID,
+    RED_BLACK_SOR,
+    SPECTRAL_DCT,
+    PCG,
+    ADAPTIVE_SOR,
+    TILED_GAUSS_SEIDEL
 }
@@ -0,0 +1,6 @@
+public interface PoissonPreconditioner {  // For approximate inverses of the Poisson operator, used by PCGSolver
+    // Given a residual r of the symmetric system that PCGSolver iterates on, writes an approximation of A^-1 r into z
+    // Both arrays are row-major over the whole grid; elements fixed by Dirichlet boundaries are zero in r and must be
+    // left zero in z
+    void apply(double[] r, double[] z);
+}
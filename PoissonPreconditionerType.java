@@ -0,0 +1,5 @@
+public enum PoissonPreconditionerType {
+    JACOBI,
+    INCOMPLETE_CHOLESKY,
+    MULTIGRID
+}
@@ -0,0 +1,10 @@
+public interface PoissonSolveListener {  // For observing, and optionally cancelling, a Poisson solve while it runs
+    // Called every sampleInterval iterations with the solver's own convergence measure:
+    // the maximum change of any element for the sweeping methods, or the relative residual norm for PCG
+    void onProgress(int iterations, double residual);
+
+    // Checked after every iteration; once this returns true, the solver stops and returns its current phi
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,16 @@
+import java.util.List;
+
+public record PoissonSolveResult(
+        ScalarField phi,
+        int iterations,  // Sweeps, V-cycles or CG iterations, depending on the method
+        double finalResidual,  // Largest absolute value of f - laplacian(phi), with f made compatible for NEUMANN
+        long wallTimeNanos,
+        List<Sample> convergenceHistory,  // Sampled every sampleInterval iterations
+        boolean cancelled
+) {
+    public record Sample(int iterations, double residual) { }
+
+    public double getWallTimeSeconds() {
+        return wallTimeNanos / 1e9;
+    }
+}
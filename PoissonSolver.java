@@ -1,7 +1,4 @@
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Optional;
 
 public class PoissonSolver {
     /*
@@ -9,8 +6,8 @@ public class PoissonSolver {
     https://math.libretexts.org/Bookshelves/Scientific_Computing_Simulations_and_Modeling/Scientific_Computing_(Chasnov)/I%3A_Numerical_Methods/6%3A_Finite_Difference_Approximation
     https://math.libretexts.org/Bookshelves/Scientific_Computing_Simulations_and_Modeling/Scientific_Computing_(Chasnov)/I%3A_Numerical_Methods/7%3A_Iterative_Methods
     */
-    private static double maxDiff = -1;
-    private static int solutionID = 0;
+
+    public static final PoissonPreconditionerType DEFAULT_PRECONDITIONER = PoissonPreconditionerType.MULTIGRID;
 
     public static ScalarField solvePoisson(ScalarField f, PoissonBoundaryConditions boundaryConditions,
                                            PoissonMethod method, double stabilisationThreshold, int maxUpdates) {
@@ -20,8 +17,131 @@ public class PoissonSolver {
     public static ScalarField solvePoisson(ScalarField f, double overcorrectionFactor,
                                            PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
                                            double stabilisationThreshold, int maxUpdates) {
-        ScalarField phi = new ScalarField(f.width, f.height);  // Initialised to zeroes
+        ScalarField initialGuess = new ScalarField(f.width, f.height);  // Initialised to zeroes
+        return solvePoisson(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates);
+    }
+
+    public static ScalarField solvePoisson(ScalarField f, ScalarField initialGuess, double overcorrectionFactor,
+                                           PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                           double stabilisationThreshold, int maxUpdates) {
+        return solve(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates).phi();
+    }
+
+    public static PoissonSolveResult solve(ScalarField f, ScalarField initialGuess, double overcorrectionFactor,
+                                           PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                           double stabilisationThreshold, int maxUpdates) {
+        return solve(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates,
+                new PoissonConvergenceMonitor());
+    }
+
+    public static PoissonSolveResult solve(ScalarField f, ScalarField initialGuess, double overcorrectionFactor,
+                                           PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                           double stabilisationThreshold, int maxUpdates, PoissonSolveListener listener,
+                                           int sampleInterval) {
+        return solve(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates,
+                new PoissonConvergenceMonitor(listener, sampleInterval));
+    }
+
+    public static PoissonSolveResult solve(ScalarField f, ScalarField initialGuess, double overcorrectionFactor,
+                                           PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                           double stabilisationThreshold, int maxUpdates, PoissonConvergenceMonitor monitor) {
+        return solve(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates,
+                Precision.DOUBLE, monitor);
+    }
 
+    public static PoissonSolveResult solve(ScalarField f, ScalarField initialGuess, double overcorrectionFactor,
+                                           PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                           double stabilisationThreshold, int maxUpdates, Precision precision,
+                                           PoissonConvergenceMonitor monitor) {
+        return solve(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates,
+                precision, DEFAULT_PRECONDITIONER, monitor);
+    }
+
+    public static PoissonSolveResult solve(ScalarField f, ScalarField initialGuess, double overcorrectionFactor,
+                                           PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                           double stabilisationThreshold, int maxUpdates, Precision precision,
+                                           PoissonPreconditionerType preconditionerType, PoissonConvergenceMonitor monitor) {
+        // preconditionerType is only used by PCG
+        // SINGLE and MIXED precision are only available for GAUSS_SEIDEL, RED_BLACK_SOR and ADAPTIVE_SOR (see
+        // SinglePrecisionSolver)
+        // Starts iterating from initialGuess (which is left unchanged) instead of from zero
+        // With DIRICHLET boundary conditions, the boundary values of initialGuess are kept as they are
+        // SPECTRAL_DCT solves directly, so it ignores initialGuess
+        // No state is shared between calls, so any number of solves may run at the same time
+        // Fields stored in an OffHeapGrid are only solved with GAUSS_SEIDEL in DOUBLE precision, and then initialGuess
+        // is swept in place and returned as phi, since it may be too large to copy (see OffHeapGaussSeidelSolver); f
+        // and initialGuess must then both be off the heap
+
+        if (!initialGuess.hasSameShapeAs(f)) {
+            throw new IllegalArgumentException("Initial guess for phi must have the same shape as f");
+        }
+
+        if (f.isOffHeap() || initialGuess.isOffHeap()) {
+            return solveOffHeap(f, initialGuess, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold,
+                    maxUpdates, precision, monitor);
+        }
+
+        if (precision != Precision.DOUBLE && method != PoissonMethod.GAUSS_SEIDEL && method != PoissonMethod.RED_BLACK_SOR
+                && method != PoissonMethod.ADAPTIVE_SOR) {
+            throw new IllegalArgumentException(precision + " precision is only available for GAUSS_SEIDEL, RED_BLACK_SOR "
+                    + "and ADAPTIVE_SOR, not " + method);
+        }
+
+        long startTime = System.nanoTime();
+        ScalarField phi = precision == Precision.DOUBLE
+                ? solveWithMethod(f, new ScalarField(initialGuess), overcorrectionFactor, boundaryConditions, method, preconditionerType, stabilisationThreshold, maxUpdates, monitor)
+                : solveWithPrecision(f, initialGuess, overcorrectionFactor, boundaryConditions, method, precision, stabilisationThreshold, maxUpdates, monitor);
+        long wallTime = System.nanoTime() - startTime;
+
+        double finalResidual = PoissonStencil.getMaxResidual(phi.getRowMajorArray(), f.getRowMajorArray(), f.width, f.height, boundaryConditions);
+
+        return new PoissonSolveResult(phi, monitor.getIterations(), finalResidual, wallTime, monitor.getHistory(), monitor.isCancelled());
+    }
+
+    private static PoissonSolveResult solveOffHeap(ScalarField f, ScalarField phi, double overcorrectionFactor,
+                                                   PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                                   double stabilisationThreshold, int maxUpdates, Precision precision,
+                                                   PoissonConvergenceMonitor monitor) {
+        if (!f.isOffHeap() || !phi.isOffHeap()) {
+            throw new IllegalArgumentException("f and the initial guess for phi must both be stored off the heap, or neither");
+        }
+        if (method != PoissonMethod.GAUSS_SEIDEL || precision != Precision.DOUBLE) {
+            throw new IllegalArgumentException("Fields stored off the heap can only be solved with GAUSS_SEIDEL in DOUBLE "
+                    + "precision, not " + method + " in " + precision);
+        }
+
+        long startTime = System.nanoTime();
+        OffHeapGaussSeidelSolver.solve(phi.getOffHeapGrid(), f.getOffHeapGrid(), overcorrectionFactor, boundaryConditions,
+                stabilisationThreshold, maxUpdates, monitor);
+        long wallTime = System.nanoTime() - startTime;
+
+        double finalResidual = OffHeapGaussSeidelSolver.getMaxResidual(phi.getOffHeapGrid(), f.getOffHeapGrid(), boundaryConditions);
+
+        return new PoissonSolveResult(phi, monitor.getIterations(), finalResidual, wallTime, monitor.getHistory(), monitor.isCancelled());
+    }
+
+    private static ScalarField solveWithPrecision(ScalarField f, ScalarField initialPhi, double overcorrectionFactor,
+                                                  PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                                  Precision precision, double stabilisationThreshold, int maxUpdates,
+                                                  PoissonConvergenceMonitor monitor) {
+        // initialPhi is only read: the solvers work on their own float32 or float64 copies of it, so it is not copied
+        // first as it is for solveWithMethod
+        int minSideLen = Math.min(initialPhi.width, initialPhi.height);
+        switch (boundaryConditions) {
+            case PoissonBoundaryConditions.DIRICHLET -> { if (minSideLen <= 2) { return new ScalarField(initialPhi); } }
+            case PoissonBoundaryConditions.NEUMANN -> { if (minSideLen == 1) { return new ScalarField(initialPhi); } }
+        }
+
+        if (precision == Precision.SINGLE) {
+            return SinglePrecisionSolver.solve(initialPhi, f, method, overcorrectionFactor, boundaryConditions, stabilisationThreshold, maxUpdates, monitor);
+        }
+        return SinglePrecisionSolver.solveMixed(initialPhi, f, method, overcorrectionFactor, boundaryConditions, stabilisationThreshold, maxUpdates, monitor);
+    }
+
+    private static ScalarField solveWithMethod(ScalarField f, ScalarField phi, double overcorrectionFactor,
+                                               PoissonBoundaryConditions boundaryConditions, PoissonMethod method,
+                                               PoissonPreconditionerType preconditionerType, double stabilisationThreshold,
+                                               int maxUpdates, PoissonConvergenceMonitor monitor) {
         // Check whether this is trivial
         // Solving is trivial when the matrix is small enough
         int minSideLen = Math.min(phi.width, phi.height);
@@ -30,27 +150,68 @@ public class PoissonSolver {
             case PoissonBoundaryConditions.NEUMANN -> { if (minSideLen == 1) { return phi; } }
         }
 
+        if (method == PoissonMethod.MULTIGRID) {
+            // Each "update" is a whole V-cycle; the overcorrection factor does not apply
+            return MultigridSolver.solve(phi, f, boundaryConditions, stabilisationThreshold, maxUpdates, monitor);
+        }
+
+        if (method == PoissonMethod.SPECTRAL_DCT) {
+            // Direct solve, so there are no updates to count or stabilise
+            return SpectralPoissonSolver.solve(f, boundaryConditions);
+        }
+
+        if (method == PoissonMethod.PCG) {
+            // Stops on the relative residual norm rather than the change per update
+            return PCGSolver.solve(phi, f, boundaryConditions, preconditionerType, stabilisationThreshold, maxUpdates, monitor);
+        }
+
+        if (method == PoissonMethod.ADAPTIVE_SOR) {
+            // Chooses its own overcorrection factor, so the one given is ignored
+            return AdaptiveSORSolver.solve(phi, f, boundaryConditions, stabilisationThreshold, maxUpdates, monitor);
+        }
+
+        if (method == PoissonMethod.TILED_GAUSS_SEIDEL) {
+            return TiledGaussSeidelSolver.solve(phi, f, overcorrectionFactor, boundaryConditions, stabilisationThreshold, maxUpdates, monitor);
+        }
+
+        if (method == PoissonMethod.RED_BLACK_SOR) {
+            return RedBlackSORSolver.solve(phi, f, overcorrectionFactor, boundaryConditions, stabilisationThreshold, maxUpdates, monitor);
+        }
+
         int updates = 0;
 
+        // Jacobi writes each update into a second buffer, and the two buffers swap roles after every update
+        // Gauss-Seidel updates in place, so both refer to the same field
+        ScalarField spare = method == PoissonMethod.JACOBI ? new ScalarField(phi) : phi;
+
         // Repeatedly "update" phi until it has stabilised
-        Optional<ScalarField> optionalPhi;
-        while ((optionalPhi = update(phi, f, overcorrectionFactor, boundaryConditions, method, stabilisationThreshold)).isPresent() && updates < maxUpdates) {
-            phi = optionalPhi.get();
+        while (updates < maxUpdates) {
+            double maxDiff = update(phi, spare, f, overcorrectionFactor, boundaryConditions, method);
             updates++;
 
-            if (updates % 50 == 0) {
-                System.out.println(solutionID + "\tUpdate " + updates + "\t\tMax diff = " + maxDiff);
+            if (method == PoissonMethod.JACOBI) {
+                ScalarField newPhi = spare;
+                spare = phi;
+                phi = newPhi;
             }
-        }
 
-        solutionID++;
+            if (!monitor.record(updates, maxDiff) || maxDiff <= stabilisationThreshold) {
+                break;
+            }
+        }
 
         return phi;
     }
 
-    private static List<Double> getNeighboursOfScalarFieldElement(ScalarField field, int x, int y, boolean mirrorAtBoundary) {
+    private static double getSumOfNeighbours(ScalarField field, int x, int y, boolean mirrorAtBoundary) {
+        // Without mirroring, neighbours outside the field are left out
         if (!mirrorAtBoundary) {
-            return field.getNeighboursOfElementAt(x, y);
+            double sum = 0;
+            if (x + 1 < field.width) sum += field.getElement(x + 1, y);
+            if (y + 1 < field.height) sum += field.getElement(x, y + 1);
+            if (x > 0) sum += field.getElement(x - 1, y);
+            if (y > 0) sum += field.getElement(x, y - 1);
+            return sum;
         }
 
         int xLeft = x == 0 ? 1 : x - 1;
@@ -58,12 +219,10 @@ public class PoissonSolver {
         int yAbove = y == 0 ? 1 : y - 1;
         int yBelow = y == field.height - 1 ? y - 1 : y + 1;
 
-        return Arrays.asList(
-                field.getElement(xRight, y),
-                field.getElement(x, yBelow),
-                field.getElement(xLeft, y),
-                field.getElement(x, yAbove)
-        );
+        return field.getElement(xRight, y)
+                + field.getElement(x, yBelow)
+                + field.getElement(xLeft, y)
+                + field.getElement(x, yAbove);
     }
 
     private static HashMap<String, Integer> getXYRangeForUpdate(ScalarField phi, PoissonBoundaryConditions boundaryConditions) {
@@ -88,9 +247,7 @@ public class PoissonSolver {
     }
 
     private static double getUpdatedValueAt(int x, int y, ScalarField phi, ScalarField f, double oldValue, double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions) {
-        List<Double> neighbours = getNeighboursOfScalarFieldElement(phi, x, y, boundaryConditions == PoissonBoundaryConditions.NEUMANN);
-
-        double sumOfNeighbours = neighbours.stream().mapToDouble(d -> d).sum();
+        double sumOfNeighbours = getSumOfNeighbours(phi, x, y, boundaryConditions == PoissonBoundaryConditions.NEUMANN);
         double result = (sumOfNeighbours - f.getElement(x, y)) / 4d;
 
         if (overcorrectionFactor < 0) {
@@ -100,27 +257,26 @@ public class PoissonSolver {
         return oldValue + correction * overcorrectionFactor;
     }
 
-    private static Optional<ScalarField> update(ScalarField phi, ScalarField f, double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions, PoissonMethod method, double stabilisationThreshold) {
+    private static double update(ScalarField phi, ScalarField spare, ScalarField f, double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions, PoissonMethod method) {
         /*
-        Returns:
-        - Optional containing the new updated version of phi, if it has not stabilised
-        - Optional.empty(), if it has already stabilised
+        Updates phi once, and returns the maximum absolute change of any element
+        For JACOBI, the new version is written into spare, whose previous contents are overwritten
         */
 
-        boolean stabilised = true;
-        maxDiff = 0d;
+        double maxDiff = 0d;
 
         ScalarField newPhi;
         if (method == PoissonMethod.JACOBI) {
-            newPhi = new ScalarField(phi);
+            newPhi = spare;
         } else {  // GAUSS_SEIDEI - no need for auxiliary array
             newPhi = phi;
         }
 
         HashMap<String, Integer> ranges = getXYRangeForUpdate(phi, boundaryConditions);
 
-        for (int x = ranges.get("xMin"); x < ranges.get("xMax"); x++) {
-            for (int y = ranges.get("yMin"); y < ranges.get("yMax"); y++) {
+        // Row by row, since the elements of each row are next to each other in memory
+        for (int y = ranges.get("yMin"); y < ranges.get("yMax"); y++) {
+            for (int x = ranges.get("xMin"); x < ranges.get("xMax"); x++) {
                 double oldValue;
                 double newValue;
                 double diff;
@@ -136,14 +292,10 @@ public class PoissonSolver {
                 diff = Math.abs(newValue - oldValue);
                 maxDiff = Math.max(maxDiff, diff);
 
-                if (diff > stabilisationThreshold) {
-                    stabilised = false;
-                }
-
                 newPhi.setElement(x, y, newValue);
             }
         }
 
-        return stabilised ? Optional.empty() : Optional.of(newPhi);
+        return maxDiff;
     }
 }
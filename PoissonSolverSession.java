@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+
+public class PoissonSolverSession {
+    // Solves a sequence of Poisson problems with the same settings, warm-starting each solve from the last solution
+    // on a grid of the same size. Useful when f only changes a little from one solve to the next, as it does between
+    // the outer iterations of MagicMirrorMaker.
+    // For f stored off the heap (see OffHeapGrid), phi is stored off the heap too, in the same way as f, and is swept
+    // in place from one solve to the next instead of being copied, so the returned phi changes with the next solve.
+
+    private final double overcorrectionFactor;
+    private final PoissonBoundaryConditions boundaryConditions;
+    private final PoissonMethod method;
+    private final PoissonPreconditionerType preconditionerType;  // Only used by PCG
+    private final Precision precision;
+    private final double stabilisationThreshold;
+    private final int maxUpdates;
+    private final PoissonSolveListener listener;  // May be null
+    private final int sampleInterval;
+
+    private final HashMap<Pair<Integer, Integer>, ScalarField> lastSolutions = new HashMap<>();  // (width, height) -> phi
+
+    public PoissonSolverSession(double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions,
+                                PoissonMethod method, double stabilisationThreshold, int maxUpdates) {
+        this(overcorrectionFactor, boundaryConditions, method, stabilisationThreshold, maxUpdates, null,
+                PoissonConvergenceMonitor.DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public PoissonSolverSession(double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions,
+                                PoissonMethod method, double stabilisationThreshold, int maxUpdates,
+                                PoissonSolveListener listener, int sampleInterval) {
+        this(overcorrectionFactor, boundaryConditions, method, PoissonSolver.DEFAULT_PRECONDITIONER,
+                stabilisationThreshold, maxUpdates, listener, sampleInterval);
+    }
+
+    public PoissonSolverSession(double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions,
+                                PoissonMethod method, PoissonPreconditionerType preconditionerType,
+                                double stabilisationThreshold, int maxUpdates, PoissonSolveListener listener,
+                                int sampleInterval) {
+        this(overcorrectionFactor, boundaryConditions, method, preconditionerType, Precision.DOUBLE,
+                stabilisationThreshold, maxUpdates, listener, sampleInterval);
+    }
+
+    public PoissonSolverSession(double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions,
+                                PoissonMethod method, PoissonPreconditionerType preconditionerType, Precision precision,
+                                double stabilisationThreshold, int maxUpdates, PoissonSolveListener listener,
+                                int sampleInterval) {
+        // Precisions other than DOUBLE are only available for some methods; see PoissonSolver.solve
+        this.overcorrectionFactor = overcorrectionFactor;
+        this.boundaryConditions = boundaryConditions;
+        this.method = method;
+        this.preconditionerType = preconditionerType;
+        this.precision = precision;
+        this.stabilisationThreshold = stabilisationThreshold;
+        this.maxUpdates = maxUpdates;
+        this.listener = listener;
+        this.sampleInterval = sampleInterval;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public ScalarField solvePoisson(ScalarField f) {
+        return solve(f).phi();
+    }
+
+    public PoissonSolveResult solve(ScalarField f) {
+        Pair<Integer, Integer> gridSize = new Pair<>(f.width, f.height);
+
+        ScalarField initialGuess = lastSolutions.get(gridSize);
+        if (initialGuess == null || initialGuess.isOffHeap() != f.isOffHeap()) {
+            initialGuess = f.isOffHeap() ? allocateOffHeapLike(f) : new ScalarField(f.width, f.height);
+        }
+
+        PoissonSolveResult result = PoissonSolver.solve(f, initialGuess, overcorrectionFactor, boundaryConditions, method,
+                stabilisationThreshold, maxUpdates, precision, preconditionerType,
+                new PoissonConvergenceMonitor(listener, sampleInterval));
+
+        // Keep a copy, so that callers are free to modify the returned phi (unless it is off the heap, as above)
+        lastSolutions.put(gridSize, result.phi().isOffHeap() ? result.phi() : new ScalarField(result.phi()));
+
+        return result;
+    }
+
+    public void setInitialGuess(ScalarField phi) {
+        // The next solve on a grid of phi's size starts from (a copy of) phi, instead of from the last solution
+        // Useful to warm-start a solve on a finer grid from an interpolated coarse solution
+        // phi itself is kept, and swept in place, if it is stored off the heap
+        lastSolutions.put(new Pair<>(phi.width, phi.height), phi.isOffHeap() ? phi : new ScalarField(phi));
+    }
+
+    private static ScalarField allocateOffHeapLike(ScalarField f) {
+        try {
+            return ScalarField.wrap(OffHeapGrid.allocateLike(f.getOffHeapGrid(), 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not allocate phi off the heap", e);
+        }
+    }
+
+    public void reset() {
+        // Forgets all previous solutions, so that the next solve on each grid starts from zero again
+        lastSolutions.clear();
+    }
+}
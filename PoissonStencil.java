@@ -0,0 +1,153 @@
+public class PoissonStencil {
+    // Five-point Laplacian stencil on flat, row-major arrays (element (x, y) is stored at index y * width + x).
+    // This is the same discretisation as PoissonSolver.getUpdatedValueAt, generalised to grid spacings hx and hy so
+    // that coarser grids can be used:
+    //     (phi(x+1, y) + phi(x-1, y) - 2 phi(x, y)) / hx^2 + (phi(x, y+1) + phi(x, y-1) - 2 phi(x, y)) / hy^2 = f(x, y)
+    // With DIRICHLET boundary conditions, the boundary elements are held fixed.
+    // With NEUMANN boundary conditions, the field is mirrored about its edges, i.e. phi(-1, y) = phi(1, y).
+
+    public static int reflect(int i, int n) {
+        // Mirrors an index that lies just outside [0, n) back into the grid
+        if (i < 0) {
+            return -i;
+        }
+        if (i >= n) {
+            return 2 * (n - 1) - i;
+        }
+        return i;
+    }
+
+    public static boolean isFixed(int x, int y, int width, int height, PoissonBoundaryConditions boundaryConditions) {
+        // Whether the element at (x, y) is never updated
+        return boundaryConditions == PoissonBoundaryConditions.DIRICHLET
+                && (x == 0 || x == width - 1 || y == 0 || y == height - 1);
+    }
+
+    public static double getHorizontalNeighbourSum(double[] phi, int width, int x, int y) {
+        // Mirrors at the left and right edges; only called for elements that are updated
+        int row = y * width;
+        if (0 < x && x < width - 1) {
+            return phi[row + x - 1] + phi[row + x + 1];
+        }
+        return phi[row + reflect(x - 1, width)] + phi[row + reflect(x + 1, width)];
+    }
+
+    public static double getVerticalNeighbourSum(double[] phi, int width, int height, int x, int y) {
+        // Mirrors at the top and bottom edges; only called for elements that are updated
+        if (0 < y && y < height - 1) {
+            return phi[(y - 1) * width + x] + phi[(y + 1) * width + x];
+        }
+        return phi[reflect(y - 1, height) * width + x] + phi[reflect(y + 1, height) * width + x];
+    }
+
+    public static double getRelaxedValueAt(double[] phi, double[] f, int width, int height, int x, int y,
+                                           double hx2, double hy2) {
+        // The value of phi(x, y) that satisfies the stencil exactly, given its neighbours
+        int i = y * width + x;
+        double horizontal = getHorizontalNeighbourSum(phi, width, x, y);
+        double vertical = getVerticalNeighbourSum(phi, width, height, x, y);
+
+        if (hx2 == hy2) {
+            return (horizontal + vertical - hx2 * f[i]) / 4d;
+        }
+        return (horizontal / hx2 + vertical / hy2 - f[i]) / (2 / hx2 + 2 / hy2);
+    }
+
+    public static double sweep(double[] phi, double[] f, int width, int height, double hx2, double hy2,
+                               double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions) {
+        // One lexicographic (row by row) Gauss-Seidel sweep, in place
+        // Returns the maximum absolute change of any element
+
+        int margin = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? 0 : 1;
+
+        double maxDiff = 0;
+
+        for (int y = margin; y < height - margin; y++) {
+            for (int x = margin; x < width - margin; x++) {
+                int i = y * width + x;
+                double oldValue = phi[i];
+                double result = getRelaxedValueAt(phi, f, width, height, x, y, hx2, hy2);
+                double newValue = oldValue + (result - oldValue) * overcorrectionFactor;
+
+                maxDiff = Math.max(maxDiff, Math.abs(newValue - oldValue));
+                phi[i] = newValue;
+            }
+        }
+
+        return maxDiff;
+    }
+
+    public static void computeResidual(double[] phi, double[] f, double[] residual, int width, int height,
+                                       double hx2, double hy2, PoissonBoundaryConditions boundaryConditions) {
+        // residual = f - laplacian(phi); zero on fixed (Dirichlet) boundary elements
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+
+                if (isFixed(x, y, width, height, boundaryConditions)) {
+                    residual[i] = 0;
+                    continue;
+                }
+
+                double laplacian = (getHorizontalNeighbourSum(phi, width, x, y) - 2 * phi[i]) / hx2
+                        + (getVerticalNeighbourSum(phi, width, height, x, y) - 2 * phi[i]) / hy2;
+                residual[i] = f[i] - laplacian;
+            }
+        }
+    }
+
+    public static double getMaxResidual(double[] phi, double[] f, int width, int height,
+                                        PoissonBoundaryConditions boundaryConditions) {
+        // Largest absolute value of f - laplacian(phi) on the finest grid
+        // For NEUMANN, f is made compatible first, since no phi could reduce the residual any further than that
+        double[] compatibleF = f;
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            compatibleF = f.clone();
+            makeCompatible(compatibleF, width, height);
+        }
+
+        double[] residual = new double[width * height];
+        computeResidual(phi, compatibleF, residual, width, height, 1, 1, boundaryConditions);
+
+        double maxResidual = 0;
+        for (double r : residual) {
+            maxResidual = Math.max(maxResidual, Math.abs(r));
+        }
+        return maxResidual;
+    }
+
+    public static double getBoundaryWeight(int x, int y, int width, int height) {
+        // Weight of each element in the Neumann compatibility condition
+        // Elements on an edge count half, and corners a quarter, since mirroring makes them shared with the ghost cells
+        double weight = 1;
+        if (x == 0 || x == width - 1) {
+            weight /= 2;
+        }
+        if (y == 0 || y == height - 1) {
+            weight /= 2;
+        }
+        return weight;
+    }
+
+    public static void makeCompatible(double[] f, int width, int height) {
+        // A Neumann problem only has a solution if the weighted sum of f is zero, so we subtract its weighted mean
+        // (This only removes the component of f that no phi could ever produce)
+
+        double weightedSum = 0;
+        double totalWeight = 0;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double weight = getBoundaryWeight(x, y, width, height);
+                weightedSum += weight * f[y * width + x];
+                totalWeight += weight;
+            }
+        }
+
+        double mean = weightedSum / totalWeight;
+        for (int i = 0; i < width * height; i++) {
+            f[i] -= mean;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+public enum Precision {
+    DOUBLE,  // float64 storage and arithmetic throughout
+    SINGLE,  // float32 storage and arithmetic in the Poisson sweeps and the gradient; accurate to about 1e-7 relative
+             // to the largest values. The fields passed between them are still doubles, holding float32 values
+    MIXED  // float32 sweeps, corrected in float64 at the end, so the result is as accurate as with DOUBLE
+}
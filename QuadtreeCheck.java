@@ -0,0 +1,133 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class QuadtreeCheck {
+    /*
+    Checks that a QuadtreeLensMesh fits the target with far fewer vertices than a uniform Lens:
+    - On the sample image that MagicMirrorMaker uses, a mesh built with MESH_TOLERANCE, and marched for ITERATIONS outer
+      iterations, must have at most MAX_VERTEX_SHARE of the vertices of a uniform Lens of the same size, and reach at
+      most the L1 loss (summed per pixel) that the uniform Lens reaches in the same number of iterations.
+    - A mesh one cell tall (32x16, with 16x16 cells) must give finite gradients and march, although no cell has a
+      neighbour above or below it.
+    - QuadtreePoissonSolver must return the initial phi when f is zero once made compatible.
+    Run from the project directory, since the sample image is read from Files. Exits with status 1 if any check fails.
+    */
+
+    private static final double MESH_TOLERANCE = 1e-4;
+    private static final int ITERATIONS = 5;
+    private static final double MAX_VERTEX_SHARE = 0.1;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage image = ImageHandler.loadImage("Files/UncroppedImage.jpg");
+        image = ImageHandler.scaleBy(image, 0.25);
+        ScalarField target = new ScalarField(image, 162, 15, 256, 256);
+
+        checkFidelityPerVertex(target);
+        checkOneCellTallMesh();
+        checkCompatibleZeroF();
+
+        System.out.println(failures == 0 ? "All quadtree checks passed" : failures + " quadtree checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkFidelityPerVertex(ScalarField target) throws Exception {
+        long startTime = System.nanoTime();
+        QuadtreeLensMesh mesh = QuadtreeLensMesh.create(target, MESH_TOLERANCE);
+        double[] phi = new double[mesh.getCellCount()];
+        double[] velXs = new double[mesh.getVertexCount()];
+        double[] velYs = new double[mesh.getVertexCount()];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            phi = QuadtreePoissonSolver.solve(mesh, mesh.getLoss(), phi, 1e-8, 10000, new PoissonConvergenceMonitor());
+            mesh.getGradientAtVertices(phi, velXs, velYs);
+            negate(velXs);  // The vertices move against their velocity, so along gradient(phi), as in the optimiser
+            negate(velYs);
+            mesh.marchVerticesBasedOnVelocities(velXs, velYs, 0.5);
+        }
+        double meshL1 = getL1(mesh.toPixelField(mesh.getLoss()));
+        double meshSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        // As MultiresolutionLensOptimiser marches at a single level
+        startTime = System.nanoTime();
+        Lens lens = new Lens(target.width, target.height);
+        PoissonSolverSession session = new PoissonSolverSession(-1, PoissonBoundaryConditions.NEUMANN,
+                PoissonMethod.ADAPTIVE_SOR, 1e-10, 100000);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            ScalarField loss = lens.getLoss(target);
+            VectorField velField = GradientCalculator.getGradient(session.solve(loss).phi()).negated();
+            lens.marchPointsBasedOnVelocityField(velField, 0.5, lens.getTotalArea(), ForkJoinPool.commonPool());
+        }
+        double lensL1 = getL1(lens.getLoss(target));
+        double lensSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        int lensVertices = lens.width * lens.height;
+        System.out.printf("Mesh: %d vertices, L1 loss %.4f after %d iterations (%.2f s)%n", mesh.getVertexCount(),
+                meshL1, ITERATIONS, meshSeconds);
+        System.out.printf("Uniform lens: %d vertices, L1 loss %.4f after %d iterations (%.2f s)%n", lensVertices,
+                lensL1, ITERATIONS, lensSeconds);
+        check("Mesh vertices as a share of the uniform lens's", (double) mesh.getVertexCount() / lensVertices,
+                MAX_VERTEX_SHARE);
+        check("Mesh L1 loss, less the uniform lens's", meshL1 - lensL1, 0);
+    }
+
+    private static void checkOneCellTallMesh() {
+        ScalarField target = new ScalarField(32, 16);
+        for (int y = 0; y < target.height; y++) {
+            for (int x = 0; x < target.width; x++) {
+                target.setElement(x, y, x < 16 ? 1 : 2);
+            }
+        }
+        // A tolerance that no block exceeds, so the mesh is two 16x16 cells side by side
+        QuadtreeLensMesh mesh = QuadtreeLensMesh.create(target, null, 16, 1);
+        double[] phi = QuadtreePoissonSolver.solve(mesh, mesh.getLoss(), new double[mesh.getCellCount()], 1e-10, 100,
+                new PoissonConvergenceMonitor());
+        double[] velXs = new double[mesh.getVertexCount()];
+        double[] velYs = new double[mesh.getVertexCount()];
+        mesh.getGradientAtVertices(phi, velXs, velYs);
+        boolean finite = Arrays.stream(velXs).allMatch(Double::isFinite) && Arrays.stream(velYs).allMatch(Double::isFinite);
+        check("32x16 mesh of " + mesh.getCellCount() + " cells has finite gradients", finite ? 0 : 1, 0);
+
+        double before = getL1(mesh.toPixelField(mesh.getLoss()));
+        negate(velXs);
+        negate(velYs);
+        mesh.marchVerticesBasedOnVelocities(velXs, velYs, 0.5);
+        double after = getL1(mesh.toPixelField(mesh.getLoss()));
+        check("32x16 mesh L1 loss after marching, less before", after - before, 0);
+    }
+
+    private static void checkCompatibleZeroF() {
+        ScalarField target = new ScalarField(32, 32);
+        target.getRowMajorArray()[0] = 1;
+        QuadtreeLensMesh mesh = QuadtreeLensMesh.create(target, 0);
+        double[] f = new double[mesh.getCellCount()];
+        Arrays.fill(f, 3);  // A constant, all of which NEUMANN removes
+        double[] initialPhi = new double[mesh.getCellCount()];
+        for (int i = 0; i < initialPhi.length; i++) {
+            initialPhi[i] = i;
+        }
+        double[] phi = QuadtreePoissonSolver.solve(mesh, f, initialPhi, 1e-10, 100, new PoissonConvergenceMonitor());
+        check("Solve of compatible-zero f keeps the initial phi", Arrays.equals(phi, initialPhi) ? 0 : 1, 0);
+    }
+
+    private static void negate(double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -values[i];
+        }
+    }
+
+    private static double getL1(ScalarField loss) {
+        return loss.asDoubleStream().map(Math::abs).sum();
+    }
+
+    private static void check(String description, double value, double tolerance) {
+        boolean passed = value <= tolerance;
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("%s: %s %.2e (tolerance %.0e)%n", passed ? "ok" : "FAILED", description, value, tolerance);
+    }
+}
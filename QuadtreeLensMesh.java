@@ -0,0 +1,566 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class QuadtreeLensMesh {
+    /*
+    A lens whose cells are the leaves of quadtrees, rather than a uniform grid of 1x1 cells like Lens.
+    The target image is split into square blocks of maxCellSize x maxCellSize pixels, and each block is split into four
+    recursively wherever the image (or a given loss) varies a lot within it, down to single pixels. So the mesh is fine
+    around edges and detail in the image, and coarse over flat areas, and has far fewer vertices than a Lens of the
+    same size.
+
+    Neighbouring cells differ in size by at most a factor of two (the mesh is balanced), so each side of a cell borders
+    either one cell or two cells half its size. In the second case, the vertex in the middle of the side is a corner of
+    the two smaller cells, but not of the bigger one. It is "hanging": it always stays halfway between the ends of the
+    bigger cell's side, so that the side stays straight and the cells never overlap or leave gaps.
+
+    As in Lens, cell and vertex positions are in pixels, with cell (x, y) of a uniform lens covering [x, x + 1) x
+    [y, y + 1) before marching. Each cell is a polygon of its four corners, plus any hanging vertices on its sides, in
+    clockwise order from the top left. Values per cell (areas, loss, phi) are stored in arrays indexed by cell, in the
+    order of the cells' top left corners, row by row.
+
+    The Poisson problem on the mesh is solved by QuadtreePoissonSolver, using the faces (shared sides) between cells.
+    */
+
+    public static final int DEFAULT_MAX_CELL_SIZE = 16;
+
+    private final int width;  // In pixels
+    private final int height;
+
+    // Cells
+    private final int cellCount;
+    private final int[] cellX;  // Top left pixel
+    private final int[] cellY;
+    private final int[] cellSize;
+    private final int[] polygonStarts;  // The vertices of cell i are polygonVertices[polygonStarts[i]] to [polygonStarts[i + 1] - 1]
+    private final int[] polygonVertices;
+    private final double[] brightnessFractions;  // Each cell's share of the target image's total brightness
+
+    // Vertices
+    private final int vertexCount;
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] latticeX;  // Position before marching
+    private final int[] latticeY;
+    private final int[] hangingVertices;  // Ordered so that a hanging vertex's ends are positioned before it
+    private final int[] hangingEndsA;
+    private final int[] hangingEndsB;
+
+    // Faces between neighbouring cells, each listed once, from the cell on the left or above
+    private final int faceCount;
+    private final int[] faceCellsA;  // Left or above
+    private final int[] faceCellsB;  // Right or below
+    private final double[] faceWeights;  // Length / distance between the cells' centres
+
+    public static QuadtreeLensMesh create(ScalarField targetBrightnesses, double tolerance) {
+        return create(targetBrightnesses, null, getDefaultMaxCellSize(targetBrightnesses.width, targetBrightnesses.height), tolerance);
+    }
+
+    public static QuadtreeLensMesh create(ScalarField targetBrightnesses, ScalarField loss, int maxCellSize, double tolerance) {
+        // A block is split if, within it,
+        //     (sum of |brightness - mean brightness of block|) / (total brightness) + (sum of |loss|)
+        // is more than tolerance. Both terms are shares of the total light, so tolerance is the share of the light
+        // that any one cell may misplace
+        // loss may be null, or the loss from Lens.getLoss for a uniform lens of the same size as the target, to refine
+        // further where that lens is still furthest from the target
+        int width = targetBrightnesses.width;
+        int height = targetBrightnesses.height;
+
+        if (Integer.bitCount(maxCellSize) != 1 || width % maxCellSize != 0 || height % maxCellSize != 0) {
+            throw new IllegalArgumentException("The maximum cell size must be a power of two that divides both the width "
+                    + "and the height, but got " + maxCellSize + " for " + width + "x" + height);
+        }
+        if (loss != null && !loss.hasSameShapeAs(targetBrightnesses)) {
+            throw new IllegalArgumentException("The loss must be the same size as the target brightnesses");
+        }
+
+        double[] brightnesses = targetBrightnesses.getRowMajorArray();  // Only read
+        double totalBrightness = targetBrightnesses.getSum();
+        double[] lossValues = loss == null ? null : loss.getRowMajorArray();
+
+        int[] cellSizeAtPixel = new int[width * height];
+        for (int y = 0; y < height; y += maxCellSize) {
+            for (int x = 0; x < width; x += maxCellSize) {
+                refine(x, y, maxCellSize, brightnesses, totalBrightness, lossValues, width, tolerance, cellSizeAtPixel);
+            }
+        }
+        balance(cellSizeAtPixel, width, height);
+
+        return new QuadtreeLensMesh(width, height, cellSizeAtPixel, brightnesses, totalBrightness);
+    }
+
+    public static int getDefaultMaxCellSize(int width, int height) {
+        // The largest power of two up to DEFAULT_MAX_CELL_SIZE that divides both sides
+        int size = DEFAULT_MAX_CELL_SIZE;
+        while (width % size != 0 || height % size != 0) {
+            size /= 2;
+        }
+        return size;
+    }
+
+    private static void refine(int x0, int y0, int size, double[] brightnesses, double totalBrightness,
+                               double[] lossValues, int width, double tolerance, int[] cellSizeAtPixel) {
+        // Makes the block a cell, or splits it into four and refines those
+        if (size > 1 && getVariation(x0, y0, size, brightnesses, totalBrightness, lossValues, width) > tolerance) {
+            int half = size / 2;
+            refine(x0, y0, half, brightnesses, totalBrightness, lossValues, width, tolerance, cellSizeAtPixel);
+            refine(x0 + half, y0, half, brightnesses, totalBrightness, lossValues, width, tolerance, cellSizeAtPixel);
+            refine(x0, y0 + half, half, brightnesses, totalBrightness, lossValues, width, tolerance, cellSizeAtPixel);
+            refine(x0 + half, y0 + half, half, brightnesses, totalBrightness, lossValues, width, tolerance, cellSizeAtPixel);
+            return;
+        }
+        fill(cellSizeAtPixel, width, x0, y0, size, size);
+    }
+
+    private static double getVariation(int x0, int y0, int size, double[] brightnesses, double totalBrightness,
+                                       double[] lossValues, int width) {
+        double sum = 0;
+        for (int y = y0; y < y0 + size; y++) {
+            for (int x = x0; x < x0 + size; x++) {
+                sum += brightnesses[y * width + x];
+            }
+        }
+        double mean = sum / (size * size);
+
+        double brightnessVariation = 0;
+        double lossVariation = 0;
+        for (int y = y0; y < y0 + size; y++) {
+            for (int x = x0; x < x0 + size; x++) {
+                brightnessVariation += Math.abs(brightnesses[y * width + x] - mean);
+                if (lossValues != null) {
+                    lossVariation += Math.abs(lossValues[y * width + x]);
+                }
+            }
+        }
+        return brightnessVariation / totalBrightness + lossVariation;
+    }
+
+    private static void balance(int[] cellSizeAtPixel, int width, int height) {
+        // Splits cells until no cell borders a cell less than half its size
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int size = cellSizeAtPixel[y * width + x];
+                    if (x % size != 0 || y % size != 0 || size == 1) {
+                        continue;  // Not a cell's top left pixel, or cannot be split
+                    }
+
+                    if (hasSmallNeighbour(cellSizeAtPixel, width, height, x, y, size)) {
+                        fill(cellSizeAtPixel, width, x, y, size / 2, size);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean hasSmallNeighbour(int[] cellSizeAtPixel, int width, int height, int x0, int y0, int size) {
+        for (int t = 0; t < size; t++) {
+            if ((y0 > 0 && cellSizeAtPixel[(y0 - 1) * width + x0 + t] < size / 2)
+                    || (y0 + size < height && cellSizeAtPixel[(y0 + size) * width + x0 + t] < size / 2)
+                    || (x0 > 0 && cellSizeAtPixel[(y0 + t) * width + x0 - 1] < size / 2)
+                    || (x0 + size < width && cellSizeAtPixel[(y0 + t) * width + x0 + size] < size / 2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void fill(int[] cellSizeAtPixel, int width, int x0, int y0, int cellSize, int blockSize) {
+        for (int y = y0; y < y0 + blockSize; y++) {
+            Arrays.fill(cellSizeAtPixel, y * width + x0, y * width + x0 + blockSize, cellSize);
+        }
+    }
+
+    private QuadtreeLensMesh(int width, int height, int[] cellSizeAtPixel, double[] brightnesses, double totalBrightness) {
+        this.width = width;
+        this.height = height;
+
+        // Cells, in the order of their top left pixels
+        ArrayList<int[]> cells = new ArrayList<>();
+        int[] cellAtPixel = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int size = cellSizeAtPixel[y * width + x];
+                if (x % size == 0 && y % size == 0) {
+                    for (int cy = y; cy < y + size; cy++) {
+                        Arrays.fill(cellAtPixel, cy * width + x, cy * width + x + size, cells.size());
+                    }
+                    cells.add(new int[] {x, y, size});
+                }
+            }
+        }
+
+        cellCount = cells.size();
+        cellX = new int[cellCount];
+        cellY = new int[cellCount];
+        cellSize = new int[cellCount];
+        brightnessFractions = new double[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            int[] cell = cells.get(i);
+            cellX[i] = cell[0];
+            cellY[i] = cell[1];
+            cellSize[i] = cell[2];
+
+            double sum = 0;
+            for (int y = cellY[i]; y < cellY[i] + cellSize[i]; y++) {
+                for (int x = cellX[i]; x < cellX[i] + cellSize[i]; x++) {
+                    sum += brightnesses[y * width + x];
+                }
+            }
+            brightnessFractions[i] = sum / totalBrightness;
+        }
+
+        // Vertices: every cell corner, numbered in lattice order
+        int latticeWidth = width + 1;
+        int[] vertexAtLatticePoint = new int[latticeWidth * (height + 1)];
+        Arrays.fill(vertexAtLatticePoint, -1);
+        for (int i = 0; i < cellCount; i++) {
+            int size = cellSize[i];
+            vertexAtLatticePoint[cellY[i] * latticeWidth + cellX[i]] = 0;
+            vertexAtLatticePoint[cellY[i] * latticeWidth + cellX[i] + size] = 0;
+            vertexAtLatticePoint[(cellY[i] + size) * latticeWidth + cellX[i]] = 0;
+            vertexAtLatticePoint[(cellY[i] + size) * latticeWidth + cellX[i] + size] = 0;
+        }
+
+        int vertices = 0;
+        for (int i = 0; i < vertexAtLatticePoint.length; i++) {
+            if (vertexAtLatticePoint[i] != -1) {
+                vertexAtLatticePoint[i] = vertices++;
+            }
+        }
+
+        vertexCount = vertices;
+        xs = new double[vertexCount];
+        ys = new double[vertexCount];
+        latticeX = new int[vertexCount];
+        latticeY = new int[vertexCount];
+        for (int i = 0; i < vertexAtLatticePoint.length; i++) {
+            int vertex = vertexAtLatticePoint[i];
+            if (vertex != -1) {
+                latticeX[vertex] = i % latticeWidth;
+                latticeY[vertex] = i / latticeWidth;
+                xs[vertex] = latticeX[vertex];
+                ys[vertex] = latticeY[vertex];
+            }
+        }
+
+        // Cell polygons, with the hanging vertex (if any) in the middle of each side
+        ArrayList<int[]> hanging = new ArrayList<>();  // {vertex, end A, end B, size of the side}
+        polygonStarts = new int[cellCount + 1];
+        int[] polygon = new int[8];
+        ArrayList<Integer> allPolygonVertices = new ArrayList<>();
+
+        for (int i = 0; i < cellCount; i++) {
+            int x0 = cellX[i];
+            int y0 = cellY[i];
+            int size = cellSize[i];
+            int[][] corners = {{x0, y0}, {x0 + size, y0}, {x0 + size, y0 + size}, {x0, y0 + size}};
+
+            int polygonSize = 0;
+            for (int corner = 0; corner < 4; corner++) {
+                int[] start = corners[corner];
+                int[] end = corners[(corner + 1) % 4];
+                int startVertex = vertexAtLatticePoint[start[1] * latticeWidth + start[0]];
+                int endVertex = vertexAtLatticePoint[end[1] * latticeWidth + end[0]];
+                polygon[polygonSize++] = startVertex;
+
+                if (size > 1) {
+                    int middleVertex = vertexAtLatticePoint[(start[1] + end[1]) / 2 * latticeWidth + (start[0] + end[0]) / 2];
+                    if (middleVertex != -1) {
+                        polygon[polygonSize++] = middleVertex;
+                        hanging.add(new int[] {middleVertex, startVertex, endVertex, size});
+                    }
+                }
+            }
+
+            polygonStarts[i] = allPolygonVertices.size();
+            for (int j = 0; j < polygonSize; j++) {
+                allPolygonVertices.add(polygon[j]);
+            }
+        }
+        polygonStarts[cellCount] = allPolygonVertices.size();
+        polygonVertices = allPolygonVertices.stream().mapToInt(Integer::intValue).toArray();
+
+        // The ends of a hanging vertex's side can themselves hang from the side of a cell twice the size, so those go first
+        hanging.sort(Comparator.comparingInt((int[] h) -> h[3]).reversed());
+        hangingVertices = new int[hanging.size()];
+        hangingEndsA = new int[hanging.size()];
+        hangingEndsB = new int[hanging.size()];
+        for (int i = 0; i < hanging.size(); i++) {
+            hangingVertices[i] = hanging.get(i)[0];
+            hangingEndsA[i] = hanging.get(i)[1];
+            hangingEndsB[i] = hanging.get(i)[2];
+        }
+
+        // Faces, from the right and bottom sides of each cell
+        ArrayList<int[]> faces = new ArrayList<>();  // {cell A, cell B, length}
+        for (int i = 0; i < cellCount; i++) {
+            int x0 = cellX[i];
+            int y0 = cellY[i];
+            int size = cellSize[i];
+
+            if (x0 + size < width) {
+                for (int t = y0; t < y0 + size; ) {
+                    int neighbour = cellAtPixel[t * width + x0 + size];
+                    int length = Math.min(size, cellSize[neighbour]);
+                    faces.add(new int[] {i, neighbour, length});
+                    t += length;
+                }
+            }
+            if (y0 + size < height) {
+                for (int t = x0; t < x0 + size; ) {
+                    int neighbour = cellAtPixel[(y0 + size) * width + t];
+                    int length = Math.min(size, cellSize[neighbour]);
+                    faces.add(new int[] {i, neighbour, length});
+                    t += length;
+                }
+            }
+        }
+
+        faceCount = faces.size();
+        faceCellsA = new int[faceCount];
+        faceCellsB = new int[faceCount];
+        faceWeights = new double[faceCount];
+        for (int i = 0; i < faceCount; i++) {
+            int[] face = faces.get(i);
+            faceCellsA[i] = face[0];
+            faceCellsB[i] = face[1];
+            // The centres are (size A + size B) / 2 apart across the face
+            faceWeights[i] = face[2] / ((cellSize[faceCellsA[i]] + cellSize[faceCellsB[i]]) / 2.0);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getCellX(int cell) {
+        return cellX[cell];
+    }
+
+    public int getCellY(int cell) {
+        return cellY[cell];
+    }
+
+    public int getCellSize(int cell) {
+        return cellSize[cell];
+    }
+
+    public double[] getXs() {
+        // The backing array itself, so changes to it move the vertices
+        return xs;
+    }
+
+    public double[] getYs() {
+        return ys;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    public int getFaceCellA(int face) {
+        return faceCellsA[face];
+    }
+
+    public int getFaceCellB(int face) {
+        return faceCellsB[face];
+    }
+
+    public double getFaceWeight(int face) {
+        // Length of the face / distance between the centres of the cells either side of it, as in a finite volume
+        // discretisation of the Laplacian; 1 between two 1x1 cells, as in the five-point stencil
+        return faceWeights[face];
+    }
+
+    public double[] getCellAreas() {
+        // Shoelace formula over each cell's polygon, as in AreaCalculator
+        double[] result = new double[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            double sum = 0;
+            int start = polygonStarts[i];
+            int end = polygonStarts[i + 1];
+            for (int j = start; j < end; j++) {
+                int a = polygonVertices[j];
+                int b = polygonVertices[j + 1 == end ? start : j + 1];
+                sum += xs[a] * ys[b] - ys[a] * xs[b];
+            }
+            result[i] = Math.abs(sum / 2.0);
+        }
+        return result;
+    }
+
+    public double getTotalArea() {
+        return width * height;
+    }
+
+    public double[] getLoss() {
+        // As in Lens.getLoss: each cell's share of the target brightness minus its share of the lens area
+        double[] areas = getCellAreas();
+        double totalArea = getTotalArea();
+
+        double[] result = new double[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            result[i] = brightnessFractions[i] - areas[i] / totalArea;
+        }
+        return result;
+    }
+
+    public void getGradientAtVertices(double[] phi, double[] outX, double[] outY) {
+        // gradient(phi) at each vertex, where phi has one value per cell
+        // Each cell's gradient g is the least squares fit to the differences to its neighbours,
+        //     phi[neighbour] - phi[cell] = g . (centre of neighbour - centre of cell)
+        // which is exact for linear phi even across cells of different sizes, whose centres are not level, and is
+        // the central difference between 1x1 cells. Each vertex then gets the mean of the gradients of the cells it
+        // is a corner of, and hanging vertices the mean of the vertices at the ends of their side
+        double[] sumXX = new double[cellCount];
+        double[] sumXY = new double[cellCount];
+        double[] sumYY = new double[cellCount];
+        double[] sumXDiff = new double[cellCount];
+        double[] sumYDiff = new double[cellCount];
+        for (int i = 0; i < faceCount; i++) {
+            int a = faceCellsA[i];
+            int b = faceCellsB[i];
+            double dx = (cellX[b] + cellSize[b] / 2.0) - (cellX[a] + cellSize[a] / 2.0);
+            double dy = (cellY[b] + cellSize[b] / 2.0) - (cellY[a] + cellSize[a] / 2.0);
+            double diff = phi[b] - phi[a];
+
+            // The same terms for both cells, since both the offset and the difference change sign
+            for (int k = 0; k < 2; k++) {
+                int cell = k == 0 ? a : b;
+                sumXX[cell] += dx * dx;
+                sumXY[cell] += dx * dy;
+                sumYY[cell] += dy * dy;
+                sumXDiff[cell] += dx * diff;
+                sumYDiff[cell] += dy * diff;
+            }
+        }
+
+        double[] cellsAtVertex = new double[vertexCount];
+        Arrays.fill(outX, 0, vertexCount, 0);
+        Arrays.fill(outY, 0, vertexCount, 0);
+        for (int i = 0; i < cellCount; i++) {
+            double determinant = sumXX[i] * sumYY[i] - sumXY[i] * sumXY[i];
+            double gradientX;
+            double gradientY;
+            if (determinant > 1e-12 * (sumXX[i] + sumYY[i]) * (sumXX[i] + sumYY[i])) {
+                gradientX = (sumYY[i] * sumXDiff[i] - sumXY[i] * sumYDiff[i]) / determinant;
+                gradientY = (sumXX[i] * sumYDiff[i] - sumXY[i] * sumXDiff[i]) / determinant;
+            } else if (sumXX[i] + sumYY[i] > 0) {
+                // All the neighbours lie along one line through the cell's centre (in a mesh one cell tall or wide),
+                // so only the gradient along that line can be fitted: the one-dimensional least squares slope, with
+                // no component across it
+                gradientX = sumXDiff[i] / (sumXX[i] + sumYY[i]);
+                gradientY = sumYDiff[i] / (sumXX[i] + sumYY[i]);
+            } else {
+                gradientX = 0;  // A mesh of a single cell
+                gradientY = 0;
+            }
+
+            int start = polygonStarts[i];
+            for (int j = start; j < polygonStarts[i + 1]; j++) {
+                int vertex = polygonVertices[j];
+                if (isCorner(vertex, i)) {
+                    outX[vertex] += gradientX;
+                    outY[vertex] += gradientY;
+                    cellsAtVertex[vertex]++;
+                }
+            }
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            outX[vertex] /= cellsAtVertex[vertex];
+            outY[vertex] /= cellsAtVertex[vertex];
+        }
+
+        placeHangingVertices(outX, outY);
+    }
+
+    private boolean isCorner(int vertex, int cell) {
+        int x = latticeX[vertex];
+        int y = latticeY[vertex];
+        return (x == cellX[cell] || x == cellX[cell] + cellSize[cell]) && (y == cellY[cell] || y == cellY[cell] + cellSize[cell]);
+    }
+
+    private void placeHangingVertices(double[] valuesX, double[] valuesY) {
+        // Puts each hanging vertex's values halfway between those of the ends of its side
+        for (int i = 0; i < hangingVertices.length; i++) {
+            valuesX[hangingVertices[i]] = (valuesX[hangingEndsA[i]] + valuesX[hangingEndsB[i]]) / 2;
+            valuesY[hangingVertices[i]] = (valuesY[hangingEndsA[i]] + valuesY[hangingEndsB[i]]) / 2;
+        }
+    }
+
+    public void marchVerticesBasedOnVelocities(double[] velXs, double[] velYs, double extent) {
+        // As in Lens.marchPointsBasedOnVelocityField: every vertex moves against its velocity, for extent times the
+        // time until the first triangle of the mesh collapses, with vertices on the boundary only moving along it
+        double[] negativeVelXs = new double[vertexCount];
+        double[] negativeVelYs = new double[vertexCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            negativeVelXs[vertex] = latticeX[vertex] == 0 || latticeX[vertex] == width ? 0 : -velXs[vertex];
+            negativeVelYs[vertex] = latticeY[vertex] == 0 || latticeY[vertex] == height ? 0 : -velYs[vertex];
+        }
+        placeHangingVertices(negativeVelXs, negativeVelYs);
+
+        // Each cell polygon is split into a fan of triangles from its top left corner, leaving out the flat triangles
+        // formed with a hanging vertex on a side next to that corner
+        double minT = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < cellCount; i++) {
+            int start = polygonStarts[i];
+            int apex = polygonVertices[start];
+            for (int j = start + 1; j < polygonStarts[i + 1] - 1; j++) {
+                int b = polygonVertices[j];
+                int c = polygonVertices[j + 1];
+                if ((latticeX[apex] == latticeX[b] && latticeX[b] == latticeX[c])
+                        || (latticeY[apex] == latticeY[b] && latticeY[b] == latticeY[c])) {
+                    continue;
+                }
+
+                double t = Lens.minTimeToReduceAreaEnclosedByMovingPointsToZero(
+                        xs[apex], ys[apex], xs[b], ys[b], xs[c], ys[c],
+                        negativeVelXs[apex], negativeVelYs[apex], negativeVelXs[b], negativeVelYs[b],
+                        negativeVelXs[c], negativeVelYs[c]);
+                minT = Math.min(minT, t);
+            }
+        }
+
+        assert Double.isFinite(minT);
+
+        double factor = minT * extent;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            xs[vertex] += negativeVelXs[vertex] * factor;
+            ys[vertex] += negativeVelYs[vertex] * factor;
+        }
+        placeHangingVertices(xs, ys);  // Exactly on their sides again, whatever the rounding
+    }
+
+    public ScalarField toPixelField(double[] cellValues) {
+        // A width x height field where every pixel of a cell holds the cell's value divided by its number of pixels,
+        // so that values per cell (like the loss) can be compared with, or exported like, those of a uniform lens
+        ScalarField result = new ScalarField(width, height);
+        for (int i = 0; i < cellCount; i++) {
+            double value = cellValues[i] / ((double) cellSize[i] * cellSize[i]);
+            for (int y = cellY[i]; y < cellY[i] + cellSize[i]; y++) {
+                for (int x = cellX[i]; x < cellX[i] + cellSize[i]; x++) {
+                    result.setElement(x, y, value);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+public class QuadtreePoissonSolver {
+    /*
+    Solves the Poisson problem laplacian(phi) = f on the cells of a QuadtreeLensMesh, with phi and f given per cell and
+    Neumann boundaries, as PoissonSolver does on a uniform grid.
+    The Laplacian is discretised with finite volumes: the flux through each face between cells a and b is
+        (phi[b] - phi[a]) * (length of face) / (distance between the centres of a and b)
+    and the fluxes into each cell add up to f. No flux crosses the edges of the mesh. Between 1x1 cells away from the
+    edges, this is the five-point stencil.
+    Every face appears in the equations of both its cells with the same weight, so the system is symmetric, and it is
+    solved with the conjugate gradient method, preconditioned by the diagonal, as in PCGSolver.
+
+    Iteration stops once the residual, measured in the 2-norm relative to f, falls below the tolerance.
+    */
+
+    public static double[] solve(QuadtreeLensMesh mesh, double[] f, double[] initialPhi, double tolerance,
+                                 int maxIterations, PoissonConvergenceMonitor monitor) {
+        int size = mesh.getCellCount();
+        double[] phi = initialPhi.clone();
+
+        // Neumann boundaries, so the fluxes into all the cells add up to zero, and so must f
+        double[] b = new double[size];  // -f, since CG is applied to -laplacian, which is positive semi-definite
+        double mean = 0;
+        for (int i = 0; i < size; i++) {
+            mean += f[i];
+        }
+        mean /= size;
+        for (int i = 0; i < size; i++) {
+            b[i] = -(f[i] - mean);
+        }
+
+        double bNorm = Math.sqrt(dot(b, b));
+        if (bNorm == 0) {
+            return phi;  // Any phi that is constant across the cells solves it, so the initial phi is left as it is
+        }
+
+        double[] inverseDiagonal = new double[size];
+        for (int face = 0; face < mesh.getFaceCount(); face++) {
+            inverseDiagonal[mesh.getFaceCellA(face)] += mesh.getFaceWeight(face);
+            inverseDiagonal[mesh.getFaceCellB(face)] += mesh.getFaceWeight(face);
+        }
+        for (int i = 0; i < size; i++) {
+            inverseDiagonal[i] = 1 / inverseDiagonal[i];
+        }
+
+        double[] r = new double[size];
+        double[] z = new double[size];
+        double[] p = new double[size];
+        double[] q = new double[size];
+
+        applyOperator(mesh, phi, q);
+        for (int i = 0; i < size; i++) {
+            r[i] = b[i] - q[i];
+            z[i] = r[i] * inverseDiagonal[i];
+        }
+        System.arraycopy(z, 0, p, 0, size);
+        double rDotZ = dot(r, z);
+
+        int iterations = 0;
+        while (iterations < maxIterations && Math.sqrt(dot(r, r)) / bNorm > tolerance) {
+            applyOperator(mesh, p, q);
+            double pDotQ = dot(p, q);
+            if (pDotQ <= 0 || rDotZ == 0) {  // Only happens once the residual is at round-off level
+                break;
+            }
+
+            double alpha = rDotZ / pDotQ;
+            for (int i = 0; i < size; i++) {
+                phi[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+                z[i] = r[i] * inverseDiagonal[i];
+            }
+            iterations++;
+
+            if (!monitor.record(iterations, Math.sqrt(dot(r, r)) / bNorm)) {
+                break;
+            }
+
+            double newRDotZ = dot(r, z);
+            double beta = newRDotZ / rDotZ;
+            rDotZ = newRDotZ;
+            for (int i = 0; i < size; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+        }
+
+        return phi;
+    }
+
+    public static void applyOperator(QuadtreeLensMesh mesh, double[] phi, double[] result) {
+        // result = -laplacian(phi)
+        Arrays.fill(result, 0);
+        for (int face = 0; face < mesh.getFaceCount(); face++) {
+            int a = mesh.getFaceCellA(face);
+            int b = mesh.getFaceCellB(face);
+            double flux = (phi[b] - phi[a]) * mesh.getFaceWeight(face);
+            result[a] -= flux;
+            result[b] += flux;
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
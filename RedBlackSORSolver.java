@@ -0,0 +1,133 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class RedBlackSORSolver {
+    /*
+    Successive over-relaxation with red-black ordering.
+    Elements are coloured like a chessboard: red where x + y is even, black where it is odd. The five-point stencil only
+    couples elements of different colours, so all red elements can be updated at once from the black ones, and then
+    all black elements from the new red ones. Each half-sweep is therefore split into bands of rows that are updated in
+    parallel, in place, with no copy of phi.
+
+    REFERENCES:
+    https://math.libretexts.org/Bookshelves/Scientific_Computing_Simulations_and_Modeling/Scientific_Computing_(Chasnov)/I%3A_Numerical_Methods/7%3A_Iterative_Methods
+    */
+
+    private static final int MIN_ROWS_PER_BAND = 8;
+    private static final int BANDS_PER_THREAD = 4;  // A few bands per thread lets work stealing even out the load
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, double overcorrectionFactor,
+                                    PoissonBoundaryConditions boundaryConditions, double stabilisationThreshold,
+                                    int maxSweeps, PoissonConvergenceMonitor monitor) {
+        return solve(initialPhi, f, overcorrectionFactor, boundaryConditions, stabilisationThreshold, maxSweeps,
+                monitor, ForkJoinPool.commonPool());
+    }
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, double overcorrectionFactor,
+                                    PoissonBoundaryConditions boundaryConditions, double stabilisationThreshold,
+                                    int maxSweeps, PoissonConvergenceMonitor monitor, ForkJoinPool pool) {
+        // Sweeps until no element changes by more than stabilisationThreshold in a whole sweep
+        // A negative overcorrectionFactor means no overcorrection, as in PoissonSolver
+
+        int width = f.width;
+        int height = f.height;
+        double[] phi = initialPhi.toRowMajorArray();
+        double[] fValues = f.getRowMajorArray();  // Only read
+        double omega = overcorrectionFactor < 0 ? 1 : overcorrectionFactor;
+
+        int sweeps = 0;
+        while (sweeps < maxSweeps) {
+            double maxDiff = sweep(phi, fValues, width, height, omega, boundaryConditions, pool);
+            sweeps++;
+
+            if (!monitor.record(sweeps, maxDiff) || maxDiff <= stabilisationThreshold) {
+                break;
+            }
+        }
+
+        return ScalarField.wrap(width, height, phi);
+    }
+
+    public static double sweep(double[] phi, double[] f, int width, int height, double omega,
+                               PoissonBoundaryConditions boundaryConditions, ForkJoinPool pool) {
+        // One red half-sweep followed by one black half-sweep, in place
+        // Returns the maximum absolute change of any element
+        double redMaxDiff = halfSweep(phi, f, width, height, 0, omega, boundaryConditions, pool);
+        double blackMaxDiff = halfSweep(phi, f, width, height, 1, omega, boundaryConditions, pool);
+        return Math.max(redMaxDiff, blackMaxDiff);
+    }
+
+    public static double halfSweep(double[] phi, double[] f, int width, int height, int colour, double omega,
+                                   PoissonBoundaryConditions boundaryConditions, ForkJoinPool pool) {
+        // Updates every element with (x + y) % 2 == colour
+        int margin = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? 0 : 1;
+        int rowsPerBand = Math.max(MIN_ROWS_PER_BAND, height / (pool.getParallelism() * BANDS_PER_THREAD));
+
+        return pool.invoke(new HalfSweepTask(phi, f, width, height, colour, omega, margin, margin, height - margin, rowsPerBand));
+    }
+
+    private static class HalfSweepTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;  // ForkJoinTask is Serializable, though tasks never are
+
+        private final double[] phi;
+        private final double[] f;
+        private final int width;
+        private final int height;
+        private final int colour;
+        private final double omega;
+        private final int margin;
+        private final int yStart;  // Inclusive
+        private final int yEnd;  // Exclusive
+        private final int rowsPerBand;
+
+        private HalfSweepTask(double[] phi, double[] f, int width, int height, int colour, double omega, int margin,
+                              int yStart, int yEnd, int rowsPerBand) {
+            this.phi = phi;
+            this.f = f;
+            this.width = width;
+            this.height = height;
+            this.colour = colour;
+            this.omega = omega;
+            this.margin = margin;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        @Override
+        protected Double compute() {
+            if (yEnd - yStart <= rowsPerBand) {
+                return updateBand();
+            }
+
+            // Split in half; the maximum of the two halves is the maximum of the band
+            int yMid = (yStart + yEnd) >>> 1;
+            HalfSweepTask upper = new HalfSweepTask(phi, f, width, height, colour, omega, margin, yStart, yMid, rowsPerBand);
+            HalfSweepTask lower = new HalfSweepTask(phi, f, width, height, colour, omega, margin, yMid, yEnd, rowsPerBand);
+            upper.fork();
+            double lowerMaxDiff = lower.compute();
+            return Math.max(upper.join(), lowerMaxDiff);
+        }
+
+        private double updateBand() {
+            double maxDiff = 0;
+
+            for (int y = yStart; y < yEnd; y++) {
+                // First x in [margin, width - margin) with (x + y) % 2 == colour
+                int xStart = margin + ((margin + y + colour) & 1);
+
+                for (int x = xStart; x < width - margin; x += 2) {
+                    int i = y * width + x;
+                    double oldValue = phi[i];
+                    double result = PoissonStencil.getRelaxedValueAt(phi, f, width, height, x, y, 1, 1);
+                    double newValue = oldValue + (result - oldValue) * omega;
+
+                    maxDiff = Math.max(maxDiff, Math.abs(newValue - oldValue));
+                    phi[i] = newValue;
+                }
+            }
+
+            return maxDiff;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public class RowBands {
+    /*
+    Runs a pass over the rows of a grid in parallel, split into bands of whole rows, as RedBlackSORSolver does for its
+    half-sweeps. Each band must only write to its own rows, so that the result does not depend on how the rows are
+    split or in which order the bands run.
+
+    Minimums are combined in a fixed tree, the band above before the band below. Math.min is exact, so the result is
+    the same as a serial pass over all the rows whatever the split, including when a value is NaN. The same goes for
+    maximums, which are minimums of the negated values.
+    */
+
+    private static final int MIN_ROWS_PER_BAND = 8;
+    private static final int BANDS_PER_THREAD = 4;  // A few bands per thread lets work stealing even out the load
+
+    public interface Action {
+        void run(int yStart, int yEnd);  // Rows yStart (inclusive) to yEnd (exclusive)
+    }
+
+    public interface Minimum {
+        double compute(int yStart, int yEnd);  // The minimum over rows yStart (inclusive) to yEnd (exclusive)
+    }
+
+    public interface Maximum {
+        double compute(int yStart, int yEnd);  // The maximum over rows yStart (inclusive) to yEnd (exclusive)
+    }
+
+    public static void forEach(ForkJoinPool pool, int rows, Action action) {
+        int rowsPerBand = getRowsPerBand(pool, rows);
+        if (rows <= rowsPerBand) {
+            action.run(0, rows);  // Not worth handing to the pool
+            return;
+        }
+        pool.invoke(new ActionTask(action, 0, rows, rowsPerBand));
+    }
+
+    public static double min(ForkJoinPool pool, int rows, Minimum minimum) {
+        int rowsPerBand = getRowsPerBand(pool, rows);
+        if (rows <= rowsPerBand) {
+            return minimum.compute(0, rows);
+        }
+        return pool.invoke(new MinimumTask(minimum, 0, rows, rowsPerBand));
+    }
+
+    public static double max(ForkJoinPool pool, int rows, Maximum maximum) {
+        return -min(pool, rows, (yStart, yEnd) -> -maximum.compute(yStart, yEnd));
+    }
+
+    private static int getRowsPerBand(ForkJoinPool pool, int rows) {
+        return Math.max(MIN_ROWS_PER_BAND, rows / (pool.getParallelism() * BANDS_PER_THREAD));
+    }
+
+    private static class ActionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;  // ForkJoinTask is Serializable, though tasks never are
+
+        private final transient Action action;
+        private final int yStart;  // Inclusive
+        private final int yEnd;  // Exclusive
+        private final int rowsPerBand;
+
+        private ActionTask(Action action, int yStart, int yEnd, int rowsPerBand) {
+            this.action = action;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (yEnd - yStart <= rowsPerBand) {
+                action.run(yStart, yEnd);
+                return;
+            }
+
+            int yMid = (yStart + yEnd) >>> 1;
+            invokeAll(new ActionTask(action, yStart, yMid, rowsPerBand), new ActionTask(action, yMid, yEnd, rowsPerBand));
+        }
+    }
+
+    private static class MinimumTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Minimum minimum;
+        private final int yStart;  // Inclusive
+        private final int yEnd;  // Exclusive
+        private final int rowsPerBand;
+
+        private MinimumTask(Minimum minimum, int yStart, int yEnd, int rowsPerBand) {
+            this.minimum = minimum;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        @Override
+        protected Double compute() {
+            if (yEnd - yStart <= rowsPerBand) {
+                return minimum.compute(yStart, yEnd);
+            }
+
+            int yMid = (yStart + yEnd) >>> 1;
+            MinimumTask upper = new MinimumTask(minimum, yStart, yMid, rowsPerBand);
+            MinimumTask lower = new MinimumTask(minimum, yMid, yEnd, rowsPerBand);
+            upper.fork();
+            double lowerMin = lower.compute();
+            return Math.min(upper.join(), lowerMin);
+        }
+    }
+}
@@ -1,34 +1,87 @@
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 
 
-public class ScalarField extends Matrix<Double> implements ExportableToCSV {
+public class ScalarField implements ExportableToCSV {
+    // Stored as one flat array of primitive doubles, row by row, rather than as a Matrix<Double>, so that reading and
+    // writing elements never boxes, and the solvers can work on the array directly
+    // A field can instead be stored in an OffHeapGrid (see wrap(OffHeapGrid)), for grids too large for the heap; it
+    // then has no array, so only element access, upsampledTo, asDoubleStream, toRowMajorArray and CSV export work on
+    // it, and the other methods throw an IllegalStateException
+
+    protected final int width;
+    protected final int height;
+    private final double[] values;  // Element (x, y) is stored at values[y * width + x]; null when stored off the heap
+    private final OffHeapGrid grid;  // null unless stored off the heap
+
     public ScalarField(int width, int height) {
-        super(width, height);
+        // All elements are initialised to 0.0
+        this(width, height, new double[width * height], false);
+    }
 
-        // Initialise all elements to the double 0.0
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                setElement(x, y, 0d);
-            }
+    public ScalarField(ScalarField field) {
+        // A field stored off the heap is copied into a new grid stored in the same way (see OffHeapGrid.copy)
+        this(field.width, field.height, field.values == null ? null : field.values.clone(),
+                field.grid == null ? null : copyGrid(field.grid));
+    }
+
+    private static OffHeapGrid copyGrid(OffHeapGrid grid) {
+        try {
+            return grid.copy();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not copy an off-heap field", e);
         }
     }
 
     public ScalarField(Matrix<Double> matrix) {
-        super(matrix.width, matrix.height);
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
+        this(matrix.width, matrix.height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
                 setElement(x, y, matrix.getElement(x, y));
             }
         }
     }
 
+    public ScalarField(int width, int height, double[] rowMajorValues) {
+        // Element (x, y) is rowMajorValues[y * width + x]; the values are copied
+        this(width, height, rowMajorValues.clone(), true);
+    }
+
+    private ScalarField(int width, int height, double[] values, boolean checkLength) {
+        this(width, height, values, null);
+        if (checkLength && values.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " values, but got " + values.length);
+        }
+    }
+
+    private ScalarField(int width, int height, double[] values, OffHeapGrid grid) {
+        this.width = width;
+        this.height = height;
+        this.values = values;
+        this.grid = grid;
+    }
+
+    public static ScalarField wrap(int width, int height, double[] rowMajorValues) {
+        // Like the constructor, but uses rowMajorValues itself as the storage instead of a copy of it
+        return new ScalarField(width, height, rowMajorValues, true);
+    }
+
+    public static ScalarField wrap(OffHeapGrid grid) {
+        // Uses grid itself as the storage, so changes to either change both
+        if (grid.components != 1) {
+            throw new IllegalArgumentException("A scalar field needs a grid with 1 component, but got " + grid.components);
+        }
+        return new ScalarField(grid.width, grid.height, null, grid);
+    }
+
     public ScalarField(BufferedImage img, int cropLeft, int cropTop, int cropWidth, int cropHeight) {  // Image file
-        super(cropWidth, cropHeight);
+        this(cropWidth, cropHeight);
 
         img = ImageHandler.cropImage(img, cropLeft, cropTop, cropWidth, cropHeight);
 //        img = ImageHandler.toGreyscale(img);
@@ -50,51 +103,219 @@ public class ScalarField extends Matrix<Double> implements ExportableToCSV {
     }
 
     public ScalarField(String csvFileName) throws Exception {
-        this(getMatrixOfDoublesFromCSVFile(csvFileName));
+        this(CSVFieldReader.readScalarArrays(csvFileName));
+    }
+
+    private ScalarField(CSVFieldReader.ScalarArrays arrays) {
+        // Takes the array as read as its storage, without copying it
+        this(arrays.width(), arrays.height(), arrays.values(), true);
+    }
+
+    public double getElement(int x, int y) {
+        if (grid != null) {
+            return grid.get(0, x, y);
+        }
+        return values[y * width + x];
+    }
+
+    public void setElement(int x, int y, double val) {
+        if (grid != null) {
+            grid.set(0, x, y, val);
+            return;
+        }
+        values[y * width + x] = val;
+    }
+
+    public boolean isOffHeap() {
+        return grid != null;
+    }
+
+    public OffHeapGrid getOffHeapGrid() {
+        // The grid itself, or null for a field stored on the heap
+        return grid;
+    }
+
+    public boolean validIndices(int x, int y) {
+        return 0 <= x && x < width && 0 <= y && y < height;
+    }
+
+    public boolean hasSameShapeAs(ScalarField field) {
+        return width == field.width && height == field.height;
+    }
+
+    public <T> boolean hasSameShapeAs(Matrix<T> matrix) {
+        return width == matrix.width && height == matrix.height;
+    }
+
+    public double[] getRowMajorArray() {
+        // The backing array itself, so changes to it change this field
+        if (grid != null) {
+            throw new IllegalStateException("A field stored off the heap has no backing array");
+        }
+        return values;
+    }
+
+    public double[] toRowMajorArray() {
+        // A copy; element (x, y) is stored at index y * width + x
+        if (grid != null) {
+            return grid.toRowMajorArray(0);
+        }
+        return values.clone();
     }
 
-    private static Matrix<Double> getMatrixOfDoublesFromCSVFile(String csvFileName) throws Exception {
-        BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
+    public float[] toFloatArray() {
+        // A copy, rounded to float32, for Precision.SINGLE and Precision.MIXED
+        double[] values = getRowMajorArray();
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    public static ScalarField fromFloatArray(int width, int height, float[] rowMajorValues) {
+        double[] values = new double[rowMajorValues.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rowMajorValues[i];
+        }
+        return wrap(width, height, values);
+    }
+
+    public ScalarField downsampledTo(int newWidth, int newHeight) {
+        // Each new element is the average of the elements it covers, weighted by how much of each one it covers
+        // Element (x, y) covers [x, x + 1) x [y, y + 1), and the new elements cover the same rectangle as the old ones
+        if (newWidth < 1 || newHeight < 1 || newWidth > width || newHeight > height) {
+            throw new IllegalArgumentException("Cannot downsample a " + width + "x" + height + " scalar field to "
+                    + newWidth + "x" + newHeight);
+        }
+
+        // Rows first, then columns
+        double[] values = getRowMajorArray();
+        double[] rowsDownsampled = new double[newWidth * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < newWidth; x++) {
+                rowsDownsampled[y * newWidth + x] = getAverageOver(values, y * width, 1, width,
+                        (double) x * width / newWidth, (double) (x + 1) * width / newWidth);
+            }
+        }
 
-        // Create first tempMatrix (not of class Matrix) that is resizable; read elements from CSV file
-        ArrayList<double[]> tempMatrix = new ArrayList<>();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            double[] newRow = Arrays.stream(line.split(",")).mapToDouble(Double::valueOf).toArray();
-            if (!tempMatrix.isEmpty() && tempMatrix.getFirst().length != newRow.length) {
-                throw new Exception("Scalar field cannot be read from CSV as the row lengths are inconsistent");
+        double[] result = new double[newWidth * newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            for (int x = 0; x < newWidth; x++) {
+                result[y * newWidth + x] = getAverageOver(rowsDownsampled, x, newWidth, height,
+                        (double) y * height / newHeight, (double) (y + 1) * height / newHeight);
             }
-            tempMatrix.add(newRow);
+        }
+        return wrap(newWidth, newHeight, result);
+    }
+
+    private static double getAverageOver(double[] values, int start, int stride, int count, double from, double to) {
+        // The average over [from, to) of a line of count elements, where element i is values[start + i * stride] and
+        // covers [i, i + 1)
+        int first = (int) from;
+        int last = Math.min(count - 1, (int) Math.ceil(to) - 1);
+
+        double sum = 0;
+        for (int i = first; i <= last; i++) {
+            double overlap = Math.min(i + 1, to) - Math.max(i, from);
+            sum += overlap * values[start + i * stride];
+        }
+        return sum / (to - from);
+    }
+
+    public ScalarField upsampledTo(int newWidth, int newHeight) {
+        // Bilinear interpolation between element centres, with the elements along the edges extended outwards
+        // The new elements cover the same rectangle as the old ones, as in downsampledTo
+        if (newWidth < width || newHeight < height) {
+            throw new IllegalArgumentException("Cannot upsample a " + width + "x" + height + " scalar field to "
+                    + newWidth + "x" + newHeight);
         }
 
-        // Convert ArrayList to actual Matrix object
-        Matrix<Double> matrix = new Matrix<>(tempMatrix.getFirst().length, tempMatrix.size());
-        for (int y = 0; y < matrix.height; y++) {
-            for (int x = 0; x < matrix.width; x++) {
-                matrix.setElement(x, y, tempMatrix.get(y)[x]);
+        double[] result = new double[newWidth * newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            double sourceY = Math.clamp((y + 0.5) * height / newHeight - 0.5, 0, height - 1);
+            int y0 = Math.min((int) sourceY, Math.max(0, height - 2));
+            int y1 = Math.min(y0 + 1, height - 1);
+            double yFraction = sourceY - y0;
+
+            for (int x = 0; x < newWidth; x++) {
+                double sourceX = Math.clamp((x + 0.5) * width / newWidth - 0.5, 0, width - 1);
+                int x0 = Math.min((int) sourceX, Math.max(0, width - 2));
+                int x1 = Math.min(x0 + 1, width - 1);
+                double xFraction = sourceX - x0;
+
+                double top = getElement(x0, y0) * (1 - xFraction) + getElement(x1, y0) * xFraction;
+                double bottom = getElement(x0, y1) * (1 - xFraction) + getElement(x1, y1) * xFraction;
+                result[y * newWidth + x] = top * (1 - yFraction) + bottom * yFraction;
             }
         }
-        return matrix;
+        return wrap(newWidth, newHeight, result);
     }
 
     public DoubleStream asDoubleStream() {
-        return asStream().mapToDouble(Double::doubleValue);
+        if (grid != null) {
+            // A row at a time, in order
+            return IntStream.range(0, height).mapToObj(y -> {
+                double[] row = new double[width];
+                grid.readRow(0, y, row);
+                return Arrays.stream(row);
+            }).flatMapToDouble(row -> row);
+        }
+        return Arrays.stream(values);
     }
 
     public double getSum() {
         return asDoubleStream().sum();
     }
 
+    public ScalarField getMapped(DoubleUnaryOperator func) {
+        double[] values = getRowMajorArray();
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = func.applyAsDouble(values[i]);
+        }
+        return wrap(width, height, result);
+    }
+
+    public ScalarField getZippedWith(ScalarField field, DoubleBinaryOperator func) throws Exception {
+        if (!hasSameShapeAs(field)) {
+            throw new Exception("Cannot perform zip operation on scalar fields of different sizes");
+        }
+
+        double[] values = getRowMajorArray();
+        double[] fieldValues = field.getRowMajorArray();
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = func.applyAsDouble(values[i], fieldValues[i]);
+        }
+        return wrap(width, height, result);
+    }
+
     public ScalarField plus(ScalarField s) throws Exception {
-        return new ScalarField(getZippedWith(s, Double::sum));
+        if (!hasSameShapeAs(s)) {
+            throw new Exception("Cannot add scalar fields of different sizes");
+        }
+        double[] values = getRowMajorArray();
+        double[] result = new double[values.length];
+        FieldKernels.get().add(values, s.getRowMajorArray(), result);
+        return wrap(width, height, result);
     }
 
     public ScalarField minus(ScalarField s) throws Exception {
-        return new ScalarField(getZippedWith(s, (a, b) -> a - b));
+        if (!hasSameShapeAs(s)) {
+            throw new Exception("Cannot subtract scalar fields of different sizes");
+        }
+        double[] values = getRowMajorArray();
+        double[] result = new double[values.length];
+        FieldKernels.get().subtract(values, s.getRowMajorArray(), result);
+        return wrap(width, height, result);
     }
 
     public ScalarField times(double factor) {
-        return new ScalarField(getMapped(x -> x * factor));
+        double[] values = getRowMajorArray();
+        double[] result = new double[values.length];
+        FieldKernels.get().scale(values, factor, result);
+        return wrap(width, height, result);
     }
 
     public ScalarField divideBy(double divisor) {
@@ -102,20 +323,35 @@ public class ScalarField extends Matrix<Double> implements ExportableToCSV {
     }
 
     @Override
-    public String toCSVString() {
-        // Displays doubles row by row
-        StringBuilder result = new StringBuilder();
-
+    public String toString() {
+        StringBuilder result = new StringBuilder("[\n");
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
                 result.append(getElement(x, y));
-                if (x != width - 1) {
-                    result.append(", ");
-                }
+                result.append('\t');
             }
             result.append('\n');
         }
-
+        result.append("]");
         return result.toString();
     }
+
+    @Override
+    public int getCSVRowCount() {
+        return height;
+    }
+
+    @Override
+    public void appendCSVRows(int yStart, int yEnd, CSVBuffer buffer) {
+        // Displays doubles row by row
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer.append(getElement(x, y));
+                if (x != width - 1) {
+                    buffer.append(", ");
+                }
+            }
+            buffer.append('\n');
+        }
+    }
 }
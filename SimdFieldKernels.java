@@ -0,0 +1,187 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class SimdFieldKernels implements FieldKernels {
+    /*
+    The same kernels as PlainFieldKernels, processing as many doubles at once as the CPU's widest vectors hold
+    (8 with AVX-512). Every lane does exactly the same operations in the same order as the plain loop, with no fused
+    multiply-adds, so the results are identical. Whatever is left at the end of each row is done one element at a time.
+
+    Requires --add-modules jdk.incubator.vector, both to compile and to run; FieldKernels.get() only loads this class
+    when the module is present.
+    */
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final PlainFieldKernels plain = new PlainFieldKernels();
+
+    @Override
+    public void add(double[] a, double[] b, double[] out) {
+        int i = 0;
+        for (int end = SPECIES.loopBound(out.length); i < end; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < out.length; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] a, double[] b, double[] out) {
+        int i = 0;
+        for (int end = SPECIES.loopBound(out.length); i < end; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < out.length; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    public void scale(double[] a, double factor, double[] out) {
+        int i = 0;
+        for (int end = SPECIES.loopBound(out.length); i < end; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(factor).intoArray(out, i);
+        }
+        for (; i < out.length; i++) {
+            out[i] = a[i] * factor;
+        }
+    }
+
+    @Override
+    public void gradient(double[] field, int width, int height, double[] outX, double[] outY) {
+        // The boundary rows and columns use one-sided differences, so they are left to the plain kernel
+        if (width < 3 || height < 3) {
+            plain.gradient(field, width, height, outX, outY);
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+
+            outX[row] = (-3 * field[row] + 4 * field[row + 1] - field[row + 2]) / 2.0;
+            int last = row + width - 1;
+            outX[last] = (3 * field[last] - 4 * field[last - 1] + field[last - 2]) / 2.0;
+
+            int x = 1;
+            for (int end = 1 + SPECIES.loopBound(width - 2); x < end; x += SPECIES.length()) {
+                int i = row + x;
+                DoubleVector right = DoubleVector.fromArray(SPECIES, field, i + 1);
+                DoubleVector left = DoubleVector.fromArray(SPECIES, field, i - 1);
+                right.sub(left).div(2.0).intoArray(outX, i);
+            }
+            for (; x < width - 1; x++) {
+                int i = row + x;
+                outX[i] = (field[i + 1] - field[i - 1]) / 2.0;
+            }
+
+            if (y == 0) {  // On top boundary
+                for (int i = row; i < row + width; i++) {
+                    outY[i] = (-3 * field[i] + 4 * field[i + width] - field[i + 2 * width]) / 2.0;
+                }
+            } else if (y == height - 1) {  // On bottom boundary
+                for (int i = row; i < row + width; i++) {
+                    outY[i] = (3 * field[i] - 4 * field[i - width] + field[i - 2 * width]) / 2.0;
+                }
+            } else {
+                int i = row;
+                for (int end = row + SPECIES.loopBound(width); i < end; i += SPECIES.length()) {
+                    DoubleVector below = DoubleVector.fromArray(SPECIES, field, i + width);
+                    DoubleVector above = DoubleVector.fromArray(SPECIES, field, i - width);
+                    below.sub(above).div(2.0).intoArray(outY, i);
+                }
+                for (; i < row + width; i++) {
+                    outY[i] = (field[i + width] - field[i - width]) / 2.0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void divergence(double[] xs, double[] ys, int width, int height, double[] out) {
+        // Each row gets the x differences of xs first, and then the y differences of ys added to them
+        if (width < 3 || height < 3) {
+            plain.divergence(xs, ys, width, height, out);
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+
+            out[row] = (-3 * xs[row] + 4 * xs[row + 1] - xs[row + 2]) / 2.0;
+            int last = row + width - 1;
+            out[last] = (3 * xs[last] - 4 * xs[last - 1] + xs[last - 2]) / 2.0;
+
+            int x = 1;
+            for (int end = 1 + SPECIES.loopBound(width - 2); x < end; x += SPECIES.length()) {
+                int i = row + x;
+                DoubleVector right = DoubleVector.fromArray(SPECIES, xs, i + 1);
+                DoubleVector left = DoubleVector.fromArray(SPECIES, xs, i - 1);
+                right.sub(left).div(2.0).intoArray(out, i);
+            }
+            for (; x < width - 1; x++) {
+                int i = row + x;
+                out[i] = (xs[i + 1] - xs[i - 1]) / 2.0;
+            }
+
+            if (y == 0) {  // On top boundary
+                for (int i = row; i < row + width; i++) {
+                    out[i] += (-3 * ys[i] + 4 * ys[i + width] - ys[i + 2 * width]) / 2.0;
+                }
+            } else if (y == height - 1) {  // On bottom boundary
+                for (int i = row; i < row + width; i++) {
+                    out[i] += (3 * ys[i] - 4 * ys[i - width] + ys[i - 2 * width]) / 2.0;
+                }
+            } else {
+                int i = row;
+                for (int end = row + SPECIES.loopBound(width); i < end; i += SPECIES.length()) {
+                    DoubleVector below = DoubleVector.fromArray(SPECIES, ys, i + width);
+                    DoubleVector above = DoubleVector.fromArray(SPECIES, ys, i - width);
+                    DoubleVector.fromArray(SPECIES, out, i).add(below.sub(above).div(2.0)).intoArray(out, i);
+                }
+                for (; i < row + width; i++) {
+                    out[i] += (ys[i + width] - ys[i - width]) / 2.0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void cellAreas(double[] xs, double[] ys, int width, int height, int yStart, int yEnd, double[] out) {
+        int cellsPerRow = width - 1;
+
+        for (int y = yStart; y < yEnd; y++) {
+            int top = y * width;
+            int bottom = top + width;
+            int outRow = y * cellsPerRow;
+
+            int x = 0;
+            for (int end = SPECIES.loopBound(cellsPerRow); x < end; x += SPECIES.length()) {
+                DoubleVector x0 = DoubleVector.fromArray(SPECIES, xs, top + x);  // Top left
+                DoubleVector y0 = DoubleVector.fromArray(SPECIES, ys, top + x);
+                DoubleVector x1 = DoubleVector.fromArray(SPECIES, xs, top + x + 1);  // Top right
+                DoubleVector y1 = DoubleVector.fromArray(SPECIES, ys, top + x + 1);
+                DoubleVector x2 = DoubleVector.fromArray(SPECIES, xs, bottom + x + 1);  // Bottom right
+                DoubleVector y2 = DoubleVector.fromArray(SPECIES, ys, bottom + x + 1);
+                DoubleVector x3 = DoubleVector.fromArray(SPECIES, xs, bottom + x);  // Bottom left
+                DoubleVector y3 = DoubleVector.fromArray(SPECIES, ys, bottom + x);
+
+                // Same order as AreaCalculator.getQuadrilateralArea, starting from zero
+                DoubleVector area = DoubleVector.zero(SPECIES)
+                        .add(x0.mul(y1).sub(y0.mul(x1)))
+                        .add(x1.mul(y2).sub(y1.mul(x2)))
+                        .add(x2.mul(y3).sub(y2.mul(x3)))
+                        .add(x3.mul(y0).sub(y3.mul(x0)));
+
+                area.div(2.0).lanewise(VectorOperators.ABS).intoArray(out, outRow + x);
+            }
+            for (; x < cellsPerRow; x++) {
+                int i0 = top + x;
+                int i3 = bottom + x;
+                out[outRow + x] = AreaCalculator.getQuadrilateralArea(
+                        xs[i0], ys[i0], xs[i0 + 1], ys[i0 + 1], xs[i3 + 1], ys[i3 + 1], xs[i3], ys[i3]);
+            }
+        }
+    }
+}
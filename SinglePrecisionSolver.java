@@ -0,0 +1,236 @@
+import java.util.concurrent.ForkJoinPool;
+
+public class SinglePrecisionSolver {
+    /*
+    GAUSS_SEIDEL, RED_BLACK_SOR and ADAPTIVE_SOR on float32 arrays, for Precision.SINGLE and Precision.MIXED, sweeping
+    as their float64 versions do (the red-black half-sweeps in parallel bands of rows, as in RedBlackSORSolver, and
+    with the same sequence of overcorrection factors as AdaptiveSORSolver for ADAPTIVE_SOR).
+    Each sweep reads and writes half as many bytes as with doubles, which is what limits sweeps on large grids.
+
+    float32 can only resolve changes down to about 1e-7 of the values in phi, so a SINGLE solve also stops once no
+    element changes by more than a few float32 units in the last place, or once the largest change has stopped
+    decreasing (rounding noise), even if stabilisationThreshold is smaller.
+
+    A MIXED solve refines the solution iteratively: it computes the residual f - laplacian(phi) in float64, solves
+    for the correction in float32, and adds the correction to phi in float64. Each round gains roughly the accuracy of
+    float32, so a few rounds reach the accuracy of a full float64 solve. Each round solves for its correction from
+    zero, so it starts its own noise level, and ADAPTIVE_SOR its own sequence of factors, afresh.
+
+    REFERENCES:
+    https://en.wikipedia.org/wiki/Iterative_refinement
+    */
+
+    private static final int NOISE_ULPS = 4;  // Changes this many float32 ULPs of the largest value count as noise
+    private static final int NOISE_CHECK_INTERVAL = 64;  // Sweeps of a round between recomputing the largest value
+    private static final int MAX_SWEEPS_WITHOUT_PROGRESS = 100;  // Sweeps without a new smallest change before stopping
+    private static final int MAX_REFINEMENTS = 10;
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, PoissonMethod method,
+                                    double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions,
+                                    double stabilisationThreshold, int maxSweeps, PoissonConvergenceMonitor monitor) {
+        // Precision.SINGLE; the result is stored as doubles, but only holds float32 values
+        // initialPhi and f are left unchanged
+
+        int width = f.width;
+        int height = f.height;
+        float[] phi = initialPhi.toFloatArray();
+        float[] fValues;
+        if (method == PoissonMethod.ADAPTIVE_SOR && boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            // As in AdaptiveSORSolver
+            double[] compatibleF = f.toRowMajorArray();
+            PoissonStencil.makeCompatible(compatibleF, width, height);
+            fValues = ScalarField.wrap(width, height, compatibleF).toFloatArray();
+        } else {
+            fValues = f.toFloatArray();
+        }
+
+        sweepUntilStable(phi, fValues, width, height, method, (float) (overcorrectionFactor < 0 ? 1 : overcorrectionFactor),
+                boundaryConditions, stabilisationThreshold, maxSweeps, 0, monitor);
+
+        return ScalarField.fromFloatArray(width, height, phi);
+    }
+
+    public static ScalarField solveMixed(ScalarField initialPhi, ScalarField f, PoissonMethod method,
+                                         double overcorrectionFactor, PoissonBoundaryConditions boundaryConditions,
+                                         double stabilisationThreshold, int maxSweeps, PoissonConvergenceMonitor monitor) {
+        // Precision.MIXED; stops once a correction changes no element by more than stabilisationThreshold
+        // initialPhi and f are left unchanged
+        // maxSweeps is shared between all the rounds
+
+        int width = f.width;
+        int height = f.height;
+        int size = width * height;
+
+        double[] phi = initialPhi.toRowMajorArray();
+        double[] fValues = f.getRowMajorArray();  // Only read, unless it has to be copied to be made compatible
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            fValues = f.toRowMajorArray();
+            PoissonStencil.makeCompatible(fValues, width, height);
+        }
+
+        double[] residual = new double[size];
+        float[] correction = new float[size];
+        float[] residualValues = new float[size];
+        float omega = (float) (overcorrectionFactor < 0 ? 1 : overcorrectionFactor);
+
+        int sweeps = 0;
+        for (int round = 0; round < MAX_REFINEMENTS && sweeps < maxSweeps && !monitor.isCancelled(); round++) {
+            PoissonStencil.computeResidual(phi, fValues, residual, width, height, 1, 1, boundaryConditions);
+            if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+                // Rounding can leave the residual slightly incompatible, which would make the correction drift
+                PoissonStencil.makeCompatible(residual, width, height);
+            }
+
+            for (int i = 0; i < size; i++) {
+                residualValues[i] = (float) residual[i];
+                correction[i] = 0;
+            }
+
+            sweeps = sweepUntilStable(correction, residualValues, width, height, method, omega, boundaryConditions,
+                    stabilisationThreshold, maxSweeps, sweeps, monitor);
+
+            double maxCorrection = 0;
+            for (int i = 0; i < size; i++) {
+                phi[i] += correction[i];
+                maxCorrection = Math.max(maxCorrection, Math.abs(correction[i]));
+            }
+
+            if (maxCorrection <= stabilisationThreshold) {
+                break;
+            }
+        }
+
+        return ScalarField.wrap(width, height, phi);
+    }
+
+    private static int sweepUntilStable(float[] phi, float[] f, int width, int height, PoissonMethod method,
+                                        float omega, PoissonBoundaryConditions boundaryConditions,
+                                        double stabilisationThreshold, int maxSweeps, int sweeps,
+                                        PoissonConvergenceMonitor monitor) {
+        // One round: sweeps phi from where it is, and returns the total number of sweeps done, counting from sweeps
+        // omega is ignored for ADAPTIVE_SOR, which starts its own sequence of factors
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        double jacobiRadius = AdaptiveSORSolver.getJacobiSpectralRadius(width, height, boundaryConditions);
+        double adaptiveOmega = 1;
+        boolean firstHalfSweep = true;
+
+        float noiseLevel = 0;
+        float smallestMaxDiff = Float.POSITIVE_INFINITY;
+        int sweepsWithoutProgress = 0;
+        int roundSweeps = 0;
+
+        while (sweeps < maxSweeps) {
+            float maxDiff;
+            if (method == PoissonMethod.GAUSS_SEIDEL) {
+                maxDiff = sweep(phi, f, width, height, omega, boundaryConditions);
+            } else if (method == PoissonMethod.RED_BLACK_SOR) {
+                maxDiff = Math.max(halfSweep(phi, f, width, height, 0, omega, boundaryConditions, pool),
+                        halfSweep(phi, f, width, height, 1, omega, boundaryConditions, pool));
+            } else {  // ADAPTIVE_SOR
+                maxDiff = 0;
+                for (int colour = 0; colour < 2; colour++) {
+                    maxDiff = Math.max(maxDiff, halfSweep(phi, f, width, height, colour, (float) adaptiveOmega,
+                            boundaryConditions, pool));
+                    adaptiveOmega = AdaptiveSORSolver.getNextOmega(adaptiveOmega, jacobiRadius * jacobiRadius, firstHalfSweep);
+                    firstHalfSweep = false;
+                }
+            }
+            sweeps++;
+            roundSweeps++;
+
+            // After the first sweep of the round, since a correction starts from zero
+            if (roundSweeps % NOISE_CHECK_INTERVAL == 1) {
+                noiseLevel = NOISE_ULPS * Math.ulp(getMaxAbs(phi));
+            }
+
+            if (maxDiff < smallestMaxDiff) {
+                smallestMaxDiff = maxDiff;
+                sweepsWithoutProgress = 0;
+            } else {
+                sweepsWithoutProgress++;
+            }
+
+            if (!monitor.record(sweeps, maxDiff) || maxDiff <= stabilisationThreshold || maxDiff <= noiseLevel
+                    || sweepsWithoutProgress >= MAX_SWEEPS_WITHOUT_PROGRESS) {
+                break;
+            }
+        }
+
+        return sweeps;
+    }
+
+    private static float getMaxAbs(float[] values) {
+        float maxAbs = 0;
+        for (float value : values) {
+            maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+        return maxAbs;
+    }
+
+    public static float sweep(float[] phi, float[] f, int width, int height, float overcorrectionFactor,
+                              PoissonBoundaryConditions boundaryConditions) {
+        // The float32 version of PoissonStencil.sweep, with unit grid spacing
+        // Returns the maximum absolute change of any element
+
+        int margin = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? 0 : 1;
+
+        float maxDiff = 0;
+
+        for (int y = margin; y < height - margin; y++) {
+            // Mirrored at the top and bottom edges
+            int above = PoissonStencil.reflect(y - 1, height) * width;
+            int below = PoissonStencil.reflect(y + 1, height) * width;
+            int row = y * width;
+
+            for (int x = margin; x < width - margin; x++) {
+                int left = PoissonStencil.reflect(x - 1, width);
+                int right = PoissonStencil.reflect(x + 1, width);
+
+                int i = row + x;
+                float oldValue = phi[i];
+                float result = (phi[row + left] + phi[row + right] + (phi[above + x] + phi[below + x]) - f[i]) / 4f;
+                float newValue = oldValue + (result - oldValue) * overcorrectionFactor;
+
+                maxDiff = Math.max(maxDiff, Math.abs(newValue - oldValue));
+                phi[i] = newValue;
+            }
+        }
+
+        return maxDiff;
+    }
+
+    public static float halfSweep(float[] phi, float[] f, int width, int height, int colour, float omega,
+                                  PoissonBoundaryConditions boundaryConditions, ForkJoinPool pool) {
+        // The float32 version of RedBlackSORSolver.halfSweep: updates every element with (x + y) % 2 == colour, in
+        // bands of rows in parallel
+        // Returns the maximum absolute change of any element
+        int margin = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? 0 : 1;
+
+        return (float) RowBands.max(pool, height, (yStart, yEnd) -> {
+            float maxDiff = 0;
+
+            for (int y = Math.max(yStart, margin); y < Math.min(yEnd, height - margin); y++) {
+                // Mirrored at the top and bottom edges
+                int above = PoissonStencil.reflect(y - 1, height) * width;
+                int below = PoissonStencil.reflect(y + 1, height) * width;
+                int row = y * width;
+
+                // First x in [margin, width - margin) with (x + y) % 2 == colour
+                for (int x = margin + ((margin + y + colour) & 1); x < width - margin; x += 2) {
+                    int left = PoissonStencil.reflect(x - 1, width);
+                    int right = PoissonStencil.reflect(x + 1, width);
+
+                    int i = row + x;
+                    float oldValue = phi[i];
+                    float result = (phi[row + left] + phi[row + right] + (phi[above + x] + phi[below + x]) - f[i]) / 4f;
+                    float newValue = oldValue + (result - oldValue) * omega;
+
+                    maxDiff = Math.max(maxDiff, Math.abs(newValue - oldValue));
+                    phi[i] = newValue;
+                }
+            }
+
+            return maxDiff;
+        });
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.util.Random;
+
+public class SolverCheck {
+    /*
+    Cross-checks the direct and fast Poisson methods against each other and against the five-point stencil that every
+    method solves (see PoissonStencil), on square and non-square grids, with both boundary conditions:
+    - SPECTRAL_DCT must satisfy the stencil to round-off, including on grids whose transforms are not a power of 2 long
+      (Bluestein plans), and when several threads ask for the same plan at once.
+    - MULTIGRID must do the same in at most MAX_MULTIGRID_CYCLES V-cycles.
+    - PCG, with each preconditioner, asked for a relative residual norm of 1e-10, must get its largest residual within
+      PCG_TOLERANCE.
+    - All three, and GAUSS_SEIDEL on the smaller grids, must give the same phi (up to a constant, for NEUMANN).
+    - GAUSS_SEIDEL through a PoissonSolverSession on f stored off the heap (see OffHeapGrid) must give the same phi as
+      on the heap, swept in place.
+    - RED_BLACK_SOR and ADAPTIVE_SOR, and GAUSS_SEIDEL on the smaller grids, must give the same phi with MIXED
+      precision, and within SINGLE_AGREEMENT_TOLERANCE of it with SINGLE precision.
+    Residuals are relative to the largest |f|, after removing the part of f that NEUMANN cannot satisfy. Gauss-Seidel is
+    given that compatible f, since, unlike the other methods, it does not remove that part itself.
+    Exits with status 1 if any check fails, so it can be run after changing a solver.
+    */
+
+    // 41x41 comes first, while the FFT plan cache is still empty: its transforms are 80 long, and the Bluestein plan
+    // for 80 needs a plan for 256, which falls in the same bin of a new ConcurrentHashMap, so creating one plan while
+    // computeIfAbsent creates the other fails there
+    private static final int[][] GRID_SIZES = {{41, 41}, {33, 33}, {64, 64}, {100, 37}, {37, 100}, {257, 129}, {6, 6}};
+    private static final int MAX_GAUSS_SEIDEL_ELEMENTS = 41 * 41;  // Gauss-Seidel is too slow to converge beyond this
+    private static final int MAX_MULTIGRID_CYCLES = 20;
+    private static final int MAX_PCG_ITERATIONS = 2000;  // With JACOBI, the 257x129 grid takes about 950
+    private static final double STENCIL_TOLERANCE = 1e-12;  // Of the largest residual, relative to the largest |f|
+    private static final double PCG_TOLERANCE = 1e-9;
+    private static final double AGREEMENT_TOLERANCE = 1e-8;  // Of the largest difference, relative to the largest |phi|
+    // float32 resolves about 1e-7 of phi, but Gauss-Seidel stops on rounding noise while its error is still larger
+    private static final double SINGLE_AGREEMENT_TOLERANCE = 1e-3;
+    private static final int MAX_SWEEPS = 100000;
+    private static final PoissonMethod[] REDUCED_PRECISION_METHODS = {PoissonMethod.GAUSS_SEIDEL,
+            PoissonMethod.RED_BLACK_SOR, PoissonMethod.ADAPTIVE_SOR};
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        for (int[] size : GRID_SIZES) {
+            for (PoissonBoundaryConditions boundaryConditions : PoissonBoundaryConditions.values()) {
+                checkGrid(size[0], size[1], boundaryConditions);
+            }
+        }
+        checkConcurrentSpectralSolves();
+
+        System.out.println(failures == 0 ? "All solver checks passed" : failures + " solver checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkGrid(int width, int height, PoissonBoundaryConditions boundaryConditions) throws IOException {
+        String grid = width + "x" + height + " " + boundaryConditions;
+        ScalarField f = getRandomF(width, height, new Random(width * 31L + height));
+
+        ScalarField spectral = PoissonSolver.solvePoisson(f, boundaryConditions, PoissonMethod.SPECTRAL_DCT, 0, 1);
+        check(grid + " SPECTRAL_DCT residual", getRelativeResidual(spectral, f, boundaryConditions), STENCIL_TOLERANCE);
+
+        PoissonSolveResult multigrid = PoissonSolver.solve(f, new ScalarField(width, height), -1, boundaryConditions,
+                PoissonMethod.MULTIGRID, 0, MAX_MULTIGRID_CYCLES);
+        check(grid + " MULTIGRID residual after " + multigrid.iterations() + " cycles",
+                getRelativeResidual(multigrid.phi(), f, boundaryConditions), STENCIL_TOLERANCE);
+        check(grid + " MULTIGRID agrees with SPECTRAL_DCT",
+                getRelativeDifference(multigrid.phi(), spectral, boundaryConditions), AGREEMENT_TOLERANCE);
+
+        for (PoissonPreconditionerType preconditionerType : PoissonPreconditionerType.values()) {
+            ScalarField pcg = PoissonSolver.solve(f, new ScalarField(width, height), -1, boundaryConditions,
+                    PoissonMethod.PCG, 1e-10, MAX_PCG_ITERATIONS, Precision.DOUBLE, preconditionerType,
+                    new PoissonConvergenceMonitor()).phi();
+            check(grid + " PCG (" + preconditionerType + ") residual", getRelativeResidual(pcg, f, boundaryConditions),
+                    PCG_TOLERANCE);
+            check(grid + " PCG (" + preconditionerType + ") agrees with SPECTRAL_DCT",
+                    getRelativeDifference(pcg, spectral, boundaryConditions), AGREEMENT_TOLERANCE);
+        }
+
+        ScalarField compatibleF = getCompatibleF(f, boundaryConditions);
+        if (width * height <= MAX_GAUSS_SEIDEL_ELEMENTS) {
+            ScalarField gaussSeidel = PoissonSolver.solvePoisson(compatibleF, boundaryConditions,
+                    PoissonMethod.GAUSS_SEIDEL, 1e-16, MAX_SWEEPS);
+            check(grid + " GAUSS_SEIDEL agrees with SPECTRAL_DCT",
+                    getRelativeDifference(gaussSeidel, spectral, boundaryConditions), AGREEMENT_TOLERANCE);
+
+            try (OffHeapGrid fGrid = OffHeapGrid.copyOf(compatibleF)) {
+                PoissonSolverSession session = new PoissonSolverSession(-1, boundaryConditions, PoissonMethod.GAUSS_SEIDEL,
+                        1e-16, MAX_SWEEPS);
+                ScalarField offHeap = session.solvePoisson(ScalarField.wrap(fGrid));
+                check(grid + " GAUSS_SEIDEL off the heap is swept in place", offHeap.isOffHeap() ? 0 : 1, 0);
+                check(grid + " GAUSS_SEIDEL off the heap agrees with GAUSS_SEIDEL",
+                        getRelativeDifference(ScalarField.wrap(width, height, offHeap.toRowMajorArray()), gaussSeidel,
+                                boundaryConditions), AGREEMENT_TOLERANCE);
+            }
+        }
+
+        // The overcorrection factor that is best for the longer side (for RED_BLACK_SOR)
+        double omega = 2 / (1 + Math.sin(Math.PI / Math.max(width, height)));
+        for (PoissonMethod method : REDUCED_PRECISION_METHODS) {
+            if (method == PoissonMethod.GAUSS_SEIDEL && width * height > MAX_GAUSS_SEIDEL_ELEMENTS) {
+                continue;
+            }
+            for (Precision precision : new Precision[] {Precision.MIXED, Precision.SINGLE}) {
+                ScalarField phi = PoissonSolver.solve(compatibleF, new ScalarField(width, height),
+                        method == PoissonMethod.RED_BLACK_SOR ? omega : -1, boundaryConditions, method, 1e-16,
+                        MAX_SWEEPS, precision, new PoissonConvergenceMonitor()).phi();
+                check(grid + " " + method + " (" + precision + ") agrees with SPECTRAL_DCT",
+                        getRelativeDifference(phi, spectral, boundaryConditions),
+                        precision == Precision.MIXED ? AGREEMENT_TOLERANCE : SINGLE_AGREEMENT_TOLERANCE);
+            }
+        }
+    }
+
+    private static void checkConcurrentSpectralSolves() throws InterruptedException {
+        // Plans for lengths that no solve above has used, so that the threads race to create them
+        int width = 151;
+        int height = 77;
+        ScalarField f = getRandomF(width, height, new Random(5));
+        ScalarField[] results = new ScalarField[4];
+        Throwable[] errors = new Throwable[results.length];
+
+        Thread[] threads = new Thread[results.length];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    results[thread] = PoissonSolver.solvePoisson(f, PoissonBoundaryConditions.NEUMANN,
+                            PoissonMethod.SPECTRAL_DCT, 0, 1);
+                } catch (Throwable e) {
+                    errors[thread] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int t = 0; t < threads.length; t++) {
+            if (errors[t] != null) {
+                failures++;
+                System.out.println("FAILED: concurrent SPECTRAL_DCT solve threw " + errors[t]);
+            } else {
+                check("Concurrent SPECTRAL_DCT solve " + t + " residual",
+                        getRelativeResidual(results[t], f, PoissonBoundaryConditions.NEUMANN), STENCIL_TOLERANCE);
+            }
+        }
+    }
+
+    private static ScalarField getRandomF(int width, int height, Random random) {
+        // Not compatible with NEUMANN as it is (its mean is not zero), as with Lens.getLoss
+        double[] values = new double[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (random.nextDouble() - 0.5) * 1e-4 + 1e-6;
+        }
+        return ScalarField.wrap(width, height, values);
+    }
+
+    private static ScalarField getCompatibleF(ScalarField f, PoissonBoundaryConditions boundaryConditions) {
+        // f without the part that NEUMANN cannot satisfy
+        double[] fValues = f.toRowMajorArray();
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            PoissonStencil.makeCompatible(fValues, f.width, f.height);
+        }
+        return ScalarField.wrap(f.width, f.height, fValues);
+    }
+
+    private static double getRelativeResidual(ScalarField phi, ScalarField f, PoissonBoundaryConditions boundaryConditions) {
+        // The largest residual of the five-point stencil, relative to the largest |f|, for the compatible f
+        double[] fValues = getCompatibleF(f, boundaryConditions).getRowMajorArray();
+        double[] residual = new double[fValues.length];
+        PoissonStencil.computeResidual(phi.getRowMajorArray(), fValues, residual, f.width, f.height, 1, 1,
+                boundaryConditions);
+        return getMaxAbs(residual) / getMaxAbs(fValues);
+    }
+
+    private static double getRelativeDifference(ScalarField a, ScalarField b, PoissonBoundaryConditions boundaryConditions) {
+        // The largest |a - b|, relative to the largest |b|; for NEUMANN, the mean difference is removed first, since
+        // phi is only defined up to a constant
+        double[] difference = new double[a.width * a.height];
+        double mean = 0;
+        for (int i = 0; i < difference.length; i++) {
+            difference[i] = a.getRowMajorArray()[i] - b.getRowMajorArray()[i];
+            mean += difference[i] / difference.length;
+        }
+        if (boundaryConditions == PoissonBoundaryConditions.NEUMANN) {
+            for (int i = 0; i < difference.length; i++) {
+                difference[i] -= mean;
+            }
+        }
+        return getMaxAbs(difference) / getMaxAbs(b.getRowMajorArray());
+    }
+
+    private static double getMaxAbs(double[] values) {
+        double maxAbs = 0;
+        for (double value : values) {
+            maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+        return maxAbs;
+    }
+
+    private static void check(String description, double value, double tolerance) {
+        boolean passed = value <= tolerance;
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("%s: %s %.2e (tolerance %.0e)%n", passed ? "ok" : "FAILED", description, value, tolerance);
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SpectralPoissonSolver {
+    /*
+    Direct solver for the five-point Poisson problem on a uniform grid, in O(N log N) time.
+
+    With NEUMANN boundary conditions, PoissonStencil mirrors the field about its edge elements (phi(-1) = phi(1)). The
+    functions cos(pi k x / (width - 1)) satisfy exactly this mirroring, and the stencil maps each of them to a multiple
+    of itself. Transforming f into this basis (a type-I discrete cosine transform along each axis) therefore
+    diagonalises the problem, so each coefficient is simply divided by its eigenvalue and transformed back.
+    With DIRICHLET boundary conditions, the same holds for sin(pi k x / (width - 1)) on the interior elements, using a
+    type-I discrete sine transform.
+
+    Both transforms are evaluated through an FFT of the symmetrically extended data.
+    Transform plans and eigenvalues only depend on the grid, so they are cached and reused by later solves.
+
+    REFERENCES:
+    https://en.wikipedia.org/wiki/Discrete_cosine_transform#DCT-I
+    https://en.wikipedia.org/wiki/Discrete_Poisson_equation
+    */
+
+    private static final ConcurrentHashMap<GridKey, Plan> plans = new ConcurrentHashMap<>();
+
+    public static ScalarField solve(ScalarField f, PoissonBoundaryConditions boundaryConditions) {
+        // Requires both side lengths to be at least 2 (NEUMANN) or 3 (DIRICHLET)
+        Plan plan = plans.computeIfAbsent(new GridKey(f.width, f.height, boundaryConditions), Plan::new);
+
+        double[] values = f.toRowMajorArray();
+        plan.solveInPlace(values);
+        return ScalarField.wrap(f.width, f.height, values);
+    }
+
+    private record GridKey(int width, int height, PoissonBoundaryConditions boundaryConditions) { }
+
+    private static class Plan {
+        private final int width;
+        private final int height;
+        private final int margin;  // Elements next to the edge that are not transformed (the fixed Dirichlet boundary)
+        private final SymmetricTransform xTransform;
+        private final SymmetricTransform yTransform;
+
+        // Reciprocal of each eigenvalue, already scaled by the normalisation of the inverse transforms
+        // Indexed like the transformed region of the grid, row by row
+        private final double[] scaledInverseEigenvalues;
+
+        private Plan(GridKey key) {
+            this.width = key.width();
+            this.height = key.height();
+            boolean neumann = key.boundaryConditions() == PoissonBoundaryConditions.NEUMANN;
+            this.margin = neumann ? 0 : 1;
+
+            xTransform = new SymmetricTransform(width - 1, neumann);
+            yTransform = new SymmetricTransform(height - 1, neumann);
+
+            double[] xEigenvalues = xTransform.getEigenvalues();
+            double[] yEigenvalues = yTransform.getEigenvalues();
+            double normalisation = xTransform.getInverseScale() * yTransform.getInverseScale();
+
+            scaledInverseEigenvalues = new double[xEigenvalues.length * yEigenvalues.length];
+            for (int ky = 0; ky < yEigenvalues.length; ky++) {
+                for (int kx = 0; kx < xEigenvalues.length; kx++) {
+                    double eigenvalue = xEigenvalues[kx] + yEigenvalues[ky];
+
+                    // The constant function (kx = ky = 0, Neumann only) has eigenvalue zero. Its coefficient is the
+                    // weighted mean of f, which must be zero for a solution to exist, so it is dropped. This also
+                    // fixes the arbitrary constant in phi, giving phi a weighted mean of zero.
+                    scaledInverseEigenvalues[ky * xEigenvalues.length + kx] = neumann && kx == 0 && ky == 0
+                            ? 0
+                            : normalisation / eigenvalue;
+                }
+            }
+        }
+
+        private void solveInPlace(double[] values) {
+            int transformedWidth = xTransform.getSize();
+            int transformedHeight = yTransform.getSize();
+
+            SymmetricTransform.Workspace xWorkspace = xTransform.createWorkspace();
+            SymmetricTransform.Workspace yWorkspace = yTransform.createWorkspace();
+
+            transformInPlace(values, xWorkspace, yWorkspace);
+
+            for (int ky = 0; ky < transformedHeight; ky++) {
+                for (int kx = 0; kx < transformedWidth; kx++) {
+                    values[(ky + margin) * width + kx + margin] *= scaledInverseEigenvalues[ky * transformedWidth + kx];
+                }
+            }
+
+            transformInPlace(values, xWorkspace, yWorkspace);
+
+            if (margin > 0) {  // Dirichlet boundary stays at zero
+                for (int x = 0; x < width; x++) {
+                    values[x] = 0;
+                    values[(height - 1) * width + x] = 0;
+                }
+                for (int y = 0; y < height; y++) {
+                    values[y * width] = 0;
+                    values[y * width + width - 1] = 0;
+                }
+            }
+        }
+
+        private void transformInPlace(double[] values, SymmetricTransform.Workspace xWorkspace,
+                                      SymmetricTransform.Workspace yWorkspace) {
+            for (int y = margin; y < height - margin; y++) {
+                xTransform.apply(values, y * width + margin, 1, xWorkspace);
+            }
+            for (int x = margin; x < width - margin; x++) {
+                yTransform.apply(values, margin * width + x, width, yWorkspace);
+            }
+        }
+    }
+
+    private static class SymmetricTransform {
+        // Type-I discrete cosine transform over n + 1 elements (cosine = true):
+        //     X(k) = x(0) + (-1)^k x(n) + 2 * sum over 0 < j < n of x(j) cos(pi j k / n)
+        // or type-I discrete sine transform over the n - 1 elements strictly between them (cosine = false):
+        //     X(k) = 2 * sum over 0 < j < n of x(j) sin(pi j k / n)
+        // Applying either transform twice multiplies by 2n.
+
+        private final int n;
+        private final boolean cosine;
+        private final FFTPlan fftPlan;
+
+        private SymmetricTransform(int n, boolean cosine) {
+            this.n = n;
+            this.cosine = cosine;
+            this.fftPlan = FFTPlan.forLength(2 * n);
+        }
+
+        private int getSize() {
+            return cosine ? n + 1 : n - 1;
+        }
+
+        private double getInverseScale() {
+            return 1d / (2 * n);
+        }
+
+        private double[] getEigenvalues() {
+            // Eigenvalue of the one-dimensional stencil x(j - 1) - 2 x(j) + x(j + 1) for each basis function,
+            // 2 cos(pi k / n) - 2, written in a form that stays accurate for small k
+            double[] eigenvalues = new double[getSize()];
+            int firstK = cosine ? 0 : 1;
+            for (int i = 0; i < eigenvalues.length; i++) {
+                double sine = Math.sin(Math.PI * (i + firstK) / (2 * n));
+                eigenvalues[i] = -4 * sine * sine;
+            }
+            return eigenvalues;
+        }
+
+        private Workspace createWorkspace() {
+            return new Workspace(this);
+        }
+
+        private void apply(double[] values, int start, int stride, Workspace workspace) {
+            // Transforms the getSize() elements values[start], values[start + stride], ... in place,
+            // via the FFT of their even (cosine) or odd (sine) extension to a period of 2n
+            double[] re = workspace.re;
+            double[] im = workspace.im;
+            Arrays.fill(im, 0);
+
+            if (cosine) {
+                for (int j = 0; j <= n; j++) {
+                    double value = values[start + j * stride];
+                    re[j] = value;
+                    if (0 < j && j < n) {
+                        re[2 * n - j] = value;
+                    }
+                }
+            } else {
+                re[0] = 0;
+                re[n] = 0;
+                for (int j = 1; j < n; j++) {
+                    double value = values[start + (j - 1) * stride];
+                    re[j] = value;
+                    re[2 * n - j] = -value;
+                }
+            }
+
+            fftPlan.transform(re, im, workspace.fftWorkspace);
+
+            if (cosine) {
+                for (int k = 0; k <= n; k++) {
+                    values[start + k * stride] = re[k];
+                }
+            } else {
+                for (int k = 1; k < n; k++) {
+                    values[start + (k - 1) * stride] = -im[k];
+                }
+            }
+        }
+
+        private static class Workspace {
+            private final double[] re;
+            private final double[] im;
+            private final FFTPlan.Workspace fftWorkspace;
+
+            private Workspace(SymmetricTransform transform) {
+                re = new double[2 * transform.n];
+                im = new double[2 * transform.n];
+                fftWorkspace = transform.fftPlan.createWorkspace();
+            }
+        }
+    }
+}
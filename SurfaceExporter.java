@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class SurfaceExporter {
+    /*
+    Writes a lens surface (a height map, one height per lens vertex, as from HeightMapSolver) as a closed, triangulated
+    solid, for CNC machining or 3D printing: binary STL, or indexed binary PLY.
+
+    The solid has a flat bottom at z = 0, and its top is the height map raised by baseThickness, over a grid lensWidth
+    wide. The heights, lensWidth and baseThickness are in metres, as from HeightMapSolver, but neither STL nor PLY
+    records units, and slicers and CAM software take the numbers as millimetres. So coordinates are written multiplied
+    by unitsPerMetre, which is MILLIMETRES_PER_METRE unless given.
+    The top is split into triangles as in Matrix.getAllTriangleCoordGroups. The sides are strips of two triangles per
+    boundary edge, and the bottom is a fan of triangles from its centre to each boundary edge, so every edge is shared
+    by exactly two triangles. All triangles face outwards (counterclockwise seen from outside), with x to the right and
+    y up when the image is seen from above, as in the image itself.
+
+    Triangles are written to the file as they are generated, through one fixed-size buffer, so the memory used does not
+    depend on the size of the surface, and no object is created per triangle.
+
+    Vertices are numbered with the top ones first, in row-major order, then the bottom ones around the boundary
+    (clockwise from the top left in the image, as in Lens), then the centre of the bottom.
+
+    REFERENCES:
+    https://en.wikipedia.org/wiki/STL_(file_format)#Binary
+    http://paulbourke.net/dataformats/ply/
+    */
+
+    public static final double MILLIMETRES_PER_METRE = 1000;
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int STL_TRIANGLE_BYTES = 50;  // Normal and 3 vertices (12 floats), and a 2-byte attribute
+
+    private interface TriangleWriter {
+        // a, b and c are vertex numbers, counterclockwise seen from outside
+        void write(int a, int b, int c) throws IOException;
+    }
+
+    private final int width;  // Of the height map
+    private final int height;
+    private final double[] heights;
+    private final double unitsPerMetre;  // Of the coordinates written
+    private final double vertexSpacing;  // In the units written
+    private final double baseThickness;  // In metres
+
+    private SurfaceExporter(ScalarField heights, double lensWidth, double baseThickness, double unitsPerMetre) {
+        if (heights.width < 2 || heights.height < 2) {
+            throw new IllegalArgumentException("A surface needs at least 2x2 heights");
+        }
+        this.width = heights.width;
+        this.height = heights.height;
+        this.heights = heights.getRowMajorArray();  // Only read
+        if (!(unitsPerMetre > 0)) {
+            throw new IllegalArgumentException("The units must be a positive number per metre");
+        }
+        this.unitsPerMetre = unitsPerMetre;
+        this.vertexSpacing = lensWidth / (width - 1) * unitsPerMetre;
+        this.baseThickness = baseThickness;
+    }
+
+    public static void exportToSTL(ScalarField heights, double lensWidth, double baseThickness, String fileName) throws IOException {
+        // In millimetres
+        exportToSTL(heights, lensWidth, baseThickness, MILLIMETRES_PER_METRE, fileName);
+    }
+
+    public static void exportToSTL(ScalarField heights, double lensWidth, double baseThickness, double unitsPerMetre,
+                                   String fileName) throws IOException {
+        SurfaceExporter exporter = new SurfaceExporter(heights, lensWidth, baseThickness, unitsPerMetre);
+
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] header = new byte[80];
+            byte[] description = "Magic mirror lens surface".getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(description, 0, header, 0, description.length);
+            buffer.put(header);
+            buffer.putInt((int) exporter.getTriangleCount());  // Unsigned 32-bit in the file
+
+            float[] vertices = new float[9];
+            exporter.writeTriangles((a, b, c) -> {
+                if (buffer.remaining() < STL_TRIANGLE_BYTES) {
+                    flush(buffer, channel);
+                }
+                exporter.getPosition(a, vertices, 0);
+                exporter.getPosition(b, vertices, 3);
+                exporter.getPosition(c, vertices, 6);
+
+                // Normal = (b - a) x (c - a), normalised
+                float ux = vertices[3] - vertices[0], uy = vertices[4] - vertices[1], uz = vertices[5] - vertices[2];
+                float vx = vertices[6] - vertices[0], vy = vertices[7] - vertices[1], vz = vertices[8] - vertices[2];
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length > 0) {
+                    nx /= length;
+                    ny /= length;
+                    nz /= length;
+                }
+
+                buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+                for (float coordinate : vertices) {
+                    buffer.putFloat(coordinate);
+                }
+                buffer.putShort((short) 0);
+            });
+            flush(buffer, channel);
+        }
+    }
+
+    public static void exportToPLY(ScalarField heights, double lensWidth, double baseThickness, String fileName) throws IOException {
+        // In millimetres
+        exportToPLY(heights, lensWidth, baseThickness, MILLIMETRES_PER_METRE, fileName);
+    }
+
+    public static void exportToPLY(ScalarField heights, double lensWidth, double baseThickness, double unitsPerMetre,
+                                   String fileName) throws IOException {
+        SurfaceExporter exporter = new SurfaceExporter(heights, lensWidth, baseThickness, unitsPerMetre);
+
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+            String header = "ply\n"
+                    + "format binary_little_endian 1.0\n"
+                    + "comment Magic mirror lens surface\n"
+                    + "comment " + exporter.unitsPerMetre + " units per metre\n"
+                    + "element vertex " + exporter.getVertexCount() + "\n"
+                    + "property float x\n"
+                    + "property float y\n"
+                    + "property float z\n"
+                    + "element face " + exporter.getTriangleCount() + "\n"
+                    + "property list uchar int vertex_indices\n"
+                    + "end_header\n";
+            buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+
+            float[] position = new float[3];
+            for (int vertex = 0; vertex < exporter.getVertexCount(); vertex++) {
+                if (buffer.remaining() < 3 * Float.BYTES) {
+                    flush(buffer, channel);
+                }
+                exporter.getPosition(vertex, position, 0);
+                buffer.putFloat(position[0]).putFloat(position[1]).putFloat(position[2]);
+            }
+
+            exporter.writeTriangles((a, b, c) -> {
+                if (buffer.remaining() < 1 + 3 * Integer.BYTES) {
+                    flush(buffer, channel);
+                }
+                buffer.put((byte) 3).putInt(a).putInt(b).putInt(c);
+            });
+            flush(buffer, channel);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private int getBoundaryVertexCount() {
+        return 2 * (width - 1) + 2 * (height - 1);
+    }
+
+    private int getVertexCount() {
+        return width * height + getBoundaryVertexCount() + 1;
+    }
+
+    private long getTriangleCount() {
+        // Top, sides and bottom
+        return 2L * (width - 1) * (height - 1) + 2L * getBoundaryVertexCount() + getBoundaryVertexCount();
+    }
+
+    private int getBoundaryTopVertex(int k) {
+        // The top vertex at position k around the boundary, clockwise from the top left in the image
+        if (k < width - 1) {
+            return k;  // Along the top edge, left to right
+        }
+        k -= width - 1;
+        if (k < height - 1) {
+            return k * width + width - 1;  // Down the right edge
+        }
+        k -= height - 1;
+        if (k < width - 1) {
+            return (height - 1) * width + width - 1 - k;  // Along the bottom edge, right to left
+        }
+        k -= width - 1;
+        return (height - 1 - k) * width;  // Up the left edge
+    }
+
+    private void getPosition(int vertex, float[] out, int offset) {
+        int topVertices = width * height;
+        int x;
+        int y;
+        double z;
+
+        if (vertex < topVertices) {
+            x = vertex % width;
+            y = vertex / width;
+            z = (baseThickness + heights[vertex]) * unitsPerMetre;
+        } else if (vertex < topVertices + getBoundaryVertexCount()) {
+            int top = getBoundaryTopVertex(vertex - topVertices);
+            x = top % width;
+            y = top / width;
+            z = 0;
+        } else {  // Centre of the bottom
+            out[offset] = (float) ((width - 1) * vertexSpacing / 2);
+            out[offset + 1] = (float) ((height - 1) * vertexSpacing / 2);
+            out[offset + 2] = 0;
+            return;
+        }
+
+        // y is flipped, so that the image is the right way round seen from above
+        out[offset] = (float) (x * vertexSpacing);
+        out[offset + 1] = (float) ((height - 1 - y) * vertexSpacing);
+        out[offset + 2] = (float) z;
+    }
+
+    private void writeTriangles(TriangleWriter writer) throws IOException {
+        // Top: the grid's triangles are clockwise seen from above, so each is written reversed
+        try {
+            Matrix.forEachTriangle(width, height, 0, height - 1, (a, b, c) -> {
+                try {
+                    writer.write(a, c, b);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Sides and bottom, one boundary edge at a time
+        // The boundary goes clockwise seen from above, so outwards is to the left of each edge
+        int boundaryVertices = getBoundaryVertexCount();
+        int firstBottom = width * height;
+        int centre = firstBottom + boundaryVertices;
+        for (int k = 0; k < boundaryVertices; k++) {
+            int next = (k + 1) % boundaryVertices;
+            int topStart = getBoundaryTopVertex(k);
+            int topEnd = getBoundaryTopVertex(next);
+            int bottomStart = firstBottom + k;
+            int bottomEnd = firstBottom + next;
+
+            writer.write(bottomStart, topEnd, bottomEnd);
+            writer.write(bottomStart, topStart, topEnd);
+            writer.write(centre, bottomStart, bottomEnd);
+        }
+    }
+}
@@ -2,7 +2,7 @@ public class Test {
     public static void main(String[] args) {
         try {
             Lens lens = new Lens(256, 256);
-            VectorField velField = new VectorField("Files/velField0.csv");
+            VectorField velField = FieldFile.readVectorField(MagicMirrorMaker.createFieldFileName("velField", 0));
             lens.marchPointsBasedOnVelocityField(velField);
             lens.exportToCSV("Files/march.csv");
         } catch (Exception e) {
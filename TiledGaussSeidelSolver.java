@@ -0,0 +1,130 @@
+public class TiledGaussSeidelSolver {
+    /*
+    Lexicographic Gauss-Seidel with temporal blocking.
+    A conventional sweep streams the whole grid through the cache once per sweep, so on grids larger than the cache
+    every sweep is limited by memory bandwidth. Here several sweeps are fused into one pass over the grid, a tile at a
+    time, so that each element is only loaded from memory once per pass instead of once per sweep.
+
+    Within a tile, the sweeps move down the grid as a wavefront: at each step, sweep k updates the row k rows above the
+    row that sweep 0 is updating. Updating (x, y) in sweep k needs (x, y - 1) from sweep k and (x, y + 1) from sweep
+    k - 1, and sweep k - 1 updates row y + 1 in the same step, just before sweep k updates row y.
+
+    The tiles are blocks of columns, done left to right, so that a tile's working set does not grow with the width of
+    the grid. Updating (x, y) in sweep k also needs (x - 1, y) from sweep k and (x + 1, y) from sweep k - 1, so the
+    tiles are parallelograms: sweep k of a tile covers its columns shifted k to the left. The right-hand neighbour of a
+    tile's last column in sweep k is then the first column that sweep k - 1 covers beyond it, in the same tile, and the
+    left-hand neighbour of its first column was last updated by sweep k of the tile before.
+    So every element is updated from exactly the same values as in PoissonStencil.sweep, and the results are identical.
+
+    REFERENCES:
+    Wonnacott - Using Time Skewing to Eliminate Idle Time due to Memory Bandwidth and Network Limitations (IPDPS 2000)
+    Datta et al. - Stencil Computation Optimization and Auto-tuning on State-of-the-Art Multicore Architectures (SC08)
+    */
+
+    private static final int CACHE_BUDGET_BYTES = 256 * 1024;  // Roughly one core's share of L2
+    private static final int SWEEPS_PER_PASS = 8;
+
+    public static ScalarField solve(ScalarField initialPhi, ScalarField f, double overcorrectionFactor,
+                                    PoissonBoundaryConditions boundaryConditions, double stabilisationThreshold,
+                                    int maxSweeps, PoissonConvergenceMonitor monitor) {
+        // Sweeps until no element changes by more than stabilisationThreshold in a whole sweep
+        // Since sweeps are done a pass at a time, up to getSweepsPerPass - 1 more sweeps than needed may be done
+        // A negative overcorrectionFactor means no overcorrection, as in PoissonSolver
+
+        int width = f.width;
+        int height = f.height;
+        double[] phi = initialPhi.toRowMajorArray();
+        double[] fValues = f.getRowMajorArray();  // Only read
+        double omega = overcorrectionFactor < 0 ? 1 : overcorrectionFactor;
+
+        int sweepsPerPass = getSweepsPerPass();
+        double[] maxDiffs = new double[sweepsPerPass];
+
+        int sweeps = 0;
+        boolean stabilised = false;
+        while (sweeps < maxSweeps && !stabilised) {
+            int passSweeps = Math.min(sweepsPerPass, maxSweeps - sweeps);
+            multiSweep(phi, fValues, width, height, omega, boundaryConditions, passSweeps, getTileWidth(passSweeps),
+                    maxDiffs);
+
+            for (int k = 0; k < passSweeps; k++) {
+                sweeps++;
+                if (!monitor.record(sweeps, maxDiffs[k]) || maxDiffs[k] <= stabilisationThreshold) {
+                    stabilised = true;
+                }
+            }
+        }
+
+        return ScalarField.wrap(width, height, phi);
+    }
+
+    public static int getSweepsPerPass() {
+        return SWEEPS_PER_PASS;
+    }
+
+    public static int getTileWidth(int sweepCount) {
+        // The rows in flight, plus one row either side, should fit in the cache budget, for both phi and f, across the
+        // tile's columns and the sweepCount columns that its parallelogram leans over
+        int bytesPerColumn = 2 * Double.BYTES * (sweepCount + 2);
+        return Math.max(sweepCount, CACHE_BUDGET_BYTES / bytesPerColumn - sweepCount);
+    }
+
+    public static void multiSweep(double[] phi, double[] f, int width, int height, double overcorrectionFactor,
+                                  PoissonBoundaryConditions boundaryConditions, int sweepCount, int tileWidth,
+                                  double[] maxDiffs) {
+        // Equivalent to sweepCount calls to PoissonStencil.sweep, in place
+        // maxDiffs[k] is set to the maximum absolute change of any element in sweep k
+        // tileWidth must be at least sweepCount, so that sweep k - 1 of the first tile covers the column that a
+        // mirrored Neumann edge reflects to before sweep k needs it
+
+        if (tileWidth < sweepCount) {
+            throw new IllegalArgumentException("Tiles must be at least as wide as the number of sweeps");
+        }
+
+        int margin = boundaryConditions == PoissonBoundaryConditions.NEUMANN ? 0 : 1;
+        int rows = height - 2 * margin;
+
+        for (int k = 0; k < sweepCount; k++) {
+            maxDiffs[k] = 0;
+        }
+
+        // Sweep k of the tile starting at column tileStart covers columns tileStart - k to tileStart + tileWidth - k
+        // (exclusive), within the margin, so the last tile starts far enough right for its last sweep to reach the edge
+        for (int tileStart = margin; tileStart - (sweepCount - 1) < width - margin; tileStart += tileWidth) {
+            for (int step = 0; step < rows + sweepCount - 1; step++) {
+                // Earlier sweeps first, so that sweep k - 1 has already updated the row below the one sweep k updates
+                for (int k = 0; k < sweepCount; k++) {
+                    int y = margin + step - k;
+                    if (y < margin || y >= height - margin) {
+                        continue;
+                    }
+                    int xStart = Math.max(margin, tileStart - k);
+                    int xEnd = Math.min(width - margin, tileStart + tileWidth - k);
+                    if (xStart >= xEnd) {
+                        continue;
+                    }
+
+                    maxDiffs[k] = Math.max(maxDiffs[k],
+                            sweepRow(phi, f, width, height, y, xStart, xEnd, overcorrectionFactor));
+                }
+            }
+        }
+    }
+
+    private static double sweepRow(double[] phi, double[] f, int width, int height, int y, int xStart, int xEnd,
+                                   double overcorrectionFactor) {
+        double maxDiff = 0;
+
+        for (int x = xStart; x < xEnd; x++) {
+            int i = y * width + x;
+            double oldValue = phi[i];
+            double result = PoissonStencil.getRelaxedValueAt(phi, f, width, height, x, y, 1, 1);
+            double newValue = oldValue + (result - oldValue) * overcorrectionFactor;
+
+            maxDiff = Math.max(maxDiff, Math.abs(newValue - oldValue));
+            phi[i] = newValue;
+        }
+
+        return maxDiff;
+    }
+}
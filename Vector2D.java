@@ -7,9 +7,13 @@ public class Vector2D {
         this.y = y;
     }
 
+    protected Vector2D() {
+        // For subclasses that keep their components elsewhere, and override the getters and setters
+    }
+
     @Override
     public String toString() {
-        return "(" + x + ", " + y + ")";
+        return "(" + getX() + ", " + getY() + ")";
     }
 
     public static Vector2D zeroVector() {
@@ -33,22 +37,22 @@ public class Vector2D {
     }
 
     public Vector2D plus(Vector2D otherVector) {
-        return new Vector2D(x + otherVector.getX(), y + otherVector.getY());
+        return new Vector2D(getX() + otherVector.getX(), getY() + otherVector.getY());
     }
 
     public Vector2D minus(Vector2D otherVector) {
-        return new Vector2D(x - otherVector.getX(), y - otherVector.getY());
+        return new Vector2D(getX() - otherVector.getX(), getY() - otherVector.getY());
     }
 
     public Vector2D scaled(double m) {
-        return new Vector2D(x * m, y * m);
+        return new Vector2D(getX() * m, getY() * m);
     }
 
     public Vector2D negated() {
-        return new Vector2D(-x, -y);
+        return new Vector2D(-getX(), -getY());
     }
 
     public double length() {
-        return Math.sqrt(x * x + y * y);
+        return Math.sqrt(getX() * getX() + getY() * getY());
     }
 }
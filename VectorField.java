@@ -1,97 +1,276 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
-public class VectorField extends Matrix<Vector2D> implements ExportableToCSV {
+public class VectorField implements ExportableToCSV {
+    // Stored as two flat arrays of primitive doubles (structure of arrays), one for the x components and one for the
+    // y components, each row by row, rather than as one Vector2D object per element.
+    // getElement still returns a Vector2D for existing callers, but it is a view: setting its components sets them in
+    // this field. Loops over the whole field should use the primitive accessors instead, which never allocate.
+    // As with ScalarField, a field can instead be stored in an OffHeapGrid with 2 components, x then y (see
+    // wrap(OffHeapGrid)); only element access and CSV export work on it then
+
+    protected final int width;
+    protected final int height;
+    private final double[] xs;  // x component of element (x, y) is stored at xs[y * width + x]; null when off the heap
+    private final double[] ys;
+    private final OffHeapGrid grid;  // null unless stored off the heap
+
     public VectorField(int width, int height) {
-        super(width, height);
+        // All elements are initialised to the zero vector
+        this(width, height, new double[width * height], new double[width * height]);
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                setElement(x, y, Vector2D.zeroVector());
+    public VectorField(VectorField field) {
+        // A field stored off the heap is copied into a new grid stored in the same way (see OffHeapGrid.copy)
+        if (field.grid != null) {
+            try {
+                this.grid = field.grid.copy();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not copy an off-heap field", e);
             }
+            this.width = field.width;
+            this.height = field.height;
+            this.xs = null;
+            this.ys = null;
+        } else {
+            this.width = field.width;
+            this.height = field.height;
+            this.xs = field.xs.clone();
+            this.ys = field.ys.clone();
+            this.grid = null;
         }
     }
 
     public VectorField(Matrix<Vector2D> matrix) {
-        super(matrix.width, matrix.height);
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
+        this(matrix.width, matrix.height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
                 setElement(x, y, matrix.getElement(x, y));
             }
         }
     }
 
+    protected VectorField(int width, int height, double[] xs, double[] ys) {
+        if (xs.length != width * height || ys.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " values per component");
+        }
+        this.width = width;
+        this.height = height;
+        this.xs = xs;
+        this.ys = ys;
+        this.grid = null;
+    }
+
+    protected VectorField(OffHeapGrid grid) {
+        if (grid.components != 2) {
+            throw new IllegalArgumentException("A vector field needs a grid with 2 components, but got " + grid.components);
+        }
+        this.width = grid.width;
+        this.height = grid.height;
+        this.xs = null;
+        this.ys = null;
+        this.grid = grid;
+    }
+
+    public static VectorField wrap(int width, int height, double[] xs, double[] ys) {
+        // Uses xs and ys themselves as the storage, without copying them
+        return new VectorField(width, height, xs, ys);
+    }
+
+    public static VectorField wrap(OffHeapGrid grid) {
+        // Uses grid itself as the storage, so changes to either change both
+        return new VectorField(grid);
+    }
+
     public VectorField(String csvFileName) throws Exception {
-        this(getMatrixOfVectorsFromCSVFile(csvFileName));
+        this(CSVFieldReader.readVectorArrays(csvFileName));
     }
 
-    private static Matrix<Vector2D> getMatrixOfVectorsFromCSVFile(String csvFileName) throws Exception {
-        BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
+    protected VectorField(CSVFieldReader.VectorArrays arrays) {
+        // Takes the arrays as read as its storage, without copying them
+        this(arrays.width(), arrays.height(), arrays.xs(), arrays.ys());
+    }
 
-        int xMax = 0;
-        int yMax = 0;
-        ArrayList<HashMap<String, Number>> rows = new ArrayList<>();  // x -> y -> vector elements
+    public Vector2D getElement(int x, int y) {
+        // A live view of the element, not a copy
+        return new ElementView(this, x, y);
+    }
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] items = line.split(", ");
+    public void setElement(int x, int y, Vector2D val) {
+        // Copies the components, so later changes to val do not affect this field
+        setElement(x, y, val.getX(), val.getY());
+    }
 
-            HashMap<String, Number> rowData = new HashMap<>();
+    public void setElement(int x, int y, double vx, double vy) {
+        if (grid != null) {
+            grid.set(0, x, y, vx);
+            grid.set(1, x, y, vy);
+            return;
+        }
+        int i = y * width + x;
+        xs[i] = vx;
+        ys[i] = vy;
+    }
 
-            int x = Integer.parseInt(items[0]);
-            int y = Integer.parseInt(items[1]);
-            double vx = Double.parseDouble(items[2]);
-            double vy = Double.parseDouble(items[3]);
-            xMax = Math.max(xMax, x);
-            yMax = Math.max(yMax, y);
+    public double getX(int x, int y) {
+        if (grid != null) {
+            return grid.get(0, x, y);
+        }
+        return xs[y * width + x];
+    }
 
-            rowData.put("x", x);
-            rowData.put("y", y);
-            rowData.put("vx", vx);
-            rowData.put("vy", vy);
+    public double getY(int x, int y) {
+        if (grid != null) {
+            return grid.get(1, x, y);
+        }
+        return ys[y * width + x];
+    }
 
-            rows.add(rowData);
+    public void setX(int x, int y, double vx) {
+        if (grid != null) {
+            grid.set(0, x, y, vx);
+            return;
         }
+        xs[y * width + x] = vx;
+    }
 
-        Matrix<Vector2D> matrix = new Matrix<>(xMax + 1, yMax + 1);
+    public void setY(int x, int y, double vy) {
+        if (grid != null) {
+            grid.set(1, x, y, vy);
+            return;
+        }
+        ys[y * width + x] = vy;
+    }
+
+    public double[] getXs() {
+        // The backing array itself, so changes to it change this field
+        if (grid != null) {
+            throw new IllegalStateException("A field stored off the heap has no backing arrays");
+        }
+        return xs;
+    }
 
-        for (HashMap<String, Number> rowData : rows) {
-            matrix.setElement(
-                    (int) rowData.get("x"),
-                    (int) rowData.get("y"),
-                    new Vector2D((double) rowData.get("vx"), (double) rowData.get("vy"))
-                    );
+    public double[] getYs() {
+        if (grid != null) {
+            throw new IllegalStateException("A field stored off the heap has no backing arrays");
         }
+        return ys;
+    }
+
+    public boolean isOffHeap() {
+        return grid != null;
+    }
 
-        return matrix;
+    public OffHeapGrid getOffHeapGrid() {
+        // The grid itself, or null for a field stored on the heap
+        return grid;
+    }
+
+    public boolean validIndices(int x, int y) {
+        return 0 <= x && x < width && 0 <= y && y < height;
+    }
+
+    public boolean hasSameShapeAs(VectorField field) {
+        return width == field.width && height == field.height;
     }
 
     public VectorField negated() {
-        return new VectorField(getMapped(Vector2D::negated));
+        double[] xs = getXs();
+        double[] ys = getYs();
+        double[] negatedXs = new double[xs.length];
+        double[] negatedYs = new double[ys.length];
+        for (int i = 0; i < xs.length; i++) {
+            negatedXs[i] = -xs[i];
+            negatedYs[i] = -ys[i];
+        }
+        return wrap(width, height, negatedXs, negatedYs);
     }
 
-    @Override
-    public String toCSVString() {
-        // xPos, yPos, vectorX, vectorY
+    public void addScaled(VectorField field, double factor) throws Exception {
+        // this = this + field * factor, in place
+        if (!hasSameShapeAs(field)) {
+            throw new Exception("Cannot add vector fields of different sizes");
+        }
+
+        double[] xs = getXs();
+        double[] ys = getYs();
+        double[] fieldXs = field.getXs();
+        double[] fieldYs = field.getYs();
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] += fieldXs[i] * factor;
+            ys[i] += fieldYs[i] * factor;
+        }
+    }
 
-        StringBuilder result = new StringBuilder();
+    public VectorField copiedInto(VectorField field) {
+        // Copies elements into a copy of field, not necessarily of the same size, as in Matrix.copiedInto
+        VectorField result = new VectorField(field);
 
-        for (int y = 0; y < height; y++) {
+        double[] xs = getXs();
+        double[] ys = getYs();
+        int copyWidth = Math.min(width, field.width);
+        for (int y = 0; y < Math.min(height, field.height); y++) {
+            System.arraycopy(xs, y * width, result.getXs(), y * field.width, copyWidth);
+            System.arraycopy(ys, y * width, result.getYs(), y * field.width, copyWidth);
+        }
+        return result;
+    }
+
+    public ArrayList<Pair<Integer, Integer>[]> getAllTriangleCoordGroups() {
+        return Matrix.getAllTriangleCoordGroups(width, height);
+    }
+
+    public void forEachTriangle(Matrix.TriangleVisitor visitor) {
+        // The indices passed to visitor index getXs() and getYs()
+        Matrix.forEachTriangle(width, height, 0, height - 1, visitor);
+    }
+
+    @Override
+    public int getCSVRowCount() {
+        return height;
+    }
+
+    @Override
+    public void appendCSVRows(int yStart, int yEnd, CSVBuffer buffer) {
+        // xPos, yPos, vectorX, vectorY
+        for (int y = yStart; y < yEnd; y++) {
             for (int x = 0; x < width; x++) {
-                Vector2D vector = getElement(x, y);
-                result.append(x);
-                result.append(", ");
-                result.append(y);
-                result.append(", ");
-                result.append(vector.getX());
-                result.append(", ");
-                result.append(vector.getY());
-                result.append('\n');
+                buffer.append(x).append(", ").append(y).append(", ").append(getX(x, y)).append(", ").append(getY(x, y)).append('\n');
             }
         }
+    }
 
-        return result.toString();
+    private static class ElementView extends Vector2D {
+        // Reads and writes one element of a VectorField in place
+        private final VectorField field;
+        private final int x;
+        private final int y;
+
+        private ElementView(VectorField field, int x, int y) {
+            this.field = field;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public double getX() {
+            return field.getX(x, y);
+        }
+
+        @Override
+        public double getY() {
+            return field.getY(x, y);
+        }
+
+        @Override
+        public void setX(double x) {
+            field.setX(this.x, y, x);
+        }
+
+        @Override
+        public void setY(double y) {
+            field.setY(x, this.y, y);
+        }
     }
 }